@@ -1,5 +1,6 @@
 plugins {
     kotlin("jvm") version "2.4.0"
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 group = "org.example"
@@ -26,3 +27,25 @@ tasks.test {
 kotlin {
     jvmToolchain(21)
 }
+
+// Бенчмарки: src/jmh/java, запуск ./gradlew jmh
+// Результаты в JSON, чтобы сравнивать прогоны между собой
+jmh {
+    jmhVersion = "1.37"
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+    includes = providers.gradleProperty("jmhIncludes").map { listOf(it) }.orElse(listOf(".*"))
+    // -PjmhProfilers=gc - байты на операцию (gc.alloc.rate.norm)
+    profilers = providers.gradleProperty("jmhProfilers").map { it.split(",") }.orElse(listOf())
+}
+
+// Прогон бенчмарков коллекций на 1..16 потоках одним запуском:
+// ./gradlew jmhThreadSweep -> build/results/jmh/collections-threads.json
+tasks.register<JavaExec>("jmhThreadSweep") {
+    group = "benchmark"
+    description = "Runs concurrent collections benchmarks for several thread counts"
+    dependsOn("jmhJar")
+    classpath = files(tasks.named("jmhJar"))
+    mainClass = "exercise.concurrency.CollectionsBenchmarkRunner"
+    args(layout.buildDirectory.file("results/jmh/collections-threads.json").get().asFile.path)
+}
@@ -0,0 +1,45 @@
+package exercise.concurrency;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the collection benchmarks once per thread count and writes all results into one JSON file.
+ * JMH has no @Param for threads, so the sweep is done here (./gradlew jmhThreadSweep).
+ */
+public class CollectionsBenchmarkRunner {
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws RunnerException, FileNotFoundException {
+        File output = new File(args.length > 0 ? args[0] : "collections-threads.json");
+        output.getAbsoluteFile().getParentFile().mkdirs();
+
+        List<RunResult> results = new ArrayList<>();
+        for (int threads : THREADS) {
+            Options options = new OptionsBuilder()
+                    .include(MapBenchmark.class.getSimpleName())
+                    .include(ListBenchmark.class.getSimpleName())
+                    // group benchmark: threads are spread over producer/consumer pairs
+                    .include(QueueBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            results.addAll(new Runner(options).run());
+        }
+
+        try (PrintStream out = new PrintStream(output)) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+        System.out.println("Results: " + output.getAbsolutePath());
+    }
+}
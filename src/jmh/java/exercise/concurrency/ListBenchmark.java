@@ -0,0 +1,92 @@
+package exercise.concurrency;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CopyOnWriteArrayList vs Collections.synchronizedList.
+ * <p>
+ * Reads are get(i) and a full iteration (the case COW is made for: no lock, no copy),
+ * writes are set(i) so the size stays constant (COW copies the whole array on every write).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListBenchmark {
+
+    @Param({"copyOnWriteArrayList", "synchronizedList"})
+    public String listType;
+
+    @Param({"90", "99", "100"})
+    public int readPercent;
+
+    @Param({"1000"})
+    public int size;
+
+    private List<Integer> list;
+
+    @Setup
+    public void setUp() {
+        List<Integer> initial = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            initial.add(i);
+        }
+        list = switch (listType) {
+            case "copyOnWriteArrayList" -> new CopyOnWriteArrayList<>(initial);
+            case "synchronizedList" -> Collections.synchronizedList(initial);
+            default -> throw new IllegalArgumentException("Unknown list " + listType);
+        };
+    }
+
+    @Benchmark
+    public Integer getOrSet() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(size);
+        if (random.nextInt(100) < readPercent) {
+            return list.get(index);
+        }
+        return list.set(index, index);
+    }
+
+    @Benchmark
+    public long iterateOrSet() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextInt(100) < readPercent) {
+            long sum = 0;
+            // synchronizedList requires manual locking for iteration
+            if (list instanceof CopyOnWriteArrayList) {
+                for (Integer value : list) {
+                    sum += value;
+                }
+            } else {
+                synchronized (list) {
+                    for (Integer value : list) {
+                        sum += value;
+                    }
+                }
+            }
+            return sum;
+        }
+        int index = random.nextInt(size);
+        return list.set(index, index);
+    }
+}
@@ -0,0 +1,69 @@
+package exercise.concurrency;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH version of {@link ConcurrentCollectionsExamples#demonstratePerformanceComparison()}:
+ * warmup, forks and returned values (no dead code elimination) instead of one nanoTime around start/join.
+ * <p>
+ * Every operation picks a random key from a prefilled key space and does a get with probability
+ * readPercent, otherwise a put. Thread count comes from -t or from {@link CollectionsBenchmarkRunner}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MapBenchmark {
+    private static final int KEYS = 1 << 16;
+
+    @Param({"synchronizedHashMap", "concurrentHashMap", "concurrentSkipListMap"})
+    public String mapType;
+
+    @Param({"50", "90", "99"})
+    public int readPercent;
+
+    private Map<Integer, Integer> map;
+
+    @Setup
+    public void setUp() {
+        map = switch (mapType) {
+            case "synchronizedHashMap" -> Collections.synchronizedMap(new HashMap<>());
+            case "concurrentHashMap" -> new ConcurrentHashMap<>();
+            case "concurrentSkipListMap" -> new ConcurrentSkipListMap<>();
+            default -> throw new IllegalArgumentException("Unknown map " + mapType);
+        };
+        for (int i = 0; i < KEYS; i++) {
+            map.put(i, i);
+        }
+    }
+
+    @Benchmark
+    public Integer readWrite() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Integer key = random.nextInt(KEYS);
+        if (random.nextInt(100) < readPercent) {
+            return map.get(key);
+        }
+        return map.put(key, key);
+    }
+}
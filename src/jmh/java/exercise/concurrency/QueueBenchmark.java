@@ -0,0 +1,94 @@
+package exercise.concurrency;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Producer-consumer throughput of the BlockingQueue implementations.
+ * <p>
+ * offer/poll instead of put/take: a blocked thread at the end of an iteration would hang the run,
+ * and the non-blocking calls still go through the same locks / CAS paths.
+ * The group is one producer + one consumer (@GroupThreads(1) each). The state is Scope.Group: every group
+ * instance gets its own queue, so -t N (rounded up to a multiple of the group size, 2) runs N/2 independent
+ * pairs, each on its own queue - more threads measure more pairs, not more contention on one queue.
+ * <p>
+ * LinkedTransferQueue is unbounded and its size() walks the whole list, so it is bounded by a separate
+ * counter - one atomic per operation, the same cost LinkedBlockingQueue pays for its own count.
+ * The bounded queues are called directly: size() would measure a traversal or an extra lock, not offer/poll.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class QueueBenchmark {
+    private static final Integer ITEM = 42;
+
+    @Param({"arrayBlockingQueue", "linkedBlockingQueue", "linkedBlockingDeque", "linkedTransferQueue"})
+    public String queueType;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private BlockingQueue<Integer> queue;
+    // only for the unbounded LinkedTransferQueue
+    private AtomicInteger unboundedSize;
+
+    @Setup
+    public void setUp() {
+        queue = switch (queueType) {
+            case "arrayBlockingQueue" -> new ArrayBlockingQueue<>(capacity);
+            case "linkedBlockingQueue" -> new LinkedBlockingQueue<>(capacity);
+            case "linkedBlockingDeque" -> new LinkedBlockingDeque<>(capacity);
+            case "linkedTransferQueue" -> new LinkedTransferQueue<>();
+            default -> throw new IllegalArgumentException("Unknown queue " + queueType);
+        };
+        unboundedSize = queue instanceof LinkedTransferQueue ? new AtomicInteger() : null;
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    public boolean offer() {
+        if (unboundedSize == null) {
+            return queue.offer(ITEM);
+        }
+        // LinkedTransferQueue is unbounded: keep it comparable to the bounded ones
+        if (unboundedSize.get() >= capacity) {
+            return false;
+        }
+        unboundedSize.incrementAndGet();
+        return queue.offer(ITEM);
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    public Integer poll() {
+        Integer item = queue.poll();
+        if (item != null && unboundedSize != null) {
+            unboundedSize.decrementAndGet();
+        }
+        return item;
+    }
+}
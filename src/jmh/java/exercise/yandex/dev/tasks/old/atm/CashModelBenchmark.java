@@ -0,0 +1,198 @@
+package exercise.yandex.dev.tasks.atm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Модель кассет: исходные Map&lt;Denomination, Integer&gt; (HashMap + TreeMap на каждую выдачу, Integer-счетчики)
+ * против упакованных счетчиков по слотам номиналов ({@link CashStorage}, {@link DenominationTable}).
+ * <p>
+ * legacyWithdraw        - исходные ATM и CashStorage, скопированы ниже (без отладочной печати в takeMoney)
+ * withdraw              - текущий ATM: аллоцирует только результат
+ * legacyGetForCurrency  - исходный Denomination.getForCurrency: stream + filter + sort на каждый вызов
+ * getForCurrency        - таблица, посчитанная при загрузке enum
+ * <p>
+ * Суммы RUB от 100 до 20000, кассеты загружаются заново, когда денег меньше чем на самую крупную выдачу.
+ * Байты на операцию - с профилировщиком GC:
+ * ./gradlew jmh -PjmhIncludes=CashModelBenchmark -PjmhProfilers=gc  (см. gc.alloc.rate.norm)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CashModelBenchmark {
+    private static final int AMOUNTS = 1024;
+    private static final long MAX_AMOUNT = 20_000;
+    private static final Map<Denomination, Integer> FULL = Map.of(
+            Denomination.RUB_5000, 100,
+            Denomination.RUB_1000, 200,
+            Denomination.RUB_500, 200,
+            Denomination.RUB_100, 300,
+            Denomination.RUB_50, 300);
+
+    private final long[] amounts = new long[AMOUNTS];
+    private CashStorage storage;
+    private ATM atm;
+    private LegacyCashStorage legacyStorage;
+    private LegacyAtm legacy;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < AMOUNTS; i++) {
+            amounts[i] = 100 * (1 + random.nextLong(MAX_AMOUNT / 100));
+        }
+        storage = new CashStorage();
+        storage.newBank(FULL, Currency.RUB);
+        atm = new ATM(storage);
+        legacyStorage = new LegacyCashStorage();
+        legacyStorage.newBank(new HashMap<>(FULL), Currency.RUB);
+        legacy = new LegacyAtm(legacyStorage);
+    }
+
+    private long nextAmount() {
+        int i = next;
+        next = (i + 1) & (AMOUNTS - 1);
+        return amounts[i];
+    }
+
+    @Benchmark
+    public WithdrawResult legacyWithdraw() {
+        if (legacy.getBalance(Currency.RUB) < MAX_AMOUNT) {
+            legacyStorage.newBank(new HashMap<>(FULL), Currency.RUB);
+        }
+        return legacy.withdraw(Currency.RUB, nextAmount());
+    }
+
+    @Benchmark
+    public WithdrawResult withdraw() {
+        if (atm.getBalance(Currency.RUB) < MAX_AMOUNT) {
+            storage.newBank(FULL, Currency.RUB);
+        }
+        return atm.withdraw(Currency.RUB, nextAmount());
+    }
+
+    @Benchmark
+    public List<Denomination> legacyGetForCurrency() {
+        return Arrays.stream(Denomination.values())
+                .filter(d -> d.getConcurency() == Currency.RUB)
+                .sorted(Comparator.comparingInt(Denomination::getAmount).reversed())
+                .toList();
+    }
+
+    @Benchmark
+    public List<Denomination> getForCurrency() {
+        return Denomination.getForCurrency(Currency.RUB);
+    }
+
+    /**
+     * Исходный CashStorage - база для сравнения.
+     */
+    static class LegacyCashStorage {
+        private final Map<Currency, Map<Denomination, Integer>> bank = new HashMap<>();
+
+        Map<Currency, Map<Denomination, Integer>> getBank() {
+            return bank;
+        }
+
+        void newBank(Map<Denomination, Integer> newBank, Currency currency) {
+            bank.put(currency, newBank);
+        }
+    }
+
+    /**
+     * Исходный ATM - база для сравнения.
+     */
+    static class LegacyAtm {
+        private final LegacyCashStorage cashStorage;
+
+        LegacyAtm(LegacyCashStorage cashStorage) {
+            this.cashStorage = cashStorage;
+        }
+
+        private static Map<Denomination, Integer> canTake(Map<Denomination, Integer> cash, long amount) {
+            Map<Denomination, Integer> newMap = new HashMap<>();
+            for (Map.Entry<Denomination, Integer> entry : cash.entrySet()) {
+                if (amount == 0) {
+                    break;
+                }
+                long count = amount / entry.getKey().getAmount();
+                long min = Math.min(count, entry.getValue());
+                if (min > 0) {
+                    newMap.put(entry.getKey(), (int) min);
+                    amount -= min * entry.getKey().getAmount();
+                }
+            }
+            if (amount == 0) {
+                return newMap;
+            }
+            return Map.of();
+        }
+
+        WithdrawResult withdraw(Currency currency, long amount) {
+            if (currency == null) {
+                return WithdrawResult.fail("Concurenc cant be null");
+            }
+            if (amount <= 0) {
+                return WithdrawResult.fail("Amount should be positive");
+            }
+            if (amount > getBalance(currency)) {
+                return WithdrawResult.fail("ATM dont enough money");
+            }
+            var cash = cashStorage.getBank().getOrDefault(currency, Map.of());
+            var sortedCash = sortBank(cash);
+            var whatTake = takeMoney(sortedCash, amount, currency);
+            if (whatTake.isEmpty()) {
+                return WithdrawResult.fail("Need another paper");
+            }
+            return WithdrawResult.succes(whatTake);
+        }
+
+        Map<Denomination, Integer> takeMoney(Map<Denomination, Integer> cash, long amount, Currency currency) {
+            var a = canTake(cash, amount);
+            if (!a.isEmpty()) {
+                for (Map.Entry<Denomination, Integer> entry : a.entrySet()) {
+                    cash.put(entry.getKey(), cash.getOrDefault(entry.getKey(), 0) - entry.getValue());
+                }
+                cashStorage.newBank(cash, currency);
+            }
+            return a;
+        }
+
+        Integer getBalance(Currency currency) {
+            var mapRub = cashStorage.getBank().getOrDefault(currency, Map.of());
+            int amount = 0;
+            for (Map.Entry<Denomination, Integer> entry : mapRub.entrySet()) {
+                amount += entry.getKey().getAmount() * entry.getValue();
+            }
+            return amount;
+        }
+
+        Map<Denomination, Integer> sortBank(Map<Denomination, Integer> bank) {
+            SortedMap<Denomination, Integer> sortedMap = new TreeMap<>(Comparator.comparingInt(Denomination::getAmount).reversed());
+            sortedMap.putAll(bank);
+            return sortedMap;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package exercise.yandex.dev.tasks.atm;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DispenseEngine: только жадный подбор против жадного с DP-фолбэком на одной и той же кассете EUR (20/50/100/500).
+ * <p>
+ * Кассета расходуется выдачами и пополняется, когда в ней остается меньше 10% денег, - так в выборку
+ * попадают и почти пустые кассеты, где жадный чаще всего ошибается.
+ * Суммы - кратные 10 от 20 до 1000 EUR, мелкие чаще.
+ * <p>
+ * Результат: withdrawals - выдач в секунду, failures - отказов в секунду (доля отказов = failures / withdrawals).
+ * ./gradlew jmh -PjmhIncludes=DispenseBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispenseBenchmark {
+    private static final int[] VALUES = DenominationTable.values(Currency.EUR);
+    private static final int[] FULL = new int[VALUES.length];
+
+    static {
+        Denomination[] denominations = DenominationTable.denominations(Currency.EUR);
+        for (int i = 0; i < denominations.length; i++) {
+            FULL[i] = switch (denominations[i]) {
+                case EUR_500 -> 20;
+                case EUR_100 -> 100;
+                case EUR_50 -> 150;
+                default -> 200;
+            };
+        }
+    }
+
+    @Param({"greedy", "greedyThenDp"})
+    public String strategy;
+
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final int[] counts = new int[VALUES.length];
+    private final int[] out = new int[VALUES.length];
+    private long balance;
+    private long fullBalance;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long withdrawals;
+        public long failures;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            withdrawals = 0;
+            failures = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < VALUES.length; i++) {
+            fullBalance += (long) VALUES[i] * FULL[i];
+        }
+        refill();
+    }
+
+    @Benchmark
+    public boolean withdraw(Counters counters) {
+        // мелкие суммы чаще: квадрат равномерного
+        double u = random.nextDouble();
+        long amount = 20 + 10 * (long) (u * u * 99);
+        boolean ok = strategy.equals("greedy")
+                ? DispenseEngine.greedy(VALUES, counts, amount, out)
+                : DispenseEngine.dispense(VALUES, counts, amount, out);
+        counters.withdrawals++;
+        if (ok) {
+            for (int i = 0; i < VALUES.length; i++) {
+                counts[i] -= out[i];
+            }
+            balance -= amount;
+        } else {
+            counters.failures++;
+        }
+        if (balance < fullBalance / 10) {
+            refill();
+        }
+        return ok;
+    }
+
+    private void refill() {
+        System.arraycopy(FULL, 0, counts, 0, FULL.length);
+        balance = fullBalance;
+    }
+}
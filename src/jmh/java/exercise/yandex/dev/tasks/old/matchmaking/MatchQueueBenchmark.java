@@ -0,0 +1,84 @@
+package exercise.yandex.dev.tasks.old.matchmaking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MatchQueue под полной очередью: попытка матча и постановка/отмена при queued игроках в очереди.
+ * <p>
+ * MMR - нормальное распределение около 1500 (σ 400), роли неравномерно: MID популярнее всех, SUP реже всех.
+ * Вместо игроков ушедшего матча сразу встают новые - размер очереди не меняется. При такой плотности
+ * окна 100 MMR хватает всегда, замеряется успешная попытка.
+ * <p>
+ * tryCreateMatch  - матч вокруг дольше всех ждущего в окне 100 MMR (с постановкой 10 новых игроков)
+ * cancelEnqueue   - отмена случайного игрока и его повторная постановка
+ * ./gradlew jmh -PjmhIncludes=MatchQueueBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatchQueueBenchmark {
+    private static final Role[] PRIMARY = {
+            Role.MID, Role.MID, Role.MID, Role.TOP, Role.TOP, Role.ADC, Role.ADC, Role.JUNGLE, Role.JUNGLE, Role.SUP};
+
+    @Param({"100000"})
+    public int queued;
+
+    private final SplittableRandom random = new SplittableRandom(42);
+    private MatchQueue queue;
+    private Player[] players;
+    private long nextId;
+
+    @Setup
+    public void setUp() {
+        queue = new MatchQueue();
+        players = new Player[queued];
+        for (int i = 0; i < queued; i++) {
+            players[i] = newPlayer();
+            queue.enqueue(players[i]);
+        }
+    }
+
+    private Player newPlayer() {
+        int mmr = (int) Math.max(0, Math.min(3000, 1500 + random.nextGaussian() * 400));
+        Role primary = PRIMARY[random.nextInt(PRIMARY.length)];
+        Role secondary = Role.values()[random.nextInt(Role.values().length)];
+        return new Player("p" + nextId++, mmr, primary, secondary);
+    }
+
+    @Benchmark
+    public Optional<Match> tryCreateMatch() {
+        Optional<Match> match = queue.tryCreateMatch(100);
+        if (match.isPresent()) {
+            for (int i = 0; i < MatchQueue.MATCH_SIZE; i++) {
+                queue.enqueue(newPlayer());
+            }
+        }
+        return match;
+    }
+
+    @Benchmark
+    public boolean cancelEnqueue() {
+        int i = random.nextInt(queued);
+        boolean cancelled = queue.cancel(players[i].id());
+        players[i] = newPlayer();
+        queue.enqueue(players[i]);
+        return cancelled;
+    }
+}
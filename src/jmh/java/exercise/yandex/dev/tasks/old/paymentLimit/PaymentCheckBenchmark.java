@@ -0,0 +1,145 @@
+package exercise.yandex.dev.tasks.old.paymentLimit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PaymentCheckService.check: старая реализация (поиск пользователя перебором, сумма дня
+ * стримом по BigDecimal) против движка на long-копейках.
+ * <p>
+ * legacyCheck  - исходный алгоритм, скопирован ниже без изменений
+ * check        - новый сервис через API с Payment (BigDecimal переводится в копейки на входе)
+ * checkMinor   - быстрый путь check(userId, long, timestamp), на успешной проверке 0 B/op
+ * <p>
+ * Байты на операцию - с профилировщиком GC:
+ * ./gradlew jmh -PjmhIncludes=PaymentCheckBenchmark -PjmhProfilers=gc  (см. gc.alloc.rate.norm)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PaymentCheckBenchmark {
+    private static final int USERS = 1_000;
+
+    @Param({"10", "1000"})
+    public int historyPerUser;
+
+    private PaymentCheckService service;
+    private LegacyPaymentCheckService legacy;
+
+    private String[] userIds;
+    private Payment[] payments;
+    private long[] amounts;
+    private LocalDateTime now;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        now = LocalDateTime.now().withHour(12);
+        List<User> users = new ArrayList<>(USERS);
+        Map<String, List<Payment>> history = new HashMap<>();
+        userIds = new String[USERS];
+        payments = new Payment[USERS];
+        amounts = new long[USERS];
+        for (int i = 0; i < USERS; i++) {
+            String userId = "user-" + i;
+            userIds[i] = userId;
+            users.add(new User(userId, new UserLimits(new BigDecimal(1_000_000_000), new BigDecimal(10_000))));
+            List<Payment> userHistory = new ArrayList<>(historyPerUser);
+            for (int j = 0; j < historyPerUser; j++) {
+                // половина истории - сегодня, половина - вчера
+                userHistory.add(new Payment(userId, new BigDecimal(100 + j % 50), now.minusHours(j % 2 == 0 ? 1 : 25)));
+            }
+            history.put(userId, userHistory);
+            payments[i] = new Payment(userId, new BigDecimal("250.50"), now);
+            amounts[i] = Money.toMinor(payments[i].amount());
+        }
+
+        service = new PaymentCheckService(new PaymentRepInMemory(history), () -> users);
+        legacy = new LegacyPaymentCheckService(() -> history, () -> users);
+        // агрегаты строятся при первом обращении - прогреваем их вне замера
+        for (String userId : userIds) {
+            service.check(userId, 1, now);
+        }
+    }
+
+    private int nextUser() {
+        int i = next;
+        next = i + 1 == USERS ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public CheckResult legacyCheck() {
+        int i = nextUser();
+        return legacy.check(userIds[i], payments[i]);
+    }
+
+    @Benchmark
+    public CheckResult check() {
+        int i = nextUser();
+        return service.check(userIds[i], payments[i]);
+    }
+
+    @Benchmark
+    public CheckResult checkMinor() {
+        int i = nextUser();
+        return service.check(userIds[i], amounts[i], now);
+    }
+
+    /**
+     * Исходная реализация PaymentCheckService.check - база для сравнения.
+     */
+    static class LegacyPaymentCheckService {
+        private final PaymentRepository paymentRepository;
+        private final UserRepository userRepository;
+
+        LegacyPaymentCheckService(PaymentRepository paymentRepository, UserRepository userRepository) {
+            this.paymentRepository = paymentRepository;
+            this.userRepository = userRepository;
+        }
+
+        CheckResult check(String userId, Payment payment) {
+            List<User> users = userRepository.getUsers();
+
+            User user = users.stream().filter(u -> u.id().equals(userId)).findFirst().orElseThrow();
+
+            List<Payment> paymentList = paymentRepository.getPayments().get(userId);
+
+            var dayPayment = payment.timestamp().toLocalDate();
+            if (paymentList == null) {
+                paymentList = new ArrayList<>();
+            }
+            BigDecimal dayPaymentSum = paymentList.stream()
+                    .filter(payment1 -> payment1.timestamp().toLocalDate().equals(dayPayment))
+                    .map(Payment::amount)
+                    .reduce(BigDecimal.ZERO, BigDecimal::add);
+            if (user.limits().transactionalLimit().compareTo(payment.amount()) < 0) {
+                return new CheckResult(false, "transactional limit");
+            }
+            if (user.limits().dayLimit().compareTo(dayPaymentSum.add(payment.amount())) < 0) {
+                return new CheckResult(false, "day limit");
+            }
+            return new CheckResult(true, null);
+        }
+    }
+}
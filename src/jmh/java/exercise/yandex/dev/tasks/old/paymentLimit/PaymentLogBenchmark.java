@@ -0,0 +1,161 @@
+package exercise.yandex.dev.tasks.old.paymentLimit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * FilePaymentRepository: скорость записи в лог и время холодного старта.
+ * <p>
+ * append     - платежей в секунду (буферизованная запись, снапшоты отключены)
+ * coldStart  - открыть репозиторий на логе из {@code payments} платежей и проверить первый платеж
+ *              (дневной лимит - сумма за день из репозитория):
+ *              snapshot   - снапшот снят за {@value #TAIL} платежей до конца лога, дочитывается хвост
+ *              fullReplay - снапшота нет, агрегаты собираются из всего лога
+ * coldAccept - то же, но провести по платежу {@value #ACCEPTED_USERS} разным пользователям: скользящие окна
+ *              читают историю за интервал, а это индекс по логу - один проход на всех, а не на каждого.
+ *              Проведенные платежи дописываются в лог - за прогон он растет на несколько сотен записей
+ * <p>
+ * Лог на 50M платежей (~1.2 GB) создается один раз на форк в setUp. Запуск:
+ * ./gradlew jmh -PjmhIncludes=PaymentLogBenchmark
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PaymentLogBenchmark {
+    private static final int USERS = 100_000;
+    private static final int TAIL = 1_000_000;
+    private static final int ACCEPTED_USERS = 100;
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    static Payment payment(long i) {
+        String userId = "user-" + (i % USERS);
+        // платеж в секунду: 50M - история примерно за полтора года
+        return new Payment(userId, BigDecimal.valueOf(100 + i % 10_000, 2), START.plusSeconds(i), null);
+    }
+
+    static void deleteRecursively(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AppendState {
+        Path dir;
+        FilePaymentRepository repository;
+        Payment[] payments;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("payment-log-append");
+            repository = new FilePaymentRepository(dir, 0);
+            // заранее созданные платежи: замеряем запись, а не BigDecimal/LocalDateTime
+            payments = new Payment[1 << 16];
+            for (int i = 0; i < payments.length; i++) {
+                payments[i] = payment(i);
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            repository.close();
+            deleteRecursively(dir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ColdStartState {
+        @Param({"50000000"})
+        public long payments;
+
+        @Param({"snapshot", "fullReplay"})
+        public String mode;
+
+        Path dir;
+        UserRepository users;
+        LocalDateTime checkedAt;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            List<User> list = new ArrayList<>();
+            for (int i = 0; i < ACCEPTED_USERS; i++) {
+                list.add(new User("user-" + i, new UserLimits(new BigDecimal(1_000_000), new BigDecimal(10_000))));
+            }
+            users = () -> list;
+            checkedAt = START.plusSeconds(payments);
+            dir = Files.createTempDirectory("payment-log-cold");
+            try (FilePaymentRepository repository = new FilePaymentRepository(dir, 0)) {
+                for (long i = 0; i < payments; i++) {
+                    if (i == payments - TAIL && mode.equals("snapshot")) {
+                        repository.snapshot();
+                    }
+                    repository.append(payment(i));
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 2, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public void append(AppendState state) {
+        state.repository.append(state.payments[state.next++ & (state.payments.length - 1)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public CheckResult coldStart(ColdStartState state) {
+        try (FilePaymentRepository repository = new FilePaymentRepository(state.dir, 0)) {
+            return new PaymentCheckService(repository, state.users).check("user-1", 100, state.checkedAt);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public long coldAccept(ColdStartState state) {
+        try (FilePaymentRepository repository = new FilePaymentRepository(state.dir, 0)) {
+            PaymentCheckService service = new PaymentCheckService(repository, state.users);
+            for (int i = 0; i < ACCEPTED_USERS; i++) {
+                service.accept("user-" + i, new Payment("user-" + i, new BigDecimal(1), state.checkedAt, null));
+            }
+            return repository.daySum("user-1", state.checkedAt.toLocalDate().toEpochDay());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package exercise.yandex.dev.tasks.transaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CardAuthorizationService.authorize на {@code cards} картах, 4 потока, случайная карта на каждую операцию.
+ * <p>
+ * throughput - авторизаций в секунду (цель - не меньше 100k/s)
+ * latency    - распределение времени одной авторизации, см. p0.99 (цель - меньше 100 us)
+ * <p>
+ * ./gradlew jmh -PjmhIncludes=CardAuthorizationBenchmark -PjmhProfilers=gc
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class CardAuthorizationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Cards {
+        @Param({"1000000"})
+        public int cards;
+
+        CardAuthorizationService service;
+        long start;
+
+        @Setup
+        public void setUp() {
+            service = new CardAuthorizationService(new VelocityLimits(new BigDecimal(1_000_000),
+                    new BigDecimal(10_000_000), 1_000, 10_000, 100_000));
+            CardLimits limits = new CardLimits(new BigDecimal(100_000_000), new BigDecimal(100_000));
+            for (int card = 0; card < cards; card++) {
+                service.registerCard(card, limits);
+            }
+            // каждая тысячная карта заблокирована - путь отказа по статусу тоже в выборке
+            for (int card = 0; card < cards; card += 1000) {
+                service.setStatus(card, CardStatus.DECLINE);
+            }
+            start = LocalDateTime.of(2024, 1, 1, 9, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Requests {
+        final SplittableRandom random = new SplittableRandom();
+        long clock;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public PaymentResult throughput(Cards cards, Requests requests) {
+        return authorize(cards, requests);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public PaymentResult latency(Cards cards, Requests requests) {
+        return authorize(cards, requests);
+    }
+
+    private static PaymentResult authorize(Cards cards, Requests requests) {
+        long card = requests.random.nextInt(cards.cards);
+        long amount = 100 + requests.random.nextInt(10_000);
+        // время идет вперед: окна минуты и часа регулярно сменяются
+        long now = cards.start + (requests.clock++ >> 4);
+        return cards.service.authorize(card, amount, now);
+    }
+}
@@ -0,0 +1,288 @@
+package exercise.concurrency;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * AsyncPipeline - a dependency graph of async stages built on CompletableFuture
+ *
+ * WHY A GRAPH INSTEAD OF A CHAIN:
+ * A chain of thenApply() calls runs every step one after another, so the total latency
+ * is the SUM of all steps. Most pipelines are not really linear: some steps only need
+ * the pipeline input, some need one previous result, some need several.
+ * Declaring the real dependencies lets independent stages start at the same time,
+ * so the total latency becomes the CRITICAL PATH (the longest chain of dependent stages).
+ *
+ * KEY CONCEPTS:
+ * 1. STAGE: named step with its dependencies, a body, a timeout and an optional fallback
+ * 2. FAN-OUT: stages that depend on the same stage start together once it completes
+ * 3. FAN-IN: a stage with several dependencies waits for all of them (allOf)
+ * 4. TIMEOUT: measured from the moment the stage STARTS, not from the pipeline start
+ * 5. FALLBACK: value used when the stage body fails or times out;
+ *    without a fallback the failure propagates to every dependent stage
+ *
+ * The graph is immutable once built and can be run many times with different inputs.
+ * Stages must be declared after their dependencies, so declaration order is already
+ * a topological order and cycles are impossible by construction.
+ * run() never blocks the caller: it returns a future of the whole run.
+ *
+ * @param <I> pipeline input type
+ */
+public final class AsyncPipeline<I> {
+
+    private final List<Stage<I, ?>> stages;
+
+    private AsyncPipeline(List<Stage<I, ?>> stages) {
+        this.stages = List.copyOf(stages);
+    }
+
+    public List<String> stageNames() {
+        return stages.stream().map(Stage::name).toList();
+    }
+
+    public static <I> Builder<I> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Starts every stage on the given executor and returns immediately.
+     * The returned future completes when all stages are done (successfully or via fallback)
+     * and fails if any stage without a fallback fails.
+     */
+    public CompletableFuture<Results> run(I input, Executor executor) {
+        return run(input, executor, StageListener.NONE);
+    }
+
+    /**
+     * Same as {@link #run(Object, Executor)}, reporting every stage execution to the listener.
+     */
+    public CompletableFuture<Results> run(I input, Executor executor, StageListener listener) {
+        return execute(input, executor, listener).results();
+    }
+
+    /**
+     * Same as {@link #run(Object, Executor, StageListener)}, also telling when the started stage bodies
+     * have really finished: a timed-out stage completes its result future, but its body keeps running.
+     */
+    public Execution execute(I input, Executor executor, StageListener listener) {
+        Objects.requireNonNull(executor, "executor");
+        Objects.requireNonNull(listener, "listener");
+        // Stage bodies read results from other threads while later stages are still being registered.
+        Map<Stage<I, ?>, CompletableFuture<?>> futures = new ConcurrentHashMap<>();
+        Results results = new Results(futures);
+        List<CompletableFuture<Void>> settled = new ArrayList<>(stages.size());
+
+        for (Stage<I, ?> stage : stages) {
+            CompletableFuture<Void> stageSettled = new CompletableFuture<>();
+            settled.add(stageSettled);
+            futures.put(stage, start(stage, input, results, futures, executor, listener, stageSettled));
+        }
+
+        CompletableFuture<Results> done = CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> results);
+        return new Execution(done, CompletableFuture.allOf(settled.toArray(new CompletableFuture<?>[0])));
+    }
+
+    private <T> CompletableFuture<T> start(Stage<I, T> stage, I input, Results results,
+                                           Map<Stage<I, ?>, CompletableFuture<?>> futures,
+                                           Executor executor, StageListener listener,
+                                           CompletableFuture<Void> settled) {
+        CompletableFuture<?>[] deps = stage.dependencies.stream()
+                .map(futures::get)
+                .toArray(CompletableFuture<?>[]::new);
+        CompletableFuture<Void> ready = CompletableFuture.allOf(deps);
+        // a stage skipped because of a failed dependency never starts its body
+        ready.whenComplete((ignored, ex) -> {
+            if (ex != null) {
+                settled.complete(null);
+            }
+        });
+
+        // The timeout clock starts only when the stage itself is submitted,
+        // so a slow dependency does not eat the budget of its dependents.
+        CompletableFuture<T> future = ready
+                .thenCompose(ignored -> {
+                    long startNanos = System.nanoTime();
+                    return startBody(stage, input, results, executor, settled)
+                            .orTimeout(stage.timeout.toNanos(), TimeUnit.NANOSECONDS)
+                            .whenComplete((value, ex) -> listener.onStageCompleted(
+                                    stage.name, System.nanoTime() - startNanos, ex == null ? null : unwrap(ex)));
+                });
+
+        if (stage.fallback == null) {
+            return future;
+        }
+        return future.exceptionally(ex -> stage.fallback.apply(unwrap(ex)));
+    }
+
+    private static <I, T> CompletableFuture<T> startBody(Stage<I, T> stage, I input, Results results,
+                                                         Executor executor, CompletableFuture<Void> settled) {
+        try {
+            CompletableFuture<T> body = stage.body.start(input, results, executor).toCompletableFuture();
+            body.whenComplete((value, ex) -> settled.complete(null));
+            // copy: timeouts and fallbacks must not complete a future owned by the body
+            return body.copy();
+        } catch (RuntimeException e) {
+            settled.complete(null);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+
+    /**
+     * One run of the pipeline.
+     *
+     * @param results same as {@link #run(Object, Executor)}
+     * @param settled completes when every started stage body has finished, including bodies of
+     *                timed-out stages; never fails
+     */
+    public record Execution(CompletableFuture<Results> results, CompletableFuture<Void> settled) {
+    }
+
+    /**
+     * Observer of stage executions, e.g. for latency and error metrics.
+     * Called on the thread that completed the stage, so it must be fast and thread-safe.
+     * Stages skipped because a dependency failed are not reported.
+     */
+    @FunctionalInterface
+    public interface StageListener {
+        StageListener NONE = (stage, nanos, error) -> {
+        };
+
+        /**
+         * @param error failure of the stage body or TimeoutException, {@code null} on success;
+         *              reported before the fallback is applied
+         */
+        void onStageCompleted(String stage, long nanos, Throwable error);
+    }
+
+    /**
+     * Asynchronous stage body. Must not block: it starts the work (on the given executor
+     * or on its own) and returns a future of the result.
+     */
+    @FunctionalInterface
+    public interface AsyncBody<I, T> {
+        CompletableFuture<T> start(I input, Results results, Executor executor);
+    }
+
+    /**
+     * Handle of a declared stage. Used to declare dependencies and to read the stage result.
+     */
+    public static final class Stage<I, T> {
+        private final String name;
+        private final List<Stage<I, ?>> dependencies;
+        private final AsyncBody<I, T> body;
+        private final Duration timeout;
+        private final Function<Throwable, T> fallback;
+
+        private Stage(String name, List<Stage<I, ?>> dependencies, AsyncBody<I, T> body,
+                      Duration timeout, Function<Throwable, T> fallback) {
+            this.name = name;
+            this.dependencies = dependencies;
+            this.body = body;
+            this.timeout = timeout;
+            this.fallback = fallback;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return "Stage[" + name + "]";
+        }
+    }
+
+    /**
+     * Results of a single run. Inside a stage body only results of the declared
+     * dependencies are guaranteed to be available; get() on them never blocks.
+     */
+    public static final class Results {
+        private final Map<? extends Stage<?, ?>, CompletableFuture<?>> futures;
+
+        private Results(Map<? extends Stage<?, ?>, CompletableFuture<?>> futures) {
+            this.futures = futures;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T get(Stage<?, T> stage) {
+            CompletableFuture<?> future = futures.get(stage);
+            if (future == null || !future.isDone()) {
+                throw new IllegalStateException(stage + " is not completed, declare it as a dependency");
+            }
+            return (T) future.join();
+        }
+    }
+
+    public static final class Builder<I> {
+        private final List<Stage<I, ?>> stages = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        @SafeVarargs
+        public final <T> Stage<I, T> stage(String name, Duration timeout, BiFunction<I, Results, T> body,
+                                           Stage<I, ?>... dependencies) {
+            return stage(name, timeout, body, (Function<Throwable, T>) null, dependencies);
+        }
+
+        /**
+         * Declares a blocking stage: the body runs on the pipeline executor.
+         * All dependencies must already be declared in this builder.
+         *
+         * @param fallback value for a failed or timed-out stage, {@code null} to propagate the failure
+         */
+        @SafeVarargs
+        public final <T> Stage<I, T> stage(String name, Duration timeout, BiFunction<I, Results, T> body,
+                                           Function<Throwable, T> fallback, Stage<I, ?>... dependencies) {
+            Objects.requireNonNull(body, "body");
+            return asyncStage(name, timeout,
+                    (input, results, executor) -> CompletableFuture.supplyAsync(() -> body.apply(input, results), executor),
+                    fallback, dependencies);
+        }
+
+        /**
+         * Declares a non-blocking stage, e.g. a call wrapped into a circuit breaker or a hedged call.
+         *
+         * @param fallback value for a failed or timed-out stage, {@code null} to propagate the failure
+         */
+        @SafeVarargs
+        public final <T> Stage<I, T> asyncStage(String name, Duration timeout, AsyncBody<I, T> body,
+                                                Function<Throwable, T> fallback, Stage<I, ?>... dependencies) {
+            Objects.requireNonNull(name, "name");
+            Objects.requireNonNull(body, "body");
+            if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+                throw new IllegalArgumentException("Stage " + name + " needs a positive timeout");
+            }
+            // copied element by element: the varargs array itself never leaves this method
+            List<Stage<I, ?>> declared = new ArrayList<>(dependencies.length);
+            for (Stage<I, ?> dependency : dependencies) {
+                if (!stages.contains(dependency)) {
+                    throw new IllegalArgumentException("Stage " + name + " depends on undeclared " + dependency);
+                }
+                declared.add(dependency);
+            }
+            Stage<I, T> stage = new Stage<>(name, List.copyOf(declared), body, timeout, fallback);
+            stages.add(stage);
+            return stage;
+        }
+
+        public AsyncPipeline<I> build() {
+            return new AsyncPipeline<>(stages);
+        }
+    }
+}
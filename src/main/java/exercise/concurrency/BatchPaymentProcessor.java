@@ -0,0 +1,173 @@
+package exercise.concurrency;
+
+import exercise.concurrency.PaymentProcessingExample.PaymentRequest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Batch mode of {@link PaymentProcessingExample} for nightly settlement runs.
+ * <p>
+ * BOUNDED IN-FLIGHT:
+ * Payments are submitted to the async pipeline as the stream is consumed, but never more than
+ * maxInFlight at the same time. A Semaphore permit is taken before a payment starts and released
+ * when all its stage bodies have finished (a timed-out body still runs and still holds its resources), so the stream is read only as fast as payments finish (back-pressure)
+ * and memory stays constant for any batch size.
+ * <p>
+ * Almost all time of a payment is waiting on I/O, so with virtual threads (or any executor that
+ * does not block a platform thread per wait) throughput is close to maxInFlight / latency
+ * instead of 1 / latency as with the blocking one-by-one get().
+ */
+public class BatchPaymentProcessor {
+    private final AsyncPipeline<PaymentRequest> pipeline;
+    private final Executor executor;
+    private final int maxInFlight;
+
+    public BatchPaymentProcessor(Executor executor, int maxInFlight) {
+        this(PaymentProcessingExample.PAYMENT_PIPELINE, executor, maxInFlight);
+    }
+
+    public BatchPaymentProcessor(AsyncPipeline<PaymentRequest> pipeline, Executor executor, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight should be positive");
+        }
+        this.pipeline = pipeline;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Processes all requests of the stream and waits for the last one to finish.
+     */
+    public BatchReport process(Stream<PaymentRequest> requests) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        Map<String, StageStats> stages = new ConcurrentHashMap<>();
+        pipeline.stageNames().forEach(name -> stages.put(name, new StageStats()));
+        StageStats payments = new StageStats();
+
+        AsyncPipeline.StageListener listener = (stage, nanos, error) -> stages.get(stage).record(nanos, error);
+
+        long start = System.nanoTime();
+        var iterator = requests.iterator();
+        while (iterator.hasNext()) {
+            PaymentRequest request = iterator.next();
+            inFlight.acquire();
+            boolean submitted = false;
+            try {
+                long paymentStart = System.nanoTime();
+                AsyncPipeline.Execution execution = pipeline.execute(request, executor, listener);
+                execution.results().whenComplete((results, error) ->
+                        payments.record(System.nanoTime() - paymentStart, error));
+                // a timed-out stage body is still running: the permit is held until it really finishes
+                execution.settled().whenComplete((ignored, error) -> inFlight.release());
+                submitted = true;
+            } finally {
+                if (!submitted) {
+                    inFlight.release();
+                }
+            }
+        }
+        // all permits back = every submitted payment has completed
+        inFlight.acquire(maxInFlight);
+        long elapsed = System.nanoTime() - start;
+
+        Map<String, StageStats> orderedStages = new LinkedHashMap<>();
+        pipeline.stageNames().forEach(name -> orderedStages.put(name, stages.get(name)));
+        return new BatchReport(payments, orderedStages, elapsed);
+    }
+
+    /**
+     * Latency and error counters of one stage (or of whole payments).
+     */
+    public static final class StageStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+
+        void record(long nanos, Throwable error) {
+            latency.record(nanos);
+            if (error != null) {
+                errors.increment();
+                if (unwrap(error) instanceof TimeoutException) {
+                    timeouts.increment();
+                }
+            }
+        }
+
+        private static Throwable unwrap(Throwable error) {
+            while (error.getCause() != null && !(error instanceof TimeoutException)) {
+                error = error.getCause();
+            }
+            return error;
+        }
+
+        public long count() {
+            return latency.count();
+        }
+
+        public long errors() {
+            return errors.sum();
+        }
+
+        public long timeouts() {
+            return timeouts.sum();
+        }
+
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d errors=%d timeouts=%d p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms",
+                    count(), errors(), timeouts(),
+                    millis(latency.percentile(50)), millis(latency.percentile(95)),
+                    millis(latency.percentile(99)), millis(latency.max()));
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    public record BatchReport(StageStats payments, Map<String, StageStats> stages, long elapsedNanos) {
+
+        public double throughputPerSecond() {
+            return payments.count() * 1_000_000_000.0 / Math.max(1, elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Processed %d payments in %d ms (%.0f payments/s)%n",
+                    payments.count(), elapsedNanos / 1_000_000, throughputPerSecond()));
+            sb.append(String.format("  %-14s %s%n", "payment", payments));
+            stages.forEach((name, stats) -> sb.append(String.format("  %-14s %s%n", name, stats)));
+            return sb.toString();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int payments = 5_000;
+        int maxInFlight = 1_000;
+        Random random = new Random(42);
+
+        Stream<PaymentRequest> requests = Stream.generate(() -> new PaymentRequest(
+                        "user" + random.nextInt(10_000), "card" + random.nextInt(20_000), 1 + random.nextInt(500)))
+                .limit(payments);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            BatchReport report = new BatchPaymentProcessor(executor, maxInFlight).process(requests);
+            System.out.print(report);
+        }
+    }
+}
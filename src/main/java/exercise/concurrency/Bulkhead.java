@@ -0,0 +1,57 @@
+package exercise.concurrency;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bulkhead - caps the number of concurrent calls to one downstream stage.
+ * <p>
+ * A slow dependency otherwise soaks up every thread / connection of the caller and takes
+ * healthy stages down with it. Unlike Semaphore.acquire() the bulkhead never waits:
+ * when it is full the call fails fast with {@link RejectedExecutionException},
+ * so the caller can use a fallback right away.
+ */
+public class Bulkhead {
+    private final String name;
+    private final int maxConcurrentCalls;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public Bulkhead(String name, int maxConcurrentCalls) {
+        if (maxConcurrentCalls <= 0) {
+            throw new IllegalArgumentException("maxConcurrentCalls should be positive");
+        }
+        this.name = name;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+    }
+
+    public <T> CompletableFuture<T> call(Supplier<? extends CompletableFuture<T>> call) {
+        if (!tryAcquire()) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Bulkhead " + name + " is full"));
+        }
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((value, error) -> inFlight.decrementAndGet());
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= maxConcurrentCalls) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+}
@@ -0,0 +1,179 @@
+package exercise.concurrency;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking circuit breaker for one downstream stage.
+ * <p>
+ * STATES:
+ * - CLOSED: calls pass, consecutive failures are counted; failureThreshold in a row -> OPEN
+ * - OPEN: calls are rejected immediately (no thread waits on a dead service) until openDuration passes
+ * - HALF_OPEN: up to halfOpenProbes calls are let through as probes;
+ *   a successful probe -> CLOSED, a failed probe -> OPEN again
+ * <p>
+ * State and the moment it was opened form one immutable phase swapped by CAS: no locks on the hot path,
+ * a closed breaker costs one atomic read per call. Every transition creates a new phase, and a call
+ * only counts against the phase it was admitted in - a slow call that started before the breaker
+ * opened cannot close a HALF_OPEN breaker or open it again.
+ * <p>
+ * Every call is limited by callTimeout: a call that never completes is a failure, so a hanging
+ * probe cannot leave the breaker in HALF_OPEN forever.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final int halfOpenProbes;
+    private final long callTimeoutNanos;
+    private final LongSupplier clock;
+
+    private final AtomicReference<Phase> phase = new AtomicReference<>(new Phase(State.CLOSED, 0));
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicInteger probesLeft = new AtomicInteger();
+
+    public CircuitBreaker(String name, int failureThreshold, Duration openDuration, int halfOpenProbes,
+                          Duration callTimeout) {
+        this(name, failureThreshold, openDuration, halfOpenProbes, callTimeout, System::nanoTime);
+    }
+
+    CircuitBreaker(String name, int failureThreshold, Duration openDuration, int halfOpenProbes,
+                   Duration callTimeout, LongSupplier clock) {
+        if (failureThreshold <= 0 || halfOpenProbes <= 0) {
+            throw new IllegalArgumentException("failureThreshold and halfOpenProbes should be positive");
+        }
+        if (callTimeout.isNegative() || callTimeout.isZero()) {
+            throw new IllegalArgumentException("callTimeout should be positive");
+        }
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenProbes = halfOpenProbes;
+        this.callTimeoutNanos = callTimeout.toNanos();
+        this.clock = clock;
+    }
+
+    /**
+     * Runs the call if the breaker permits it, otherwise returns an already failed future
+     * with {@link RejectedExecutionException} without calling the supplier.
+     * The returned future fails with TimeoutException if the call does not complete within callTimeout.
+     */
+    public <T> CompletableFuture<T> call(Supplier<? extends CompletableFuture<T>> call) {
+        Phase admitted = tryAcquire();
+        if (admitted == null) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Circuit breaker " + name + " is open"));
+        }
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            onFailure(admitted);
+            return CompletableFuture.failedFuture(e);
+        }
+        // copy: the timeout must not complete a future owned by the caller
+        return future.copy()
+                .orTimeout(callTimeoutNanos, TimeUnit.NANOSECONDS)
+                .whenComplete((value, error) -> {
+                    if (error == null) {
+                        onSuccess(admitted);
+                    } else {
+                        onFailure(admitted);
+                    }
+                });
+    }
+
+    public State state() {
+        return phase.get().state;
+    }
+
+    /**
+     * @return phase the call is admitted in, {@code null} if rejected
+     */
+    Phase tryAcquire() {
+        while (true) {
+            Phase current = phase.get();
+            if (current.state == State.CLOSED) {
+                return current;
+            }
+            if (current.state == State.HALF_OPEN) {
+                return probesLeft.getAndDecrement() > 0 ? current : null;
+            }
+            if (clock.getAsLong() - current.openedAt < openNanos) {
+                return null;
+            }
+            // one caller wins the OPEN -> HALF_OPEN transition, takes the first probe and hands out the rest;
+            // callers racing in between see no permits (zeroed on trip) and are rejected
+            Phase halfOpen = new Phase(State.HALF_OPEN, current.openedAt);
+            if (phase.compareAndSet(current, halfOpen)) {
+                probesLeft.set(halfOpenProbes - 1);
+                return halfOpen;
+            }
+        }
+    }
+
+    void onSuccess(Phase admitted) {
+        Phase current = phase.get();
+        if (current != admitted) {
+            return;
+        }
+        if (current.state == State.HALF_OPEN) {
+            if (phase.compareAndSet(current, new Phase(State.CLOSED, 0))) {
+                consecutiveFailures.set(0);
+            }
+            return;
+        }
+        if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    void onFailure(Phase admitted) {
+        Phase current = phase.get();
+        if (current != admitted) {
+            return;
+        }
+        if (current.state == State.HALF_OPEN) {
+            trip(current);
+        } else if (current.state == State.CLOSED
+                && consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            trip(current);
+        }
+    }
+
+    private void trip(Phase from) {
+        // the open moment is part of the swapped phase: failures losing the race do not move it
+        if (phase.compareAndSet(from, new Phase(State.OPEN, clock.getAsLong()))) {
+            consecutiveFailures.set(0);
+            probesLeft.set(0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker[" + name + ", " + state() + "]";
+    }
+
+    /**
+     * Immutable state of the breaker; compared by identity, so every transition is a new phase.
+     */
+    static final class Phase {
+        final State state;
+        final long openedAt;
+
+        Phase(State state, long openedAt) {
+            this.state = state;
+            this.openedAt = openedAt;
+        }
+    }
+}
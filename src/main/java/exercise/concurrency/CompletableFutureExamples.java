@@ -1,5 +1,7 @@
 package exercise.concurrency;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -61,6 +63,9 @@ public class CompletableFutureExamples {
         
         // 7. Timeout and cancellation
         demonstrateTimeoutAndCancellation();
+
+        // 8. Resilience: hedged requests, circuit breaker, bulkhead
+        demonstrateResiliencePatterns();
     }
     
     /**
@@ -550,6 +555,68 @@ public class CompletableFutureExamples {
         System.out.println("Timeout and cancellation completed!\n");
     }
     
+    /**
+     * Exercise 8: Resilience patterns
+     * 
+     * TAIL LATENCY AND FAILING DEPENDENCIES:
+     * Timeouts (Exercise 7) only bound how long we wait. In a pipeline of several services
+     * the slowest 1% of one stage becomes the p99 of the whole request, and a dead service
+     * keeps getting traffic that is doomed to time out.
+     * 
+     * PATTERNS (all non-blocking, built on CompletableFuture):
+     * 
+     * 1. HEDGED REQUEST (HedgedCall): send a duplicate after the p95 latency, first success wins
+     *    - Only for idempotent calls
+     *    - Hedge budget keeps the extra load small
+     * 
+     * 2. CIRCUIT BREAKER (CircuitBreaker): after N failures in a row stop calling the service
+     *    - OPEN: fail fast without calling
+     *    - HALF_OPEN: after a pause let a probe through to check if the service is back
+     * 
+     * 3. BULKHEAD (Bulkhead): cap concurrent calls to one dependency
+     *    - A slow dependency cannot take all threads/connections of the caller
+     *    - Full bulkhead rejects immediately instead of queueing
+     */
+    public static void demonstrateResiliencePatterns() {
+        System.out.println("8. Resilience Patterns Example:");
+        System.out.println("   Hedged requests, circuit breaker and bulkhead");
+
+        // HEDGING: ~10% of attempts are slow, their hedge answers after ~100ms instead of 1s
+        HedgedCall hedged = new HedgedCall(95, Duration.ofMillis(100), 0.2);
+        long start = System.nanoTime();
+        List<CompletableFuture<Integer>> calls = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int call = i;
+            calls.add(hedged.call(() -> createDelayedFuture(Math.random() < 0.1 ? 1000 : 50, call)));
+        }
+        CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).join();
+        System.out.println("20 hedged calls took " + (System.nanoTime() - start) / 1_000_000
+                + " ms, hedges sent: " + hedged.hedgesSent());
+
+        // CIRCUIT BREAKER: 3 failures in a row open it, next calls fail fast
+        CircuitBreaker breaker = new CircuitBreaker("flaky-service", 3, Duration.ofSeconds(1), 1, Duration.ofSeconds(1));
+        for (int i = 0; i < 5; i++) {
+            String result = breaker.<String>call(() -> CompletableFuture.supplyAsync(() -> {
+                        throw new RuntimeException("service down");
+                    }))
+                    .exceptionally(ex -> "failed: " + (ex instanceof CompletionException ? ex.getCause() : ex).getClass().getSimpleName())
+                    .join();
+            System.out.println("Call " + (i + 1) + " -> " + result + " (" + breaker.state() + ")");
+        }
+
+        // BULKHEAD: only 2 concurrent calls allowed, the third is rejected immediately
+        Bulkhead bulkhead = new Bulkhead("slow-service", 2);
+        List<CompletableFuture<Object>> bulkheadCalls = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int call = i;
+            bulkheadCalls.add(bulkhead.call(() -> createDelayedFuture(300, call))
+                    .<Object>thenApply(value -> value)
+                    .exceptionally(ex -> "rejected"));
+        }
+        System.out.println("Bulkhead results: " + bulkheadCalls.stream().map(CompletableFuture::join).toList());
+        System.out.println("Resilience patterns completed!\n");
+    }
+    
     /**
      * Helper methods for demonstrations
      */
@@ -637,6 +637,10 @@ public class ConcurrentCollectionsExamples {
      * - Read/write ratio: Concurrent collections excel with more reads
      * - Contention level: Higher contention favors concurrent collections
      * - Operation types: Bulk operations may favor different approaches
+     * 
+     * NOTE: this is only an illustration - no warmup, thread start/join inside the timing,
+     * results not consumed. Real numbers: JMH benchmarks in src/jmh (MapBenchmark,
+     * ListBenchmark, QueueBenchmark), ./gradlew jmh or ./gradlew jmhThreadSweep
      */
     public static void demonstratePerformanceComparison() throws InterruptedException {
         System.out.println("6. Performance Comparison Example:");
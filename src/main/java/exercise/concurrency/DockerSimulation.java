@@ -51,6 +51,7 @@ public class DockerSimulation {
         System.out.println("=== 🏁 ФИНИШ ===");
         System.out.println("Всего времени заняло: " + Duration.between(start, end).toMillis() + " ms");
         System.out.println("Заметь: 10 задач по 1 секунде каждая выполнились почти за 1 секунду на 1 потоке!");
+        System.out.println("Замеры для разных parallelism, пулов и structured-режима: WorkloadRunner");
     }
 
     // Хелпер для красивого вывода
@@ -67,11 +68,17 @@ public class DockerSimulation {
     }
 
     private static void heavyCalculation() {
-        // Просто немного нагружаем CPU, чтобы имитировать бурную деятельность
+        heavyCalculation(100_000);
+    }
+
+    // Просто немного нагружаем CPU, чтобы имитировать бурную деятельность.
+    // Результат возвращаем, чтобы JIT не выкинул цикл как мертвый код.
+    static double heavyCalculation(int iterations) {
         double val = 0;
-        for (int i = 0; i < 100_000; i++) {
+        for (int i = 0; i < iterations; i++) {
             val += Math.sin(i);
         }
+        return val;
     }
 
     private static void printSystemInfo() {
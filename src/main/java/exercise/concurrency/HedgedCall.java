@@ -0,0 +1,109 @@
+package exercise.concurrency;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Hedged requests against tail latency.
+ * <p>
+ * IDEA: most calls are fast, a few are very slow (GC pause, cold cache, busy replica).
+ * If the call is not done after the usual p95 latency, a duplicate is sent and the first
+ * successful answer wins. Only ~5% of calls are duplicated, but p99 drops to roughly
+ * p95 + p95 instead of the slow tail.
+ * <p>
+ * RULES:
+ * - Only for IDEMPOTENT calls (reads, validations) - never hedge a card charge
+ * - The hedge delay is the observed percentile of the primary calls, refreshed every
+ *   {@value #REFRESH_EVERY} calls, so the hot path does not scan the histogram
+ * - hedgeBudget caps hedges as a share of all calls: when the downstream is slow for everyone,
+ *   hedging would only double its load
+ * - Nothing blocks: the hedge is fired by the shared CompletableFuture delayed scheduler
+ */
+public class HedgedCall {
+    private static final int REFRESH_EVERY = 256;
+    private static final int MIN_SAMPLES = 100;
+
+    private final double percentile;
+    private final double hedgeBudget;
+    private final LatencyHistogram primaryLatency = new LatencyHistogram();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final AtomicInteger sinceRefresh = new AtomicInteger();
+    private volatile long hedgeDelayNanos;
+
+    /**
+     * @param initialDelay hedge delay until enough latencies are observed
+     * @param hedgeBudget  max share of calls that may be hedged, e.g. 0.1
+     */
+    public HedgedCall(double percentile, Duration initialDelay, double hedgeBudget) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile should be in (0, 100)");
+        }
+        this.percentile = percentile;
+        this.hedgeBudget = hedgeBudget;
+        this.hedgeDelayNanos = initialDelay.toNanos();
+    }
+
+    public <T> CompletableFuture<T> call(Supplier<? extends CompletableFuture<T>> call) {
+        calls.increment();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+
+        long start = System.nanoTime();
+        attempt(call, result, running).whenComplete((value, error) -> {
+            if (error == null) {
+                primaryLatency.record(System.nanoTime() - start);
+            }
+        });
+        refreshDelay();
+
+        if (!result.isDone() && hedges.sum() < hedgeBudget * calls.sum()) {
+            CompletableFuture.delayedExecutor(hedgeDelayNanos, TimeUnit.NANOSECONDS).execute(() -> {
+                if (!result.isDone()) {
+                    hedges.increment();
+                    running.incrementAndGet();
+                    attempt(call, result, running);
+                }
+            });
+        }
+        return result;
+    }
+
+    public long hedgeDelayNanos() {
+        return hedgeDelayNanos;
+    }
+
+    public long hedgesSent() {
+        return hedges.sum();
+    }
+
+    /**
+     * First success completes the result; the result fails only when no attempt is left running.
+     */
+    private static <T> CompletableFuture<T> attempt(Supplier<? extends CompletableFuture<T>> call,
+                                                    CompletableFuture<T> result, AtomicInteger running) {
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (running.decrementAndGet() == 0) {
+                result.completeExceptionally(error);
+            }
+        });
+    }
+
+    private void refreshDelay() {
+        if (sinceRefresh.incrementAndGet() % REFRESH_EVERY == 0 && primaryLatency.count() >= MIN_SAMPLES) {
+            hedgeDelayNanos = primaryLatency.percentile(percentile);
+        }
+    }
+}
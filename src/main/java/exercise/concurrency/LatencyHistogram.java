@@ -0,0 +1,86 @@
+package exercise.concurrency;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with constant memory.
+ * <p>
+ * Values are grouped into log-linear buckets: every power of two is split into 16 equal
+ * sub-buckets, so any recorded value is reported with an error of at most ~6%.
+ * That is enough for p50/p95/p99 and costs one atomic increment per record, no matter
+ * how many millions of values are recorded (unlike sorting a list of all latencies).
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        total.increment();
+        max.accumulate(value);
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile value in (0, 100]
+     * @return upper bound of the bucket holding the requested percentile, 0 if nothing recorded
+     */
+    public long percentile(double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile should be in (0, 100]");
+        }
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            recorded += counts.get(i);
+        }
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(recorded * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max());
+            }
+        }
+        return max();
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BUCKET_BITS;
+        int sub = (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + sub) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
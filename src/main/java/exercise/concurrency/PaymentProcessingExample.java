@@ -1,19 +1,122 @@
 package exercise.concurrency;
 
+import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PaymentProcessingExample {
-    
+
+    static final HedgedCall CARD_VALIDATION_HEDGE = new HedgedCall(95, Duration.ofMillis(400), 0.1);
+    static final CircuitBreaker CHARGE_BREAKER = new CircuitBreaker("chargeCard", 5, Duration.ofSeconds(10), 1,
+            Duration.ofSeconds(1));
+    static final Bulkhead BALANCE_BULKHEAD = new Bulkhead("updateBalance", 200);
+
+    /**
+     * Dependency graph of the payment:
+     * <pre>
+     * validateUser ─┐                ┌─> updateBalance ─┐
+     *               ├─> chargeCard ──┤                  ├─> result
+     * validateCard ─┘                └─> confirmation ──┘
+     * </pre>
+     * Latency = critical path (validate -> charge -> updateBalance), not the sum of all steps.
+     */
+    static final AsyncPipeline<PaymentRequest> PAYMENT_PIPELINE;
+    static final AsyncPipeline.Stage<PaymentRequest, ChargeResult> CHARGE;
+    static final AsyncPipeline.Stage<PaymentRequest, BalanceUpdate> BALANCE;
+    static final AsyncPipeline.Stage<PaymentRequest, String> CONFIRMATION;
+
+    static {
+        AsyncPipeline.Builder<PaymentRequest> builder = AsyncPipeline.builder();
+
+        var validateUser = builder.stage("validateUser", Duration.ofMillis(600), (request, results) -> {
+            sleepQuietly(300);
+            return new ValidationResult(request.userId(), null, true);
+        });
+        // Card lookup is a read: safe to hedge against a slow replica
+        var validateCard = builder.asyncStage("validateCard", Duration.ofMillis(600),
+                (request, results, executor) -> CARD_VALIDATION_HEDGE.call(() -> CompletableFuture.supplyAsync(() -> {
+                    sleepQuietly(300);
+                    return new ValidationResult(request.userId(), request.cardId(), true);
+                }, executor)), null);
+
+        // No fallback and no hedging: money must not move twice or without both validations.
+        // The breaker stops sending charges to a failing processor and fails them fast instead.
+        // Failed validation is a business outcome, not a processor failure: checked before the breaker.
+        CHARGE = builder.asyncStage("chargeCard", Duration.ofSeconds(1), (request, results, executor) -> {
+            if (!results.get(validateUser).isValid() || !results.get(validateCard).isValid()) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Validation failed"));
+            }
+            return CHARGE_BREAKER.call(() -> CompletableFuture.supplyAsync(() -> {
+                sleepQuietly(500);
+                return new ChargeResult("txn_789", request.amount(), "SUCCESS");
+            }, executor));
+        }, null, validateUser, validateCard);
+
+        // Card is already charged: a slow balance service must not fail the payment,
+        // the update is marked PENDING and reconciled later
+        BALANCE = builder.asyncStage("updateBalance", Duration.ofMillis(400),
+                (request, results, executor) -> BALANCE_BULKHEAD.call(() -> CompletableFuture.supplyAsync(() -> {
+                    sleepQuietly(200);
+                    return new BalanceUpdate(request.userId(), results.get(CHARGE).amount(), "COMPLETED");
+                }, executor)), ex -> new BalanceUpdate(null, 0, "PENDING"), CHARGE);
+
+        CONFIRMATION = builder.stage("confirmation", Duration.ofMillis(300), (request, results) -> {
+            sleepQuietly(100);
+            return "SENT";
+        }, ex -> "QUEUED", CHARGE);
+
+        PAYMENT_PIPELINE = builder.build();
+    }
+
     public static void main(String[] args) throws ExecutionException, InterruptedException {
+        long start = System.nanoTime();
         processPayment("user123", "card_456", 99.99);
+        System.out.println("Sequential: " + (System.nanoTime() - start) / 1_000_000 + " ms\n");
+
+        ExecutorService paymentExecutor = Executors.newFixedThreadPool(4, namedThreads("payment-"));
+        try {
+            start = System.nanoTime();
+            CompletableFuture<String> result = processPaymentAsync("user123", "card_456", 99.99, paymentExecutor);
+            System.out.println("Result: " + result.join());
+            System.out.println("Pipeline: " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } finally {
+            paymentExecutor.shutdown();
+        }
     }
-    
-    public static void processPayment(String userId, String cardId, double amount) 
+
+    /**
+     * Non-blocking version: independent steps run concurrently on the given executor,
+     * every step has its own timeout, optional steps have a fallback.
+     */
+    public static CompletableFuture<String> processPaymentAsync(String userId, String cardId, double amount,
+                                                                Executor executor) {
+        System.out.println("Starting payment processing for $" + amount);
+
+        // steps are reported by the listener, so the pipeline itself stays silent for batch runs
+        AsyncPipeline.StageListener printSteps = (stage, nanos, error) -> System.out.println(
+                "  " + stage + (error == null ? " done" : " failed: " + error) + " in " + nanos / 1_000_000 + " ms");
+        return PAYMENT_PIPELINE.run(new PaymentRequest(userId, cardId, amount), executor, printSteps)
+                .thenApply(results -> {
+                    BalanceUpdate balance = results.get(BALANCE);
+                    return "Payment of $" + results.get(CHARGE).amount() + " processed for " + userId
+                            + " (balance " + balance.status() + ", confirmation " + results.get(CONFIRMATION) + ")";
+                })
+                .exceptionally(ex -> {
+                    System.err.println("Payment failed: " + ex.getMessage());
+                    return "Payment failed - please try again";
+                });
+    }
+
+    public static void processPayment(String userId, String cardId, double amount)
             throws ExecutionException, InterruptedException {
-        
+
         System.out.println("Starting payment processing for $" + amount);
-        
+
         CompletableFuture<String> paymentResult = CompletableFuture
                 .supplyAsync(() -> {
                     System.out.println("Step 1: Validating user and card...");
@@ -42,10 +145,10 @@ public class PaymentProcessingExample {
                     System.err.println("Payment failed: " + ex.getMessage());
                     return "Payment failed - please try again";
                 });
-        
+
         System.out.println("Result: " + paymentResult.get());
     }
-    
+
     private static void sleepQuietly(int millis) {
         try {
             Thread.sleep(millis);
@@ -54,6 +157,18 @@ public class PaymentProcessingExample {
         }
     }
 
+    static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    record PaymentRequest(String userId, String cardId, double amount) {
+    }
+
     record ValidationResult(String userId, String cardId, boolean isValid) {
     }
 
@@ -62,4 +177,4 @@ public class PaymentProcessingExample {
 
     record BalanceUpdate(String userId, double amount, String status) {
     }
-}
\ No newline at end of file
+}
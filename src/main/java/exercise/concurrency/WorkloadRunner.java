@@ -0,0 +1,270 @@
+package exercise.concurrency;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs a mix of CPU-bound and blocking tasks under different concurrency models and
+ * reports how well the carrier (platform) threads are used - input for sizing container CPU limits.
+ * <p>
+ * MODES:
+ * 1. PLATFORM_POOL: fixed pool of platform threads, one task per thread at a time
+ * 2. VIRTUAL: one virtual thread per task
+ * 3. STRUCTURED: one virtual thread per task, every task forks its segments as subtasks
+ *    in a {@link TaskScope} and joins them (fan-out inside a request)
+ * <p>
+ * METRICS:
+ * - makespan: wall time from the first submit to the last completed task
+ * - carrier utilization: process CPU time / (makespan * carriers); carriers = scheduler parallelism
+ *   for virtual modes, pool size for the platform pool. Low utilization with long makespan means
+ *   carriers were idle or blocked, close to 100% means CPU is the limit
+ * - pinning events: jdk.VirtualThreadPinned JFR events, i.e. a virtual thread blocked while
+ *   holding a monitor and could not release its carrier
+ * <p>
+ * CARRIER PARALLELISM:
+ * jdk.virtualThreadScheduler.parallelism is read once, when the first virtual thread is created,
+ * so it cannot be changed inside one JVM. main() therefore starts a child JVM per setting with
+ * -XX:ActiveProcessorCount=N (what the JVM sees under a container CPU limit of N) and the same
+ * scheduler parallelism.
+ */
+public class WorkloadRunner {
+
+    public enum Mode {
+        PLATFORM_POOL, VIRTUAL, STRUCTURED
+    }
+
+    /**
+     * One task = CPU work, then a blocking call; pinned tasks block inside synchronized.
+     */
+    public record Workload(int tasks, int cpuIterations, Duration blocking, double pinnedShare) {
+        public Workload {
+            if (tasks <= 0 || cpuIterations < 0 || pinnedShare < 0 || pinnedShare > 1) {
+                throw new IllegalArgumentException("Invalid workload " + tasks + "/" + cpuIterations + "/" + pinnedShare);
+            }
+        }
+    }
+
+    public record RunReport(Mode mode, int carriers, long makespanNanos, long cpuNanos, long pinnedEvents) {
+        public double utilization() {
+            return (double) cpuNanos / ((double) makespanNanos * carriers);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-14s carriers=%-3d makespan=%6d ms  cpu=%6d ms  utilization=%5.1f%%  pinned=%d",
+                    mode, carriers, makespanNanos / 1_000_000, cpuNanos / 1_000_000, utilization() * 100, pinnedEvents);
+        }
+    }
+
+    private final int platformThreads;
+
+    public WorkloadRunner(int platformThreads) {
+        this.platformThreads = platformThreads;
+    }
+
+    public RunReport run(Mode mode, Workload workload) throws InterruptedException {
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO);
+            recording.start();
+
+            long cpuBefore = processCpuNanos();
+            long start = System.nanoTime();
+            switch (mode) {
+                case PLATFORM_POOL -> runOn(Executors.newFixedThreadPool(platformThreads, platformFactory()), workload, false);
+                case VIRTUAL -> runOn(Executors.newVirtualThreadPerTaskExecutor(), workload, false);
+                case STRUCTURED -> runOn(Executors.newVirtualThreadPerTaskExecutor(), workload, true);
+            }
+            long makespan = System.nanoTime() - start;
+            long cpu = processCpuNanos() - cpuBefore;
+
+            recording.stop();
+            int carriers = mode == Mode.PLATFORM_POOL ? platformThreads : carrierParallelism();
+            return new RunReport(mode, carriers, makespan, cpu, countPinnedEvents(recording));
+        }
+    }
+
+    private static void runOn(ExecutorService executor, Workload workload, boolean structured)
+            throws InterruptedException {
+        List<Future<?>> futures = new ArrayList<>(workload.tasks());
+        try (executor) {
+            for (int i = 0; i < workload.tasks(); i++) {
+                boolean pinned = i < workload.tasks() * workload.pinnedShare();
+                Runnable task = structured
+                        ? () -> structuredTask(workload, pinned)
+                        : () -> task(workload, pinned);
+                futures.add(executor.submit(task));
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Task failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Results of the CPU part go here so the JIT cannot drop the calculation.
+     */
+    private static volatile double sink;
+
+    private static void task(Workload workload, boolean pinned) {
+        sink = DockerSimulation.heavyCalculation(workload.cpuIterations());
+        block(workload.blocking(), pinned);
+    }
+
+    /**
+     * Fan-out version of the same task: CPU part and blocking part run as two subtasks.
+     */
+    private static void structuredTask(Workload workload, boolean pinned) {
+        try (TaskScope scope = new TaskScope()) {
+            scope.fork(() -> sink = DockerSimulation.heavyCalculation(workload.cpuIterations()));
+            scope.fork(() -> block(workload.blocking(), pinned));
+            scope.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Shared (escaping) monitors, so the JIT cannot elide the lock; striped to avoid contention.
+     */
+    private static final Object[] PIN_MONITORS = new Object[1024];
+
+    static {
+        for (int i = 0; i < PIN_MONITORS.length; i++) {
+            PIN_MONITORS[i] = new Object();
+        }
+    }
+
+    private static void block(Duration duration, boolean pinned) {
+        try {
+            if (pinned) {
+                // JDK 21: sleeping inside synchronized pins the virtual thread to its carrier
+                Object monitor = PIN_MONITORS[(int) (Thread.currentThread().threadId() & (PIN_MONITORS.length - 1))];
+                synchronized (monitor) {
+                    Thread.sleep(duration);
+                }
+            } else {
+                Thread.sleep(duration);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Minimal structured scope: subtasks run in virtual threads owned by the scope,
+     * join() waits for all of them, the first failure cancels the rest,
+     * close() never lets a subtask outlive the scope.
+     * (StructuredTaskScope is a preview API in JDK 21 and the build does not enable preview.)
+     */
+    static final class TaskScope implements AutoCloseable {
+        private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        private final List<Future<?>> subtasks = new ArrayList<>();
+
+        void fork(Runnable subtask) {
+            subtasks.add(executor.submit(subtask));
+        }
+
+        void join() throws InterruptedException {
+            for (Future<?> subtask : subtasks) {
+                try {
+                    subtask.get();
+                } catch (ExecutionException e) {
+                    subtasks.forEach(f -> f.cancel(true));
+                    throw new IllegalStateException("Subtask failed", e.getCause());
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            executor.shutdownNow();
+            executor.close();
+        }
+    }
+
+    private static long countPinnedEvents(Recording recording) {
+        try {
+            Path dump = Files.createTempFile("workload", ".jfr");
+            try {
+                recording.dump(dump);
+                return RecordingFile.readAllEvents(dump).stream()
+                        .filter(event -> event.getEventType().getName().equals("jdk.VirtualThreadPinned"))
+                        .count();
+            } finally {
+                Files.deleteIfExists(dump);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read JFR recording", e);
+        }
+    }
+
+    private static long processCpuNanos() {
+        var os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean sunOs) {
+            return sunOs.getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    private static int carrierParallelism() {
+        String parallelism = System.getProperty("jdk.virtualThreadScheduler.parallelism");
+        return parallelism != null ? Integer.parseInt(parallelism) : Runtime.getRuntime().availableProcessors();
+    }
+
+    private static ThreadFactory platformFactory() {
+        return Thread.ofPlatform().name("platform-", 0).factory();
+    }
+
+    /**
+     * Without arguments: starts one child JVM per carrier parallelism and prints their reports.
+     * With "--child": runs all modes in this JVM.
+     */
+    public static void main(String[] args) throws Exception {
+        Workload workload = new Workload(2_000, 200_000, Duration.ofMillis(50), 0.1);
+
+        if (args.length > 0 && args[0].equals("--child")) {
+            System.out.println("--- CPUs (JVM view): " + Runtime.getRuntime().availableProcessors()
+                    + ", carrier parallelism: " + carrierParallelism());
+            WorkloadRunner runner = new WorkloadRunner(64);
+            Workload warmup = new Workload(200, workload.cpuIterations(), Duration.ofMillis(1), 0);
+            for (Mode mode : Mode.values()) {
+                runner.run(mode, warmup);
+            }
+            for (Mode mode : Mode.values()) {
+                System.out.println(runner.run(mode, workload));
+            }
+            return;
+        }
+
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        for (int parallelism : new int[]{1, 2, 4, 8}) {
+            Process child = new ProcessBuilder(java,
+                    "-XX:ActiveProcessorCount=" + parallelism,
+                    "-Djdk.virtualThreadScheduler.parallelism=" + parallelism,
+                    "-cp", System.getProperty("java.class.path"),
+                    WorkloadRunner.class.getName(), "--child")
+                    .inheritIO()
+                    .start();
+            if (child.waitFor() != 0) {
+                throw new IllegalStateException("Child run failed for parallelism " + parallelism);
+            }
+        }
+    }
+}
@@ -1,39 +1,53 @@
 package exercise.yandex.dev.tasks.atm;
 
-import org.jetbrains.annotations.NotNull;
-
+import java.time.Duration;
 import java.util.*;
-
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Банкомат: выдача у самого банкомата (withdraw) и резервы из приложения (reserve, затем dispense или cancel).
+ * <p>
+ * Резерв сразу списывает подобранные купюры из кассет: в getBalance их уже нет, и выдать их
+ * кому-то еще нельзя. Резервы живут ttl и истекают по колесу таймеров ({@link TimerWheel}) - без потока
+ * на резерв; колесо продвигают вызовы резервов и {@link #expireHolds()} (из планировщика).
+ * Истекший или отмененный резерв возвращает купюры в кассеты. Выдача у банкомата колесо не ждет,
+ * но если ей не хватило купюр - сначала возвращает истекшие резервы и пробует еще раз.
+ * <p>
+ * Если купюры резерва не помещаются в кассету (ее пополнили до предела, пока они лежали в резерве),
+ * резерв остается открытым и держит их: истекший пробует вернуть их снова через тик колеса,
+ * cancel сообщает об ошибке. Купюры не теряются.
+ */
 public class ATM {
+    // резервы живут минуты: оборот колеса 256 с, дальние сроки ждут своего оборота в слоте
+    private static final int WHEEL_SLOTS = 256;
+    private static final long WHEEL_TICK_MILLIS = 1000;
+    // подбор выдачи на поток: withdraw аллоцирует только результат
+    private static final ThreadLocal<int[]> TAKE = ThreadLocal.withInitial(() -> new int[Long.SIZE]);
+
     private final CashStorage cashStorage;
+    private final DispensePolicy policy;
+    private final LongSupplier clock;
+    private final TimerWheel<Hold> expirations;
+    private final Map<String, Hold> holds = new ConcurrentHashMap<>();
+    private final AtomicLong holdIds = new AtomicLong();
 
     public ATM(CashStorage cashStorage) {
-        this.cashStorage = cashStorage;
+        this(cashStorage, System::currentTimeMillis);
     }
 
-    @NotNull
-    private static Map<Denomination, Integer> canTake(Map<Denomination, Integer> cash, long amount) {
-        Map<Denomination, Integer> newMap = new HashMap<>();
-        // find can take -> if can take
-        for (Map.Entry<Denomination, Integer> entry : cash.entrySet()) {
-            if (amount == 0) {
-                break;
-            }
-
-            long count = amount / entry.getKey().getAmount();
-            long min = Math.min(count, entry.getValue());
-            if (min > 0) {
-                newMap.put(entry.getKey(), (int) min);
-                amount -= min * entry.getKey().getAmount();
-            }
-
-        }
-        if (amount == 0) {
-            return newMap;
-        }
+    public ATM(CashStorage cashStorage, LongSupplier clock) {
+        this(cashStorage, DispensePolicy.GREEDY_THEN_DP, clock);
+    }
 
-        return Map.of();
+    public ATM(CashStorage cashStorage, DispensePolicy policy, LongSupplier clock) {
+        this.cashStorage = cashStorage;
+        this.policy = policy;
+        this.clock = clock;
+        this.expirations = new TimerWheel<>(WHEEL_SLOTS, WHEEL_TICK_MILLIS, clock.getAsLong());
     }
 
     public WithdrawResult withdraw(Currency currency, long amount) {
@@ -45,15 +59,21 @@ public class ATM {
 
         }
 
+        WithdrawResult result = tryWithdraw(currency, amount);
+        // брошенный резерв не должен отказывать человеку у банкомата
+        if (!result.result() && expireHolds() > 0) {
+            result = tryWithdraw(currency, amount);
+        }
+        return result;
+    }
+
+    private WithdrawResult tryWithdraw(Currency currency, long amount) {
         if (amount > getBalance(currency)) {
             return WithdrawResult.fail("ATM dont enough money");
 
         }
 
-        var cash = cashStorage.getBank().getOrDefault(currency, Map.of());
-        var sortedCash = sortBank(cash);
-
-        var whatTake = takeMoney(sortedCash, amount, currency);
+        var whatTake = takeMoney(amount, currency);
 
         if (whatTake.isEmpty()) {
             return WithdrawResult.fail("Need another paper");
@@ -62,31 +82,133 @@ public class ATM {
         return WithdrawResult.succes(whatTake);
     }
 
-    Map<Denomination, Integer> takeMoney(Map<Denomination, Integer> cash, long amount, Currency currency) {
-        var a = canTake(cash, amount);
-        if (!a.isEmpty()) {
-            //cash - a
-            for (Map.Entry<Denomination, Integer> entry : a.entrySet()) {
-                System.out.println(cash);
-                 cash.put(entry.getKey(), cash.getOrDefault(entry.getKey(), 0) - entry.getValue());
-                System.out.println(cash);
+    /**
+     * Отложить купюры на сумму под резерв из приложения.
+     *
+     * @return при успехе holdId и отложенные купюры
+     */
+    public WithdrawResult reserve(Currency currency, long amount, Duration ttl) {
+        if (currency == null) {
+            return WithdrawResult.fail("Concurenc cant be null");
+        }
+        if (amount <= 0) {
+            return WithdrawResult.fail("Amount should be positive");
+        }
+        if (ttl == null || ttl.isNegative() || ttl.isZero()) {
+            return WithdrawResult.fail("Ttl should be positive");
+        }
+        expireHolds();
+        // как в tryWithdraw: заведомо невыполнимый резерв не доходит до подбора купюр
+        if (amount > getBalance(currency)) {
+            return WithdrawResult.fail("ATM dont enough money");
+        }
+
+        Denomination[] denominations = DenominationTable.denominations(currency);
+        int[] notes = new int[denominations.length];
+        long ref = holdIds.incrementAndGet();
+        if (!cashStorage.hold(currency, amount, notes, policy, ref)) {
+            return WithdrawResult.fail("Need another paper");
+        }
+        Hold hold = new Hold(ref, currency, notes);
+        holds.put(hold.id, hold);
+        expirations.schedule(hold, clock.getAsLong() + ttl.toMillis());
+        return WithdrawResult.held(hold.id, toBanknotes(denominations, notes));
+    }
+
+    /**
+     * Выдать отложенные купюры. Резерв закрывается; истекший, отмененный или уже выданный - отказ.
+     */
+    public WithdrawResult dispense(String holdId) {
+        expireHolds();
+        Hold hold = holds.get(holdId);
+        if (hold == null || !hold.open.compareAndSet(true, false)) {
+            return WithdrawResult.fail("Hold " + holdId + " not found or expired");
+        }
+        holds.remove(holdId);
+        cashStorage.settle(hold.currency, hold.ref);
+        return WithdrawResult.succes(toBanknotes(DenominationTable.denominations(hold.currency), hold.notes));
+    }
+
+    /**
+     * Отменить резерв и вернуть купюры в кассеты. Повторная отмена (или отмена закрытого резерва) ничего не делает.
+     *
+     * @throws IllegalArgumentException если купюры не помещаются в кассету - резерв остается открытым
+     */
+    public void cancel(String holdId) {
+        Hold hold = holds.get(holdId);
+        if (hold != null) {
+            release(hold);
+        }
+    }
+
+    /**
+     * Вернуть в кассеты купюры истекших резервов.
+     *
+     * @return сколько резервов истекло
+     */
+    public int expireHolds() {
+        long now = clock.getAsLong();
+        int[] expired = new int[1];
+        expirations.advance(now, hold -> {
+            try {
+                if (release(hold)) {
+                    expired[0]++;
+                }
+            } catch (IllegalArgumentException e) {
+                // кассета переполнена - резерв еще открыт, вернем купюры на следующем тике
+                expirations.schedule(hold, now + WHEEL_TICK_MILLIS);
             }
+        });
+        return expired[0];
+    }
 
-            cashStorage.newBank(cash, currency);
+    // закрывает резерв ровно один раз: dispense, cancel и таймер соревнуются за один CAS.
+    // Резерв уходит из holds только после того, как купюры вернулись в кассеты: если они не влезли,
+    // резерв открывается снова
+    private boolean release(Hold hold) {
+        if (!hold.open.compareAndSet(true, false)) {
+            return false;
+        }
+        try {
+            cashStorage.release(hold.currency, hold.notes, hold.ref);
+        } catch (IllegalArgumentException e) {
+            hold.open.set(true);
+            throw e;
         }
-        return a;
+        holds.remove(hold.id);
+        return true;
     }
 
-    public Integer getBalance(Currency currency) {
-        var mapRub = cashStorage.getBank().getOrDefault(currency, Map.of());
-        int amount = 0;
-        for (Map.Entry<Denomination, Integer> entry : mapRub.entrySet()) {
-            Denomination key = entry.getKey();
-            Integer value = entry.getValue();
+    private static Map<Denomination, Integer> toBanknotes(Denomination[] denominations, int[] notes) {
+        Map<Denomination, Integer> banknotes = new EnumMap<>(Denomination.class);
+        for (int i = 0; i < denominations.length; i++) {
+            if (notes[i] > 0) {
+                banknotes.put(denominations[i], notes[i]);
+            }
+        }
+        return banknotes;
+    }
 
-            amount += key.getAmount() * value;
+    /**
+     * Подобрать купюры ({@link DispensePolicy}, по умолчанию жадно, при неудаче - DP) и атомарно списать их из кассет.
+     *
+     * @return выданные купюры или пустая карта, если сумму не собрать (кассеты не меняются)
+     */
+    Map<Denomination, Integer> takeMoney(long amount, Currency currency) {
+        Denomination[] denominations = DenominationTable.denominations(currency);
+        int[] take = TAKE.get();
+        if (!cashStorage.take(currency, amount, take, policy)) {
+            return Map.of();
         }
-        return amount;
+
+        return toBanknotes(denominations, take);
+    }
+
+    /**
+     * Сумма в кассетах без отложенных под резервы купюр. O(число номиналов), без аллокаций.
+     */
+    public int getBalance(Currency currency) {
+        return Math.toIntExact(cashStorage.balance(currency));
     }
 
     Map<Denomination, Integer> sortBank(Map<Denomination, Integer> bank) {
@@ -95,5 +217,18 @@ public class ATM {
         return sortedMap;
     }
 
-
+    private static final class Hold {
+        final String id;
+        final long ref;
+        final Currency currency;
+        final int[] notes;
+        final AtomicBoolean open = new AtomicBoolean(true);
+
+        Hold(long ref, Currency currency, int[] notes) {
+            this.id = "hold-" + ref;
+            this.ref = ref;
+            this.currency = currency;
+            this.notes = notes;
+        }
+    }
 }
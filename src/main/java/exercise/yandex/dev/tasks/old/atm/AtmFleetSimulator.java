@@ -0,0 +1,351 @@
+package exercise.yandex.dev.tasks.atm;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Нагрузочный стенд: парк из тысяч банкоматов под параллельной нагрузкой - сравнить стратегии подбора купюр
+ * и модели конкурентности на одном и том же потоке операций. ATMTest проверяет корректность в одном потоке,
+ * здесь - как банкоматы ведут себя вместе: сколько отказов, где конкуренция, какие хвосты задержек.
+ * <p>
+ * НАГРУЗКА:
+ * - суммы снятия по таблицам на валюту (RUB - от 350 до 20000, EUR - от 20 до 500), мелкие чаще; RUB 80%, EUR 20%
+ * - популярность банкоматов неравномерная: банкоматы с малым номером получают больше операций и пустеют первыми
+ * - доля appShare - резервы из приложения: резерв, через 5..90 с (модельного времени) выдача (70%),
+ *   отмена (20%) или резерв брошен и истекает по ttl (10%)
+ * - инкассация: каждый банкомат раз в refillEvery загружается полностью, первая - со случайным сдвигом
+ * <p>
+ * ВРЕМЯ модельное: каждая операция потока двигает его часы на tick * threads (поток - 1/threads всего трафика),
+ * раз в 256 операций поток публикует свои часы в общие (максимум). Результат не зависит от скорости машины:
+ * быстрая стратегия не получает больше инкассаций на операцию.
+ * <p>
+ * МОДЕЛИ:
+ * 1. LOCK_FREE: вызовы ATM как есть, кассеты меняются CAS ({@link CashStorage})
+ * 2. LOCKED: каждая операция банкомата под его ReentrantLock - как было бы с synchronized-кассетами
+ * <p>
+ * МЕТРИКИ:
+ * - throughput: операций в секунду реального времени (снятие, резерв, выдача и отмена резерва)
+ * - failures: доля отказов среди снятий и резервов (не хватает денег или не собрать сумму);
+ *   no notes - только вторые: деньги есть, нужных номиналов нет, это и отличает стратегии
+ * - contention: LOCK_FREE - повторы CAS в кассетах, LOCKED - захваты, которым пришлось ждать блокировку
+ * - p50 / p99 / p99.9: задержка одной операции, мкс
+ */
+public class AtmFleetSimulator {
+
+    public enum Model {
+        LOCK_FREE, LOCKED
+    }
+
+    public enum Strategy {
+        GREEDY(DispensePolicy.GREEDY),
+        GREEDY_THEN_DP(DispensePolicy.GREEDY_THEN_DP),
+        PRESERVE_SMALL(DispensePolicy.PRESERVE_SMALL);
+
+        final DispensePolicy policy;
+
+        Strategy(DispensePolicy policy) {
+            this.policy = policy;
+        }
+    }
+
+    public record Scenario(int atms, int threads, int opsPerThread, double appShare,
+                           Duration tick, Duration refillEvery, Duration holdTtl, long seed) {
+        public Scenario {
+            if (atms <= 0 || threads <= 0 || opsPerThread <= 0 || appShare < 0 || appShare > 1
+                    || tick.isNegative() || tick.isZero() || refillEvery.compareTo(tick) <= 0 || holdTtl.isNegative()) {
+                throw new IllegalArgumentException("Invalid scenario " + atms + "/" + threads + "/" + opsPerThread + "/" + appShare);
+            }
+        }
+
+        public static Scenario defaults() {
+            return new Scenario(2000, Runtime.getRuntime().availableProcessors(), 200_000, 0.3,
+                    Duration.ofMillis(50), Duration.ofHours(6), Duration.ofMinutes(2), 42);
+        }
+    }
+
+    public record Report(Strategy strategy, Model model, long ops, long nanos, long requests, long failures,
+                         long noNotes, long contention, long p50, long p99, long p999) {
+        public double throughput() {
+            return ops * 1e9 / nanos;
+        }
+
+        public double failureRate() {
+            return requests == 0 ? 0 : (double) failures / requests;
+        }
+
+        public double noNotesRate() {
+            return requests == 0 ? 0 : (double) noNotes / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-15s %-10s ops/s=%,10.0f  failures=%5.2f%% (no notes %5.2f%%)  contention=%,8d  p50=%6.1f us  p99=%6.1f us  p99.9=%7.1f us",
+                    strategy, model, throughput(), failureRate() * 100, noNotesRate() * 100, contention, p50 / 1e3, p99 / 1e3, p999 / 1e3);
+        }
+    }
+
+    // суммы снятия и их относительные веса
+    private static final long[] RUB_AMOUNTS = {350, 500, 700, 1000, 1500, 1550, 2000, 2300, 3000, 5000, 7000, 10000, 15000, 20000};
+    private static final int[] RUB_WEIGHTS = {3, 8, 4, 14, 6, 3, 12, 3, 10, 18, 5, 14, 6, 7};
+    private static final long[] EUR_AMOUNTS = {20, 40, 50, 60, 80, 100, 150, 200, 300, 500};
+    private static final int[] EUR_WEIGHTS = {10, 12, 14, 8, 6, 18, 8, 12, 7, 5};
+    private static final double RUB_SHARE = 0.8;
+    private static final int PUBLISH_EVERY = 256;
+    // отказ при достаточном балансе: сумму не собрать из оставшихся номиналов
+    private static final String NO_NOTES = "Need another paper";
+
+    private static final Map<Denomination, Integer> RUB_LOAD = Map.of(
+            Denomination.RUB_5000, 200,
+            Denomination.RUB_1000, 500,
+            Denomination.RUB_500, 300,
+            Denomination.RUB_100, 300,
+            Denomination.RUB_50, 200);
+    private static final Map<Denomination, Integer> EUR_LOAD = Map.of(
+            Denomination.EUR_500, 40,
+            Denomination.EUR_100, 300,
+            Denomination.EUR_50, 300,
+            Denomination.EUR_20, 400);
+
+    private final Scenario scenario;
+
+    public AtmFleetSimulator(Scenario scenario) {
+        this.scenario = scenario;
+    }
+
+    public Report run(Strategy strategy, Model model) throws InterruptedException {
+        AtomicLong clock = new AtomicLong();
+        SplittableRandom seeds = new SplittableRandom(scenario.seed());
+        long refillMillis = scenario.refillEvery().toMillis();
+        Station[] fleet = new Station[scenario.atms()];
+        for (int i = 0; i < fleet.length; i++) {
+            fleet[i] = new Station(strategy.policy, clock, seeds.nextLong(refillMillis));
+        }
+
+        Worker[] workers = new Worker[scenario.threads()];
+        Thread[] threads = new Thread[workers.length];
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = new Worker(fleet, model, clock, seeds.split());
+            workers[i] = worker;
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    worker.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "atm-sim-" + i);
+            threads[i].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - begin;
+
+        long[] latencies = new long[workers.length * scenario.opsPerThread()];
+        long requests = 0;
+        long failures = 0;
+        long noNotes = 0;
+        long contention = 0;
+        for (int i = 0; i < workers.length; i++) {
+            System.arraycopy(workers[i].latencies, 0, latencies, i * scenario.opsPerThread(), scenario.opsPerThread());
+            requests += workers[i].requests;
+            failures += workers[i].failures;
+            noNotes += workers[i].noNotes;
+            contention += workers[i].contended;
+        }
+        if (model == Model.LOCK_FREE) {
+            for (Station station : fleet) {
+                contention += station.storage.casRetries();
+            }
+        }
+        Arrays.sort(latencies);
+        return new Report(strategy, model, latencies.length, nanos, requests, failures, noNotes, contention,
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    /**
+     * Банкомат парка: сам ATM, его кассеты, блокировка для LOCKED и срок следующей инкассации.
+     */
+    private static final class Station {
+        final CashStorage storage = new CashStorage();
+        final ATM atm;
+        final ReentrantLock lock = new ReentrantLock();
+        final AtomicLong nextRefill;
+
+        Station(DispensePolicy policy, AtomicLong clock, long firstRefill) {
+            this.atm = new ATM(storage, policy, clock::get);
+            this.nextRefill = new AtomicLong(firstRefill);
+            refill();
+        }
+
+        void refill() {
+            storage.newBank(RUB_LOAD, Currency.RUB);
+            storage.newBank(EUR_LOAD, Currency.EUR);
+        }
+    }
+
+    private record Pending(Station station, String holdId, long due, int action) {
+    }
+
+    private final class Worker {
+        private static final int DISPENSE = 0;
+        private static final int CANCEL = 1;
+        private static final int ABANDON = 2;
+
+        final Station[] fleet;
+        final Model model;
+        final AtomicLong clock;
+        final SplittableRandom random;
+        final long[] latencies = new long[scenario.opsPerThread()];
+        final PriorityQueue<Pending> pending = new PriorityQueue<>((a, b) -> Long.compare(a.due, b.due));
+        final long step = scenario.tick().toMillis() * scenario.threads();
+        final long refillMillis = scenario.refillEvery().toMillis();
+        final long holdTtlMillis = scenario.holdTtl().toMillis();
+        long requests;
+        long failures;
+        long noNotes;
+        long contended;
+        long now;
+
+        Worker(Station[] fleet, Model model, AtomicLong clock, SplittableRandom random) {
+            this.fleet = fleet;
+            this.model = model;
+            this.clock = clock;
+            this.random = random;
+        }
+
+        void run() {
+            for (int op = 0; op < latencies.length; op++) {
+                now += step;
+                if ((op & (PUBLISH_EVERY - 1)) == 0) {
+                    clock.accumulateAndGet(now, Math::max);
+                }
+                Pending due = pending.peek();
+                long begin = System.nanoTime();
+                if (due != null && due.due <= now) {
+                    pending.poll();
+                    resolve(due);
+                } else {
+                    request();
+                }
+                latencies[op] = System.nanoTime() - begin;
+            }
+        }
+
+        private void request() {
+            Station station = fleet[pickAtm()];
+            Currency currency = random.nextDouble() < RUB_SHARE ? Currency.RUB : Currency.EUR;
+            long amount = currency == Currency.RUB ? pick(RUB_AMOUNTS, RUB_WEIGHTS) : pick(EUR_AMOUNTS, EUR_WEIGHTS);
+            boolean app = random.nextDouble() < scenario.appShare();
+            lock(station);
+            try {
+                refillIfDue(station);
+                WithdrawResult result = app
+                        ? station.atm.reserve(currency, amount, scenario.holdTtl())
+                        : station.atm.withdraw(currency, amount);
+                requests++;
+                if (!result.result()) {
+                    failures++;
+                    if (NO_NOTES.equals(result.message())) {
+                        noNotes++;
+                    }
+                } else if (app) {
+                    double u = random.nextDouble();
+                    int action = u < 0.7 ? DISPENSE : u < 0.9 ? CANCEL : ABANDON;
+                    // брошенный резерв никто не трогает: его вернет колесо таймеров банкомата
+                    if (action != ABANDON) {
+                        long delay = 5_000 + random.nextLong(Math.max(1, Math.min(85_000, holdTtlMillis - 5_000)));
+                        pending.add(new Pending(station, result.holdId(), now + delay, action));
+                    }
+                }
+            } finally {
+                unlock(station);
+            }
+        }
+
+        private void resolve(Pending due) {
+            lock(due.station);
+            try {
+                if (due.action == DISPENSE) {
+                    due.station.atm.dispense(due.holdId);
+                } else {
+                    due.station.atm.cancel(due.holdId);
+                }
+            } finally {
+                unlock(due.station);
+            }
+        }
+
+        // одну инкассацию забирает один поток: кто выиграл CAS срока, тот и загружает
+        private void refillIfDue(Station station) {
+            long next = station.nextRefill.get();
+            if (now >= next && station.nextRefill.compareAndSet(next, now + refillMillis)) {
+                station.refill();
+            }
+        }
+
+        // квадрат равномерного: первая четверть парка получает половину операций
+        private int pickAtm() {
+            double u = random.nextDouble();
+            return (int) (u * u * fleet.length);
+        }
+
+        private long pick(long[] amounts, int[] weights) {
+            int total = 0;
+            for (int weight : weights) {
+                total += weight;
+            }
+            int r = random.nextInt(total);
+            int i = 0;
+            while (r >= weights[i]) {
+                r -= weights[i++];
+            }
+            return amounts[i];
+        }
+
+        private void lock(Station station) {
+            if (model == Model.LOCKED && !station.lock.tryLock()) {
+                contended++;
+                station.lock.lock();
+            }
+        }
+
+        private void unlock(Station station) {
+            if (model == Model.LOCKED) {
+                station.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Все стратегии во всех моделях на одном сценарии. Аргументы (необязательные): atms threads opsPerThread.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Scenario defaults = Scenario.defaults();
+        Scenario scenario = args.length < 3 ? defaults : new Scenario(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]), defaults.appShare(), defaults.tick(), defaults.refillEvery(),
+                defaults.holdTtl(), defaults.seed());
+        System.out.println(scenario);
+        AtmFleetSimulator simulator = new AtmFleetSimulator(scenario);
+        // прогрев JIT, результат не печатается
+        simulator.run(Strategy.GREEDY_THEN_DP, Model.LOCK_FREE);
+        for (Strategy strategy : Strategy.values()) {
+            for (Model model : Model.values()) {
+                System.out.println(simulator.run(strategy, model));
+            }
+        }
+    }
+}
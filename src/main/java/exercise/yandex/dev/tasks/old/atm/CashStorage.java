@@ -1,34 +1,270 @@
 package exercise.yandex.dev.tasks.atm;
 
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Кассеты банкомата, безопасные для многопоточной выдачи (банкомат + резервы из приложения).
+ * <p>
+ * Количества купюр всех номиналов валюты упакованы в один long: на номинал - 64 / (число номиналов) бит
+ * (RUB - 5 номиналов по 12 бит, до 4095 купюр; EUR - 4 по 16 бит). Выдача читает состояние, подбирает
+ * купюры ({@link DispensePolicy}, по умолчанию {@link DispenseEngine}) и списывает их одним CAS: либо все номиналы сразу, либо ничего.
+ * Если состояние успели изменить, подбор повторяется по новым количествам - продать одну купюру дважды нельзя.
+ * Блокировок нет; валюты в разных кеш-линиях и друг другу не мешают.
+ * <p>
+ * С журналом ({@link CassetteJournal}) каждое изменение после CAS пишется в журнал, и метод возвращается,
+ * только когда запись на диске. Подбор купюр по-прежнему без блокировки, под блокировкой журнала -
+ * только CAS и запись в буфер, чтобы порядок записей совпадал с порядком изменений.
+ */
 public class CashStorage {
-    private Map<Currency, Map<Denomination, Integer>> bank;
+    // 8 long = 64 байта: CAS по одной валюте не инвалидирует кеш-линию другой
+    private static final int STRIDE = 8;
+    private static final int[] BITS = new int[Currency.values().length];
+    private static final ThreadLocal<int[]> COUNTS = ThreadLocal.withInitial(() -> new int[Long.SIZE]);
+
+    static {
+        for (Currency currency : Currency.values()) {
+            Denomination[] denominations = DenominationTable.denominations(currency);
+            BITS[currency.ordinal()] = Long.SIZE / denominations.length;
+        }
+    }
+
+    private final AtomicLongArray states = new AtomicLongArray(Currency.values().length * STRIDE);
+    // сколько раз выдачу пришлось пересчитать из-за параллельного изменения - мера конкуренции за кассеты
+    private final LongAdder casRetries = new LongAdder();
+    // null - без журнала, состояние только в памяти
+    private final CassetteJournal journal;
 
     public CashStorage() {
-        Map<Currency, Map<Denomination, Integer>> rub = Map.of(
-                Currency.RUB, Map.of(
-                        Denomination.RUB_50, 31,
-                        Denomination.RUB_100, 20,
-                        Denomination.RUB_1000, 10,
-                        Denomination.RUB_500, 12,
-                        Denomination.RUB_5000, 10
-                ),
-                Currency.EUR, Map.of(
-                        Denomination.EUR_20, 30,
-                        Denomination.EUR_100, 50,
-                        Denomination.EUR_500, 50
-                ));
-        bank = new HashMap<>(rub);
+        this.journal = null;
+        // не newBank: переопределенный в наследнике, он увидел бы недостроенный объект
+        replace(Map.of(
+                Denomination.RUB_50, 31,
+                Denomination.RUB_100, 20,
+                Denomination.RUB_1000, 10,
+                Denomination.RUB_500, 12,
+                Denomination.RUB_5000, 10
+        ), Currency.RUB);
+        replace(Map.of(
+                Denomination.EUR_20, 30,
+                Denomination.EUR_100, 50,
+                Denomination.EUR_500, 50
+        ), Currency.EUR);
+    }
+
+    /**
+     * Кассеты, восстановленные по журналу; все изменения дальше пишутся в него.
+     */
+    public CashStorage(CassetteJournal journal) {
+        this.journal = journal;
+        for (Currency currency : Currency.values()) {
+            states.set(index(currency), journal.state(currency));
+        }
     }
 
+    /**
+     * Снимок кассет. Изменения возвращенных карт на банкомат не влияют - для этого newBank.
+     */
     public Map<Currency, Map<Denomination, Integer>> getBank() {
+        Map<Currency, Map<Denomination, Integer>> bank = new EnumMap<>(Currency.class);
+        for (Currency currency : Currency.values()) {
+            Denomination[] denominations = DenominationTable.denominations(currency);
+            long state = states.get(index(currency));
+            Map<Denomination, Integer> cash = new HashMap<>();
+            for (int i = 0; i < denominations.length; i++) {
+                cash.put(denominations[i], count(state, currency, i));
+            }
+            bank.put(currency, cash);
+        }
         return bank;
     }
 
+    /**
+     * Заменить содержимое кассет валюты (загрузка инкассатором). Номиналы, которых нет в карте, - пустые.
+     */
     public void newBank(Map<Denomination, Integer> newBank, Currency currency) {
-        bank.put(currency, newBank);
+        replace(newBank, currency);
+    }
+
+    private void replace(Map<Denomination, Integer> newBank, Currency currency) {
+        Denomination[] denominations = DenominationTable.denominations(currency);
+        long next = 0;
+        for (int i = 0; i < denominations.length; i++) {
+            next = withCount(next, currency, i, newBank.getOrDefault(denominations[i], 0));
+        }
+        int index = index(currency);
+        long state;
+        do {
+            state = states.get(index);
+        } while (!commit(currency, index, state, next, CassetteJournal.REFILL, 0));
+    }
+
+    /**
+     * Добавить купюры одного номинала (пополнение), атомарно с параллельными выдачами.
+     */
+    public void add(Denomination denomination, int count) {
+        Currency currency = denomination.getConcurency();
+        int slot = DenominationTable.slot(denomination);
+        int index = index(currency);
+        long state;
+        long next;
+        do {
+            state = states.get(index);
+            next = withCount(state, currency, slot, count(state, currency, slot) + count);
+        } while (!commit(currency, index, state, next, CassetteJournal.REFILL, 0));
+    }
+
+    /**
+     * Вернуть в кассеты купюры нескольких номиналов одним CAS (отмена резерва).
+     *
+     * @param notes количества в порядке {@link DenominationTable#denominations}
+     */
+    public void put(Currency currency, int[] notes) {
+        release(currency, notes, 0);
+    }
+
+    /**
+     * Вернуть в кассеты купюры резерва ref (отмена или истечение).
+     */
+    public void release(Currency currency, int[] notes, long ref) {
+        int index = index(currency);
+        long state;
+        long next;
+        do {
+            state = states.get(index);
+            next = state;
+            for (int i = 0; i < DenominationTable.denominations(currency).length; i++) {
+                if (notes[i] != 0) {
+                    next = withCount(next, currency, i, count(state, currency, i) + notes[i]);
+                }
+            }
+        } while (!commit(currency, index, state, next, CassetteJournal.RELEASE, ref));
+    }
+
+    /**
+     * Атомарно подобрать и списать купюры на сумму.
+     *
+     * @param out сколько купюр каждого номинала выдано, в порядке {@link DenominationTable#denominations}
+     * @return false, если сумму не собрать из того, что есть; кассеты тогда не меняются
+     */
+    public boolean take(Currency currency, long amount, int[] out) {
+        return take(currency, amount, out, DispensePolicy.GREEDY_THEN_DP);
+    }
+
+    public boolean take(Currency currency, long amount, int[] out, DispensePolicy policy) {
+        return take(currency, amount, out, policy, CassetteJournal.DISPENSE, 0);
+    }
+
+    /**
+     * Как take, но купюры уходят под резерв ref: в журнале он открыт до {@link #settle} или {@link #release}.
+     */
+    public boolean hold(Currency currency, long amount, int[] out, DispensePolicy policy, long ref) {
+        return take(currency, amount, out, policy, CassetteJournal.RESERVE, ref);
+    }
+
+    /**
+     * Купюры резерва ref выданы клиенту. Кассеты не меняются (купюры списаны при резерве), но с журналом
+     * факт выдачи должен быть на диске до выдачи - иначе после падения резерв вернул бы выданные купюры.
+     */
+    public void settle(Currency currency, long ref) {
+        int index = index(currency);
+        long state;
+        do {
+            state = states.get(index);
+        } while (!commit(currency, index, state, state, CassetteJournal.HOLD_DISPENSED, ref));
+    }
+
+    private boolean take(Currency currency, long amount, int[] out, DispensePolicy policy, byte type, long ref) {
+        int[] values = DenominationTable.values(currency);
+        int[] counts = COUNTS.get();
+        int index = index(currency);
+        int bits = BITS[currency.ordinal()];
+        while (true) {
+            long state = states.get(index);
+            for (int i = 0; i < values.length; i++) {
+                counts[i] = count(state, currency, i);
+            }
+            if (!policy.choose(values, counts, amount, out)) {
+                return false;
+            }
+            // out[i] <= counts[i]: вычитание по полям без заемов между ними
+            long taken = 0;
+            for (int i = 0; i < values.length; i++) {
+                taken += (long) out[i] << (i * bits);
+            }
+            if (commit(currency, index, state, state - taken, type, ref)) {
+                return true;
+            }
+            casRetries.increment();
+        }
+    }
+
+    /**
+     * CAS состояния валюты; с журналом - вместе с записью в него и ожиданием, пока она на диске.
+     * fsync ждем уже без блокировки: пока он идет, другие выдачи копят следующую пачку.
+     */
+    private boolean commit(Currency currency, int index, long state, long next, byte type, long ref) {
+        if (journal == null) {
+            return states.compareAndSet(index, state, next);
+        }
+        long seq;
+        journal.lock();
+        try {
+            // сломанный журнал - отказ до CAS: иначе купюры списаны в памяти, а клиент их не получит
+            journal.checkWritable();
+            if (!states.compareAndSet(index, state, next)) {
+                return false;
+            }
+            seq = journal.append(type, currency, ref, next);
+        } finally {
+            journal.unlock();
+        }
+        journal.awaitDurable(seq);
+        return true;
+    }
+
+    /**
+     * Сумма в кассетах валюты. Считается из того же упакованного состояния, что меняет выдача, одним чтением:
+     * баланс всегда согласован с количествами купюр, без отдельного счетчика и без аллокаций.
+     */
+    public long balance(Currency currency) {
+        int[] values = DenominationTable.values(currency);
+        long state = states.get(index(currency));
+        long balance = 0;
+        for (int i = 0; i < values.length; i++) {
+            balance += (long) values[i] * count(state, currency, i);
+        }
+        return balance;
     }
 
+    public long casRetries() {
+        return casRetries.sum();
+    }
+
+    public int count(Denomination denomination) {
+        Currency currency = denomination.getConcurency();
+        return count(states.get(index(currency)), currency, DenominationTable.slot(denomination));
+    }
+
+    private static int index(Currency currency) {
+        return currency.ordinal() * STRIDE;
+    }
+
+    static int count(long state, Currency currency, int slot) {
+        int bits = BITS[currency.ordinal()];
+        return (int) (state >>> (slot * bits) & ((1L << bits) - 1));
+    }
+
+    static long withCount(long state, Currency currency, int slot, int count) {
+        int bits = BITS[currency.ordinal()];
+        long max = (1L << bits) - 1;
+        if (count < 0 || count > max) {
+            throw new IllegalArgumentException("Cassette of " + DenominationTable.denominations(currency)[slot]
+                    + " holds 0.." + max + " notes, got " + count);
+        }
+        return state & ~(max << (slot * bits)) | (long) count << (slot * bits);
+    }
 }
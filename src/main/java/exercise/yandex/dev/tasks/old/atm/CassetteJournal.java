@@ -0,0 +1,341 @@
+package exercise.yandex.dev.tasks.atm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Журнал упреждающей записи кассет: каждое изменение (выдача, резерв, возврат, загрузка) - запись
+ * с новым упакованным состоянием валюты ({@link CashStorage}). Купюры выдаются только после того,
+ * как запись о них на диске.
+ * <p>
+ * Групповая фиксация: изменения дописываются в буфер в памяти, один поток пишет накопленное и делает
+ * один fsync на всю пачку. Пока идет fsync, копится следующая пачка - выдача ждет не больше
+ * двух fsync, сколько бы выдач ни шло параллельно, а не fsync каждой выдачи перед ней.
+ * <p>
+ * Запись хранит состояние целиком, а не разницу: повтор журнала - последнее состояние каждой валюты,
+ * порядок записей совпадает с порядком изменений (CAS и запись в буфер под одной блокировкой, см.
+ * {@link CashStorage}). Оборванная при падении запись отсекается по CRC.
+ * <p>
+ * Восстановление ({@link #open}): снимок + журнал поверх него. Резервы, открытые на момент падения,
+ * закрываются возвратом купюр в кассеты (клиенту их не выдали, таймеры резервов пропали вместе с процессом).
+ * Затем восстановленное состояние пишется новым снимком (файл и каталог сбрасываются на диск), и только потом
+ * журнал обнуляется.
+ * <p>
+ * Ошибка записи на диск ломает журнал: ожидающие и последующие изменения получают IllegalStateException,
+ * последующие - еще до изменения кассет ({@link #checkWritable}).
+ */
+public final class CassetteJournal implements AutoCloseable {
+    static final byte DISPENSE = 1;
+    static final byte RESERVE = 2;
+    static final byte HOLD_DISPENSED = 3;
+    static final byte RELEASE = 4;
+    static final byte REFILL = 5;
+
+    // seq, тип, валюта, ref резерва, состояние, crc
+    private static final int RECORD_SIZE = Long.BYTES + 2 + Long.BYTES + Long.BYTES + Integer.BYTES;
+    private static final String SNAPSHOT = "cassettes.snapshot";
+    private static final String JOURNAL = "cassettes.journal";
+
+    private final Path dir;
+    private final FileChannel channel;
+    private final long[] states = new long[Currency.values().length];
+    // ref открытого резерва -> состояния валюты до и после него
+    private final Map<Long, Hold> holds = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasPending = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private final Thread flusher;
+    private ByteBuffer pending = ByteBuffer.allocate(RECORD_SIZE * 64);
+    private ByteBuffer writing = ByteBuffer.allocate(RECORD_SIZE * 64);
+    private long appendedSeq;
+    private long durableSeq;
+    private IOException failure;
+    private boolean closed;
+
+    private CassetteJournal(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        long seq = readSnapshot();
+        seq = replay(seq);
+        for (Hold hold : holds.values()) {
+            restore(hold);
+        }
+        holds.clear();
+        // снапшот уже на диске вместе с каталогом - только теперь журнал можно обнулить
+        writeSnapshot(seq);
+        this.channel = FileChannel.open(dir.resolve(JOURNAL),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.force(true);
+        syncDirectory(dir);
+        this.appendedSeq = seq;
+        this.durableSeq = seq;
+        this.flusher = new Thread(this::flushLoop, "cassette-journal-" + dir.getFileName());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Открыть журнал в каталоге и восстановить по нему кассеты. Пустой каталог - пустые кассеты.
+     */
+    public static CassetteJournal open(Path dir) {
+        try {
+            return new CassetteJournal(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open cassette journal in " + dir, e);
+        }
+    }
+
+    long state(Currency currency) {
+        return states[currency.ordinal()];
+    }
+
+    void lock() {
+        lock.lock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Можно ли писать в журнал. Только под {@link #lock()} и до изменения состояния: в сломанный
+     * или закрытый журнал изменение не попадет, и кассеты в памяти не должны его опережать.
+     */
+    void checkWritable() {
+        if (failure != null || closed) {
+            throw new IllegalStateException("Cassette journal is " + (closed ? "closed" : "failed"), failure);
+        }
+    }
+
+    /**
+     * Дописать изменение в буфер. Только под {@link #lock()}, вместе с самим изменением.
+     *
+     * @return номер записи для {@link #awaitDurable}
+     */
+    long append(byte type, Currency currency, long ref, long state) {
+        checkWritable();
+        long seq = ++appendedSeq;
+        apply(type, currency.ordinal(), ref, state);
+        if (pending.remaining() < RECORD_SIZE) {
+            pending = ByteBuffer.allocate(pending.capacity() * 2).put(pending.flip());
+        }
+        int start = pending.position();
+        pending.putLong(seq).put(type).put((byte) currency.ordinal()).putLong(ref).putLong(state);
+        pending.putInt(crc(pending.array(), start, pending.position()));
+        hasPending.signal();
+        return seq;
+    }
+
+    /**
+     * Дождаться, пока запись seq (и все до нее) будет на диске.
+     */
+    void awaitDurable(long seq) {
+        lock.lock();
+        try {
+            // прерывание не отменяет уже сделанное изменение - ждем до конца
+            while (durableSeq < seq && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            if (durableSeq < seq) {
+                throw new IllegalStateException("Cassette journal write failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            hasPending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer batch;
+            long target;
+            lock.lock();
+            try {
+                while (pending.position() == 0 && !closed) {
+                    hasPending.awaitUninterruptibly();
+                }
+                if (pending.position() == 0) {
+                    return;
+                }
+                batch = pending;
+                pending = writing;
+                writing = batch;
+                target = appendedSeq;
+            } finally {
+                lock.unlock();
+            }
+            IOException error = null;
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            batch.clear();
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durableSeq = target;
+                }
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (error != null) {
+                return;
+            }
+        }
+    }
+
+    private void apply(byte type, int currency, long ref, long state) {
+        if (type == RESERVE) {
+            holds.put(ref, new Hold(currency, states[currency], state));
+        } else if ((type == HOLD_DISPENSED || type == RELEASE) && ref != 0) {
+            holds.remove(ref);
+        }
+        states[currency] = state;
+    }
+
+    /**
+     * Вернуть в кассеты купюры незакрытого резерва - по каждой кассете отдельно, как {@link CashStorage}:
+     * упакованная разница при битом журнале перетекла бы в соседний номинал.
+     */
+    private void restore(Hold hold) throws IOException {
+        Currency currency = Currency.values()[hold.currency];
+        long state = states[hold.currency];
+        for (int slot = 0; slot < DenominationTable.denominations(currency).length; slot++) {
+            int taken = CashStorage.count(hold.before, currency, slot) - CashStorage.count(hold.after, currency, slot);
+            if (taken < 0) {
+                throw new IOException("Corrupted journal: reserve of " + currency + " adds notes to slot " + slot);
+            }
+            try {
+                state = CashStorage.withCount(state, currency, slot, CashStorage.count(state, currency, slot) + taken);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupted journal: " + e.getMessage(), e);
+            }
+        }
+        states[hold.currency] = state;
+    }
+
+    private long readSnapshot() throws IOException {
+        Path file = dir.resolve(SNAPSHOT);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length != Long.BYTES * (1 + states.length) + Integer.BYTES
+                || buffer.getInt(bytes.length - Integer.BYTES) != crc(bytes, 0, bytes.length - Integer.BYTES)) {
+            throw new IOException("Corrupted snapshot " + file);
+        }
+        long seq = buffer.getLong();
+        for (int i = 0; i < states.length; i++) {
+            states[i] = buffer.getLong();
+        }
+        return seq;
+    }
+
+    private long replay(long snapshotSeq) throws IOException {
+        Path file = dir.resolve(JOURNAL);
+        if (!Files.exists(file)) {
+            return snapshotSeq;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long seq = snapshotSeq;
+        while (buffer.remaining() >= RECORD_SIZE) {
+            int start = buffer.position();
+            int expected = crc(bytes, start, start + RECORD_SIZE - Integer.BYTES);
+            long recordSeq = buffer.getLong();
+            byte type = buffer.get();
+            int currency = buffer.get();
+            long ref = buffer.getLong();
+            long state = buffer.getLong();
+            // оборванный хвост: дальше записей нет
+            if (buffer.getInt() != expected || currency < 0 || currency >= states.length) {
+                break;
+            }
+            // записи до снимка: упали между записью снимка и обнулением журнала
+            if (recordSeq > seq) {
+                apply(type, currency, ref, state);
+                seq = recordSeq;
+            }
+        }
+        return seq;
+    }
+
+    private void writeSnapshot(long seq) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES * (1 + states.length) + Integer.BYTES);
+        buffer.putLong(seq);
+        for (long state : states) {
+            buffer.putLong(state);
+        }
+        buffer.putInt(crc(buffer.array(), 0, buffer.position()));
+        buffer.flip();
+        Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // без этого после отключения питания может остаться старый снапшот рядом с уже обнуленным журналом
+        syncDirectory(dir);
+    }
+
+    // переименование переживет падение, только если сброшен и каталог.
+    // В Windows каталог нельзя открыть как файл - там это делает сама файловая система
+    private static void syncDirectory(Path dir) throws IOException {
+        if (System.getProperty("os.name").startsWith("Windows")) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static int crc(byte[] bytes, int from, int to) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, from, to - from);
+        return (int) crc.getValue();
+    }
+
+    private record Hold(int currency, long before, long after) {
+    }
+}
@@ -2,7 +2,9 @@ package exercise.yandex.dev.tasks.atm;
 
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 public enum Denomination {
     RUB_50(Currency.RUB, 50),
@@ -12,9 +14,22 @@ public enum Denomination {
     RUB_5000(Currency.RUB, 5000),
 
     EUR_20(Currency.EUR, 20),
+    EUR_50(Currency.EUR, 50),
     EUR_100(Currency.EUR, 100),
     EUR_500(Currency.EUR, 500);
 
+    // номиналы каждой валюты по убыванию - считаются один раз при загрузке enum
+    private static final Map<Currency, List<Denomination>> BY_CURRENCY = new EnumMap<>(Currency.class);
+
+    static {
+        for (Currency currency : Currency.values()) {
+            BY_CURRENCY.put(currency, Arrays.stream(values())
+                    .filter(d -> d.currency == currency)
+                    .sorted(Comparator.comparingInt(Denomination::getAmount).reversed())
+                    .toList());
+        }
+    }
+
     private final Currency currency;
     private final Integer amount;
 
@@ -31,10 +46,10 @@ public enum Denomination {
         return amount;
     }
 
+    /**
+     * Номиналы валюты по убыванию. Неизменяемый общий список, без вычислений на вызов.
+     */
     public static List<Denomination> getForCurrency(Currency currency) {
-        return Arrays.stream(values())
-                .filter(d -> d.currency == currency)
-                .sorted(Comparator.comparingInt(Denomination::getAmount).reversed())
-                .toList();
+        return BY_CURRENCY.getOrDefault(currency, List.of());
     }
 }
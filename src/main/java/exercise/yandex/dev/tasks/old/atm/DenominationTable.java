@@ -0,0 +1,51 @@
+package exercise.yandex.dev.tasks.atm;
+
+/**
+ * Номиналы каждой валюты, посчитанные один раз: по убыванию, массивом.
+ * Индекс в этих массивах - "слот" номинала внутри валюты, по нему же лежат количества купюр;
+ * обратная таблица ordinal номинала -> слот тоже готова заранее.
+ */
+public final class DenominationTable {
+    private static final Denomination[][] DENOMINATIONS = new Denomination[Currency.values().length][];
+    private static final int[][] VALUES = new int[Currency.values().length][];
+    private static final int[] SLOTS = new int[Denomination.values().length];
+
+    static {
+        for (Currency currency : Currency.values()) {
+            Denomination[] sorted = Denomination.getForCurrency(currency).toArray(new Denomination[0]);
+            int[] values = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                values[i] = sorted[i].getAmount();
+            }
+            DENOMINATIONS[currency.ordinal()] = sorted;
+            VALUES[currency.ordinal()] = values;
+            for (int i = 0; i < sorted.length; i++) {
+                SLOTS[sorted[i].ordinal()] = i;
+            }
+        }
+    }
+
+    private DenominationTable() {
+    }
+
+    /**
+     * Номиналы валюты по убыванию. Общий массив - не изменять.
+     */
+    public static Denomination[] denominations(Currency currency) {
+        return DENOMINATIONS[currency.ordinal()];
+    }
+
+    /**
+     * Достоинства номиналов валюты по убыванию, в том же порядке. Общий массив - не изменять.
+     */
+    public static int[] values(Currency currency) {
+        return VALUES[currency.ordinal()];
+    }
+
+    /**
+     * Слот номинала внутри его валюты: индекс в {@link #denominations} и в массивах количеств.
+     */
+    public static int slot(Denomination denomination) {
+        return SLOTS[denomination.ordinal()];
+    }
+}
@@ -0,0 +1,223 @@
+package exercise.yandex.dev.tasks.atm;
+
+import java.util.Arrays;
+
+/**
+ * Подбор купюр для выдачи суммы.
+ * <p>
+ * Жадный подбор (крупные номиналы первыми) быстрый, но ошибается, когда номиналы не кратны друг другу:
+ * 60 EUR купюрами 50 и 20 жадно не собрать (50 + ?), а 20 + 20 + 20 можно.
+ * Поэтому сначала жадный, и только если он не справился - ограниченный рюкзак (DP) на минимум купюр
+ * с учетом количества каждого номинала.
+ * <p>
+ * DP: сумма в единицах НОД номиналов, количество купюр номинала разбивается на части 1, 2, 4, ...
+ * (двоичное разбиение) - получается рюкзак 0/1 из O(номиналов * log(купюр)) предметов.
+ * Для восстановления ответа - бит решения на (предмет, сумма). Буферы DP на поток, переиспользуются
+ * между вызовами: после прогрева подбор ничего не аллоцирует.
+ * <p>
+ * {@link #preserving} - тот же DP с ценой купюры вместо количества: купюры мелких номиналов из резерва
+ * дороже, чтобы мелочь оставалась для сумм, которые без нее не собрать.
+ * <p>
+ * Массивы: values - номиналы по убыванию, counts - сколько купюр в кассете, out - сколько выдать
+ * (заполняется целиком, при неудаче - нулями).
+ */
+public final class DispenseEngine {
+    // больше - DP занял бы десятки мегабайт; такую сумму банкомат все равно не выдает одной операцией
+    private static final int MAX_CELLS = 1 << 22;
+    private static final int INF = Integer.MAX_VALUE;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private DispenseEngine() {
+    }
+
+    /**
+     * Жадный подбор, затем DP.
+     *
+     * @return true, если сумму можно выдать; тогда out - количество купюр каждого номинала
+     */
+    public static boolean dispense(int[] values, int[] counts, long amount, int[] out) {
+        return greedy(values, counts, amount, out) || optimal(values, counts, amount, out);
+    }
+
+    public static boolean greedy(int[] values, int[] counts, long amount, int[] out) {
+        long rest = amount;
+        for (int i = 0; i < values.length; i++) {
+            int take = (int) Math.min(rest / values[i], counts[i]);
+            out[i] = take;
+            rest -= (long) take * values[i];
+        }
+        if (rest != 0) {
+            Arrays.fill(out, 0, values.length, 0);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Минимальное число купюр (ограниченный рюкзак).
+     */
+    public static boolean optimal(int[] values, int[] counts, long amount, int[] out) {
+        return cheapest(values, counts, amount, out, 0, 0, 0);
+    }
+
+    /**
+     * Подбор с сохранением мелочи. У smallest самых мелких номиналов последние reserve купюр - резерв:
+     * купюра из резерва стоит 1 + penalty, любая другая - 1. Выбирается набор минимальной стоимости, то есть
+     * минимум купюр, пока резервы не затронуты; в резерв подбор лезет, только если без него никак
+     * или обход обходится дороже penalty лишних купюр. Между мелкими номиналами расходуется тот,
+     * которого больше сверх резерва (600 = 500 + 50 + 50, когда сотни на исходе).
+     * <p>
+     * Быстрый путь: жадный подбор, не тронувший резервов, принимается без DP - для RUB он и так минимален
+     * по числу купюр.
+     */
+    public static boolean preserving(int[] values, int[] counts, long amount, int[] out,
+                                     int smallest, int reserve, int penalty) {
+        if (greedy(values, counts, amount, out)) {
+            boolean reserveTouched = false;
+            for (int i = Math.max(0, values.length - smallest); i < values.length; i++) {
+                reserveTouched |= out[i] > 0 && counts[i] - out[i] < reserve;
+            }
+            if (!reserveTouched) {
+                return true;
+            }
+        }
+        return cheapest(values, counts, amount, out, smallest, reserve, penalty);
+    }
+
+    /**
+     * Ограниченный рюкзак на минимум стоимости. Купюры номинала делятся на два яруса: сверх резерва
+     * (цена 1) и резерв (цена 1 + penalty), каждый ярус - двоичным разбиением. При одинаковом весе
+     * дешевый ярус всегда выгоднее, так что резерв расходуется только после остальных купюр номинала.
+     */
+    private static boolean cheapest(int[] values, int[] counts, long amount, int[] out,
+                                    int smallest, int reserve, int penalty) {
+        Arrays.fill(out, 0, values.length, 0);
+        if (amount <= 0) {
+            return amount == 0;
+        }
+        int unit = 0;
+        long available = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (counts[i] > 0 && values[i] <= amount) {
+                unit = gcd(unit, values[i]);
+                available += (long) counts[i] * values[i];
+            }
+        }
+        // столько купюр не хватит ни при каком подборе - не заводим DP на amount / unit клеток
+        if (unit == 0 || available < amount || amount % unit != 0 || amount / unit >= MAX_CELLS) {
+            return false;
+        }
+        int target = (int) (amount / unit);
+
+        Scratch scratch = SCRATCH.get();
+        int items = scratch.split(values, counts, target, unit, values.length - smallest, reserve, penalty);
+        int[] best = scratch.best(target + 1);
+        long[] decisions = scratch.decisions(items, target + 1);
+        int rowWords = (target + 1 + 63) >>> 6;
+
+        Arrays.fill(best, 0, target + 1, INF);
+        best[0] = 0;
+        for (int k = 0; k < items; k++) {
+            int weight = scratch.weights[k];
+            int cost = scratch.costs[k];
+            long row = (long) k * rowWords;
+            for (int w = target; w >= weight; w--) {
+                int from = best[w - weight];
+                if (from != INF && from + cost < best[w]) {
+                    best[w] = from + cost;
+                    decisions[(int) (row + (w >>> 6))] |= 1L << w;
+                }
+            }
+        }
+        if (best[target] == INF) {
+            return false;
+        }
+        int w = target;
+        for (int k = items - 1; k >= 0 && w > 0; k--) {
+            if ((decisions[(int) ((long) k * rowWords + (w >>> 6))] & 1L << w) != 0) {
+                out[scratch.slots[k]] += scratch.notes[k];
+                w -= scratch.weights[k];
+            }
+        }
+        return true;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Буферы одного потока. Растут до максимума встреченной задачи и больше не аллоцируются.
+     */
+    private static final class Scratch {
+        int[] weights = new int[64];
+        int[] notes = new int[64];
+        int[] costs = new int[64];
+        int[] slots = new int[64];
+        int[] best = new int[1024];
+        long[] decisions = new long[1024];
+
+        // номиналы с индекса firstReserved держат reserve купюр в резерве по цене 1 + penalty
+        int split(int[] values, int[] counts, int target, int unit, int firstReserved, int reserve, int penalty) {
+            int items = 0;
+            for (int i = 0; i < values.length; i++) {
+                // unit - НОД только номиналов не больше суммы: номинал крупнее суммы может быть ему не кратен,
+                // и values[i] / unit округлил бы вес вниз - DP "выдал" бы купюру дешевле ее номинала
+                if (counts[i] <= 0 || values[i] % unit != 0 || values[i] / unit > target) {
+                    continue;
+                }
+                int weight = values[i] / unit;
+                int usable = Math.min(counts[i], target / weight);
+                int reserved = i >= firstReserved ? Math.min(reserve, counts[i]) : 0;
+                int free = Math.min(counts[i] - reserved, usable);
+                items = split(items, i, weight, free, 1);
+                items = split(items, i, weight, Math.min(reserved, usable - free), 1 + penalty);
+            }
+            return items;
+        }
+
+        // двоичное разбиение количества купюр: c = 1 + 2 + 4 + ... + остаток
+        private int split(int items, int slot, int weight, int count, int cost) {
+            int left = count;
+            for (int part = 1; left > 0; part <<= 1) {
+                int take = Math.min(part, left);
+                if (items == weights.length) {
+                    weights = Arrays.copyOf(weights, items * 2);
+                    notes = Arrays.copyOf(notes, items * 2);
+                    costs = Arrays.copyOf(costs, items * 2);
+                    slots = Arrays.copyOf(slots, items * 2);
+                }
+                weights[items] = take * weight;
+                notes[items] = take;
+                costs[items] = take * cost;
+                slots[items] = slot;
+                items++;
+                left -= take;
+            }
+            return items;
+        }
+
+        int[] best(int size) {
+            if (best.length < size) {
+                best = new int[size];
+            }
+            return best;
+        }
+
+        long[] decisions(int items, int size) {
+            int words = items * ((size + 63) >>> 6);
+            if (decisions.length < words) {
+                decisions = new long[words];
+            } else {
+                Arrays.fill(decisions, 0, words, 0);
+            }
+            return decisions;
+        }
+    }
+}
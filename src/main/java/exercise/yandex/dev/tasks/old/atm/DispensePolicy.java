@@ -0,0 +1,32 @@
+package exercise.yandex.dev.tasks.atm;
+
+/**
+ * Как подобрать купюры на сумму из того, что есть в кассетах.
+ * Массивы - как в {@link DispenseEngine}: номиналы по убыванию, количества, результат в out.
+ */
+@FunctionalInterface
+public interface DispensePolicy {
+    DispensePolicy GREEDY = DispenseEngine::greedy;
+    DispensePolicy GREEDY_THEN_DP = DispenseEngine::dispense;
+    /**
+     * Минимум купюр, но по 100 последних купюр двух самых мелких номиналов - резерв, купюра из него стоит как 4.
+     */
+    DispensePolicy PRESERVE_SMALL = preservingSmall(2, 100, 3);
+
+    boolean choose(int[] values, int[] counts, long amount, int[] out);
+
+    /**
+     * Подбор с резервом мелочи ({@link DispenseEngine#preserving}).
+     *
+     * @param smallest сколько самых мелких номиналов держат резерв
+     * @param reserve  размер резерва в купюрах на номинал
+     * @param penalty  на сколько купюр дороже купюра из резерва
+     */
+    static DispensePolicy preservingSmall(int smallest, int reserve, int penalty) {
+        if (smallest < 0 || reserve < 0 || penalty < 0) {
+            throw new IllegalArgumentException("smallest, reserve and penalty must be non-negative");
+        }
+        return (values, counts, amount, out) ->
+                DispenseEngine.preserving(values, counts, amount, out, smallest, reserve, penalty);
+    }
+}
@@ -0,0 +1,84 @@
+package exercise.yandex.dev.tasks.atm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Хешированное колесо таймеров: истечение резервов без очереди с приоритетом и без потока на каждый таймер.
+ * Копия колеса из задачи transaction - задачи пакетами друг от друга не зависят.
+ * <p>
+ * Время делится на тики, тик попадает в слот {@code tick % slots}. Постановка - O(1) (добавление в список слота),
+ * продвижение - O(1) на тик плюс сами истекшие. Таймер дальше одного оборота колеса лежит в том же слоте
+ * и пропускается, пока его срок не наступит. Отмены нет: владелец при срабатывании сам проверяет,
+ * актуален ли таймер (резерв уже выдан - ничего не делаем).
+ * <p>
+ * Потокобезопасно: все операции под монитором колеса, они короткие.
+ */
+final class TimerWheel<T> {
+    private final List<Timer<T>>[] slots;
+    private final long tickMillis;
+    private long currentTick;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(int slots, long tickMillis, long nowMillis) {
+        if (Integer.bitCount(slots) != 1 || tickMillis <= 0) {
+            throw new IllegalArgumentException("slots must be a power of two, tick must be positive");
+        }
+        // списки слотов создаются при первой постановке: тысячи колес (по одному на банкомат) почти пустые
+        this.slots = (List<Timer<T>>[]) new List<?>[slots];
+        this.tickMillis = tickMillis;
+        this.currentTick = Math.floorDiv(nowMillis, tickMillis);
+    }
+
+    synchronized void schedule(T item, long deadlineMillis) {
+        // первый тик, к началу которого срок уже наступил; прошедший срок - на ближайшем продвижении
+        long tick = Math.max(Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis), currentTick + 1);
+        int slot = slot(tick);
+        if (slots[slot] == null) {
+            slots[slot] = new ArrayList<>();
+        }
+        slots[slot].add(new Timer<>(item, tick));
+    }
+
+    /**
+     * Продвинуть колесо до nowMillis и отдать истекшие таймеры. expired вызывается после выхода из монитора колеса.
+     */
+    void advance(long nowMillis, Consumer<T> expired) {
+        List<T> due = null;
+        synchronized (this) {
+            long targetTick = Math.floorDiv(nowMillis, tickMillis);
+            // за один вызов больше одного оборота смотреть незачем - каждый слот уже просмотрен
+            long from = Math.max(currentTick + 1, targetTick - slots.length + 1);
+            for (long tick = from; tick <= targetTick; tick++) {
+                List<Timer<T>> slot = slots[slot(tick)];
+                if (slot == null) {
+                    continue;
+                }
+                for (int i = slot.size() - 1; i >= 0; i--) {
+                    Timer<T> timer = slot.get(i);
+                    if (timer.tick <= targetTick) {
+                        if (due == null) {
+                            due = new ArrayList<>();
+                        }
+                        due.add(timer.item);
+                        // порядок внутри слота не важен - удаление заменой последним
+                        slot.set(i, slot.get(slot.size() - 1));
+                        slot.remove(slot.size() - 1);
+                    }
+                }
+            }
+            currentTick = Math.max(currentTick, targetTick);
+        }
+        if (due != null) {
+            due.forEach(expired);
+        }
+    }
+
+    private int slot(long tick) {
+        return (int) (tick & (slots.length - 1));
+    }
+
+    private record Timer<T>(T item, long tick) {
+    }
+}
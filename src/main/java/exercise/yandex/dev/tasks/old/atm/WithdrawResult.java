@@ -5,13 +5,25 @@ import java.util.Map;
 public record WithdrawResult(
         boolean result,
         Map<Denomination, Integer> banknotes,
-        String message
+        String message,
+        String holdId
 ) {
 
+    public WithdrawResult(boolean result, Map<Denomination, Integer> banknotes, String message) {
+        this(result, banknotes, message, null);
+    }
+
     static WithdrawResult succes(Map<Denomination, Integer> banknotes) {
         return new WithdrawResult(true, banknotes, null);
     }
 
+    /**
+     * Купюры отложены под резерв holdId, выдаются по {@code ATM.dispense(holdId)}.
+     */
+    static WithdrawResult held(String holdId, Map<Denomination, Integer> banknotes) {
+        return new WithdrawResult(true, banknotes, null, holdId);
+    }
+
     static WithdrawResult fail(String reason) {
         return new WithdrawResult(false, Map.of(), reason);
     }
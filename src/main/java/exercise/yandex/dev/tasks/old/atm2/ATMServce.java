@@ -1,10 +1,39 @@
 package exercise.yandex.dev.tasks.old.atm2;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class ATMServce {
     private final CashStorage cashStorage;
+    // подбор выдачи; выдачи сериализованы монитором сервиса
+    private final int[] take = new int[Denomination.values().length];
+
+    // номиналы каждой валюты по убыванию - один раз, а не фильтр и TreeMap на каждую выдачу
+    private static final Denomination[][] DENOMINATIONS = new Denomination[Currency.values().length][];
+    private static final int[][] VALUES = new int[Currency.values().length][];
+    // ordinal номинала -> индекс в массивах его валюты
+    private static final int[] SLOTS = new int[Denomination.values().length];
+
+    static {
+        for (Currency currency : Currency.values()) {
+            Denomination[] sorted = Arrays.stream(Denomination.values())
+                    .filter(d -> d.getCurrency() == currency)
+                    .sorted(Comparator.comparingInt(Denomination::getAmount).reversed())
+                    .toArray(Denomination[]::new);
+            DENOMINATIONS[currency.ordinal()] = sorted;
+            VALUES[currency.ordinal()] = Arrays.stream(sorted).mapToInt(Denomination::getAmount).toArray();
+            for (int i = 0; i < sorted.length; i++) {
+                SLOTS[sorted[i].ordinal()] = i;
+            }
+        }
+    }
+
+    static Denomination[] denominations(Currency currency) {
+        return DENOMINATIONS[currency.ordinal()];
+    }
+
+    static int slot(Denomination denomination) {
+        return SLOTS[denomination.ordinal()];
+    }
 
     public ATMServce(CashStorage cashStorage) {
         this.cashStorage = cashStorage;
@@ -14,34 +43,33 @@ public class ATMServce {
 
 
 
-    public WithdrawResult withdrawResult(int amount, Currency currency) {
+    /**
+     * Выдать сумму и списать купюры. Результат - остаток купюр валюты; кроме него ничего не аллоцируется.
+     */
+    public synchronized WithdrawResult withdrawResult(int amount, Currency currency) {
         if (amount <= 0) {
-            WithdrawResult.failure("Amount cant negative or 0");
+            return WithdrawResult.failure("Amount cant negative or 0");
         }
         if (currency == null) {
-            WithdrawResult.failure("Currency null");
+            return WithdrawResult.failure("Currency null");
         }
         //1) Check sum
         //2) Check can give
         //3)take
         //
-        var cash = cashStorage.getCash();
-
-        Map<Denomination, Integer> cashCurrency = cash.entrySet().stream().filter(e -> e.getKey().getCurrency() == currency)
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-        Map<Denomination, Integer> sortedCash = new TreeMap<Denomination,Integer>(Comparator.comparingInt(Denomination::getAmount).reversed());
-        sortedCash.putAll(cashCurrency);
-
-        Map<Denomination,Integer> resultMap = new HashMap<>();
+        Denomination[] denominations = DENOMINATIONS[currency.ordinal()];
+        int[] counts = cashStorage.counts(currency);
+        // жадно, а если не вышло - DP (например, 60 купюрами 50 и 20)
+        if (!Dispenser.dispense(VALUES[currency.ordinal()], counts, amount, take)) {
+            return WithdrawResult.failure("Cant take");
+        }
+        cashStorage.take(currency, take);
 
-        for(Map.Entry<Denomination, Integer> entry : sortedCash.entrySet()) {
-            int numDenom = amount / entry.getKey().getAmount();
-            int numHas = Math.min(numDenom, entry.getValue());
-            amount -= numHas * entry.getKey().getAmount();
-            resultMap.put(entry.getKey(),entry.getValue() - numHas);
+        Map<Denomination,Integer> resultMap = new EnumMap<>(Denomination.class);
+        for (int i = 0; i < denominations.length; i++) {
+            resultMap.put(denominations[i], counts[i]);
         }
-        if (amount == 0) return WithdrawResult.success(resultMap);
-        return WithdrawResult.failure("Cant take");
+        return WithdrawResult.success(resultMap);
     }
 
 //    private WithdrawResult take(Map<Denomination, Integer> cash, Currency currency, int amount) {
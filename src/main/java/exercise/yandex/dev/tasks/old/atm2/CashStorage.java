@@ -1,22 +1,54 @@
 package exercise.yandex.dev.tasks.old.atm2;
 
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Купюры по валютам: на валюту - int[] количеств, индекс - слот номинала ({@link ATMServce#slot}).
+ * Без упаковки в Integer и без карт на каждую выдачу.
+ */
 public class CashStorage {
+    private final Map<Currency, int[]> counts = new EnumMap<>(Currency.class);
 
-    Map<Denomination, Integer> getCash() {
-        Map<Denomination, Integer> bank = new HashMap<>();
+    public CashStorage() {
+        for (Currency currency : Currency.values()) {
+            counts.put(currency, new int[ATMServce.denominations(currency).length]);
+        }
+        for (Denomination denomination : Denomination.values()) {
+            counts.get(denomination.getCurrency())[ATMServce.slot(denomination)] = 10;
+        }
+    }
+
+    /**
+     * Количества купюр валюты по слотам - живой массив только для чтения (без копии на каждую выдачу),
+     * списание - через {@link #take}.
+     */
+    int[] counts(Currency currency) {
+        return counts.get(currency);
+    }
 
-        bank.put(Denomination.RUB_50, 10);
-        bank.put(Denomination.RUB_100, 10);
-        bank.put(Denomination.RUB_500, 10);
-        bank.put(Denomination.RUB_1000, 10);
-        bank.put(Denomination.RUB_5000, 10);
+    /**
+     * Списать купюры: notes[i] - сколько купюр слота i.
+     */
+    void take(Currency currency, int[] notes) {
+        int[] currencyCounts = counts.get(currency);
+        for (int i = 0; i < currencyCounts.length; i++) {
+            if (notes[i] > currencyCounts[i]) {
+                throw new IllegalArgumentException("Only " + currencyCounts[i] + " notes of "
+                        + ATMServce.denominations(currency)[i] + ", cannot take " + notes[i]);
+            }
+        }
+        for (int i = 0; i < currencyCounts.length; i++) {
+            currencyCounts[i] -= notes[i];
+        }
+    }
 
-        bank.put(Denomination.EURO_20, 10);
-        bank.put(Denomination.EURO_100, 10);
-        bank.put(Denomination.EURO_500, 10);
+    Map<Denomination, Integer> getCash() {
+        Map<Denomination, Integer> bank = new HashMap<>();
+        for (Denomination denomination : Denomination.values()) {
+            bank.put(denomination, counts.get(denomination.getCurrency())[ATMServce.slot(denomination)]);
+        }
         return bank;
     }
 }
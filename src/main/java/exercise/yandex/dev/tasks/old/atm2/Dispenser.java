@@ -0,0 +1,115 @@
+package exercise.yandex.dev.tasks.old.atm2;
+
+import java.util.Arrays;
+
+/**
+ * Подбор купюр: жадно (крупные первыми), а если не вышло - DP на минимум купюр.
+ * Жадный ошибается на некратных номиналах: 60 EUR купюрами 50 и 20 жадно не собрать, а 20 + 20 + 20 можно.
+ * <p>
+ * DP - ограниченный рюкзак в единицах НОД номиналов, количество купюр разбивается на части 1, 2, 4, ...
+ * Это редкий путь, буферы на вызов. values - номиналы по убыванию, counts - купюры в кассетах,
+ * out - сколько выдать (при неудаче - нули).
+ */
+final class Dispenser {
+    // больше - DP занял бы десятки мегабайт; такую сумму банкомат все равно не выдает одной операцией
+    private static final int MAX_CELLS = 1 << 22;
+    private static final int INF = Integer.MAX_VALUE;
+
+    private Dispenser() {
+    }
+
+    static boolean dispense(int[] values, int[] counts, int amount, int[] out) {
+        return greedy(values, counts, amount, out) || optimal(values, counts, amount, out);
+    }
+
+    private static boolean greedy(int[] values, int[] counts, int amount, int[] out) {
+        int rest = amount;
+        for (int i = 0; i < values.length; i++) {
+            int take = Math.min(rest / values[i], counts[i]);
+            out[i] = take;
+            rest -= take * values[i];
+        }
+        if (rest != 0) {
+            Arrays.fill(out, 0, values.length, 0);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean optimal(int[] values, int[] counts, int amount, int[] out) {
+        Arrays.fill(out, 0, values.length, 0);
+        long available = 0;
+        int unit = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (counts[i] > 0 && values[i] <= amount) {
+                available += (long) counts[i] * values[i];
+                unit = gcd(unit, values[i]);
+            }
+        }
+        // столько не набрать никаким подбором - DP не нужен
+        if (unit == 0 || available < amount || amount % unit != 0 || amount / unit >= MAX_CELLS) {
+            return false;
+        }
+        int target = amount / unit;
+
+        int[] weights = new int[64];
+        int[] notes = new int[64];
+        int[] slots = new int[64];
+        int items = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (counts[i] <= 0 || values[i] > amount || values[i] % unit != 0) {
+                continue;
+            }
+            int weight = values[i] / unit;
+            int left = Math.min(counts[i], target / weight);
+            for (int part = 1; left > 0; part <<= 1) {
+                int take = Math.min(part, left);
+                if (items == weights.length) {
+                    weights = Arrays.copyOf(weights, items * 2);
+                    notes = Arrays.copyOf(notes, items * 2);
+                    slots = Arrays.copyOf(slots, items * 2);
+                }
+                weights[items] = take * weight;
+                notes[items] = take;
+                slots[items] = i;
+                items++;
+                left -= take;
+            }
+        }
+
+        int[] best = new int[target + 1];
+        int rowWords = (target + 1 + 63) >>> 6;
+        long[] decisions = new long[items * rowWords];
+        Arrays.fill(best, INF);
+        best[0] = 0;
+        for (int k = 0; k < items; k++) {
+            for (int w = target; w >= weights[k]; w--) {
+                int from = best[w - weights[k]];
+                if (from != INF && from + notes[k] < best[w]) {
+                    best[w] = from + notes[k];
+                    decisions[k * rowWords + (w >>> 6)] |= 1L << w;
+                }
+            }
+        }
+        if (best[target] == INF) {
+            return false;
+        }
+        int w = target;
+        for (int k = items - 1; k >= 0 && w > 0; k--) {
+            if ((decisions[k * rowWords + (w >>> 6)] & 1L << w) != 0) {
+                out[slots[k]] += notes[k];
+                w -= weights[k];
+            }
+        }
+        return true;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,9 @@
+package exercise.yandex.dev.tasks.old.matchmaking;
+
+/**
+ * Получатель матчей, собранных фоновым подбором ({@link MatchMaker}). Вызывается из потока подбора.
+ */
+@FunctionalInterface
+interface MatchListener {
+    void onMatch(Match match);
+}
@@ -0,0 +1,129 @@
+package exercise.yandex.dev.tasks.old.matchmaking;
+
+import exercise.concurrency.LatencyHistogram;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Фоновый подбор: раз в тик собирает из очереди все матчи, какие можно, и отдает их слушателю.
+ * <p>
+ * Окно MMR у каждого игрока свое и растет со временем ожидания: {@link #BASE_WINDOW} сразу, плюс
+ * {@link #WINDOW_STEP} каждые {@link #WINDOW_STEP_MILLIS} мс. После {@link #GUARANTEED_AFTER_MILLIS} окно - весь
+ * диапазон MMR: матч будет, как только наберутся роли (качество вторично). Якоря тика - от дольше всех ждущих,
+ * в матч идут игроки в окне якоря, у которых и якорь в своем окне ({@link MatchQueue#matchAll}).
+ * <p>
+ * Метрики: время ожидания ушедших в матч игроков (мс) и mmrDifference матчей - гистограммы с перцентилями.
+ * <p>
+ * Ошибка слушателя или самого подбора не останавливает подбор (периодическая задача ScheduledExecutorService
+ * после исключения больше не запускается) - ошибка только считается, следующий тик идет по расписанию.
+ */
+final class MatchMaker implements AutoCloseable {
+    static final int BASE_WINDOW = 50;
+    static final int WINDOW_STEP = 25;
+    static final long WINDOW_STEP_MILLIS = 10_000;
+    static final long GUARANTEED_AFTER_MILLIS = 5 * 60_000;
+
+    private final MatchQueue queue;
+    private final MatchListener listener;
+    private final LatencyHistogram waitMillis = new LatencyHistogram();
+    private final LatencyHistogram mmrDifference = new LatencyHistogram();
+    private final LongAdder listenerFailures = new LongAdder();
+    private final LongAdder tickFailures = new LongAdder();
+    private ScheduledExecutorService scheduler;
+
+    MatchMaker(MatchQueue queue, MatchListener listener) {
+        this.queue = queue;
+        this.listener = listener;
+    }
+
+    static long mmrWindow(long waitedMillis) {
+        if (waitedMillis >= GUARANTEED_AFTER_MILLIS) {
+            return MatchQueue.MAX_MMR;
+        }
+        return BASE_WINDOW + Math.max(waitedMillis, 0) / WINDOW_STEP_MILLIS * WINDOW_STEP;
+    }
+
+    /**
+     * Один проход подбора.
+     *
+     * @return сколько матчей собрано
+     */
+    int tick() {
+        List<Match> matches;
+        try {
+            matches = queue.matchAll(MatchMaker::mmrWindow, waitMillis::record);
+        } catch (RuntimeException e) {
+            tickFailures.increment();
+            return 0;
+        }
+        for (Match match : matches) {
+            mmrDifference.record(match.mmrDifference());
+            try {
+                listener.onMatch(match);
+            } catch (RuntimeException e) {
+                listenerFailures.increment();
+            }
+        }
+        return matches.size();
+    }
+
+    /**
+     * Запустить подбор в отдельном потоке: tick раз в tickMillis мс, следующий - после окончания предыдущего.
+     */
+    synchronized void start(long tickMillis) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Match maker already started");
+        }
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis should be positive");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "match-maker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ожидание в очереди игроков, попавших в матч, мс.
+     */
+    LatencyHistogram waitMillis() {
+        return waitMillis;
+    }
+
+    /**
+     * Разница среднего MMR команд собранных матчей.
+     */
+    LatencyHistogram mmrDifference() {
+        return mmrDifference;
+    }
+
+    long listenerFailures() {
+        return listenerFailures.sum();
+    }
+
+    /**
+     * Тики, упавшие при подборе (а не в слушателе).
+     */
+    long tickFailures() {
+        return tickFailures.sum();
+    }
+}
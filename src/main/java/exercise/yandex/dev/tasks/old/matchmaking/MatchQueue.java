@@ -0,0 +1,383 @@
+package exercise.yandex.dev.tasks.old.matchmaking;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Очередь подбора, разложенная по корзинам MMR.
+ * <p>
+ * Корзина - диапазон MMR шириной {@link #BUCKET_WIDTH}, в ней у каждой роли два списка: игроки с этой ролью
+ * основной и с этой ролью запасной. Плюс общий список в порядке постановки (кто дольше ждет) и индекс id -> узел.
+ * Списки интрузивные (ссылки лежат в узле игрока): постановка и отмена - O(1), без сортировок и копий очереди.
+ * <p>
+ * Подбор матча вокруг игрока-якоря: в окне MMR якоря корзины просматриваются от ближней к дальней -
+ * сначала на каждую роль по два игрока с ней основной, потом с запасной, недостающее - autofill (не больше
+ * одного на команду). Смотрятся только корзины окна и головы их списков, а не вся очередь.
+ * Затем 10 игроков делятся на команды перебором 32 вариантов (кто из пары каждой роли в какой команде):
+ * минимальная разница среднего MMR.
+ * <p>
+ * Потокобезопасна: операции под монитором очереди, {@link #matchAll} берет его на каждую попытку, а не на весь
+ * проход. Время постановки - по clock (мс), от него окна в {@link #matchAll}.
+ */
+final class MatchQueue {
+    static final int TEAM_SIZE = 5;
+    static final int MATCH_SIZE = TEAM_SIZE * 2;
+    static final int BUCKET_WIDTH = 25;
+    static final int MAX_MMR = 3000;
+    private static final int BUCKETS = MAX_MMR / BUCKET_WIDTH + 1;
+    private static final Role[] ROLES = Role.values();
+
+    // виды списков: порядок ожидания, основная роль, запасная роль
+    private static final int WAIT = 0;
+    private static final int PRIMARY = 1;
+    private static final int SECONDARY = 2;
+    private static final LongConsumer NO_WAITS = enqueuedAt -> {
+    };
+    private static final LongUnaryOperator ANY_MMR = waitedMillis -> MAX_MMR;
+
+    private final LongSupplier clock;
+    private final Bucket[] buckets = new Bucket[BUCKETS];
+    private final Map<String, Node> byId = new HashMap<>();
+    private final Links waiting = new Links(WAIT);
+    // подобранные в текущей попытке, в порядке подбора
+    private final Node[] picked = new Node[MATCH_SIZE];
+    private final AssignmentType[] pickedAs = new AssignmentType[MATCH_SIZE];
+    private final Role[] pickedFor = new Role[MATCH_SIZE];
+    private int pickedCount;
+    // окно кандидата по его ожиданию на момент попытки: кандидат тоже должен принять якоря
+    private LongUnaryOperator candidateWindow = ANY_MMR;
+    private long attemptAt;
+
+    MatchQueue() {
+        this(System::currentTimeMillis);
+    }
+
+    MatchQueue(LongSupplier clock) {
+        this.clock = clock;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    synchronized void enqueue(Player player) {
+        if (byId.containsKey(player.id())) {
+            throw new MatchMakingException("Player " + player.id() + " already in queue");
+        }
+        Node node = new Node(player, clock.getAsLong());
+        byId.put(player.id(), node);
+        Bucket bucket = buckets[bucket(player.mmr())];
+        waiting.add(node);
+        bucket.primary[player.primaryRole().ordinal()].add(node);
+        bucket.secondary[player.secondRole().ordinal()].add(node);
+    }
+
+    /**
+     * @return false, если игрока в очереди нет
+     */
+    synchronized boolean cancel(String playerId) {
+        Node node = byId.get(playerId);
+        if (node == null) {
+            return false;
+        }
+        remove(node);
+        return true;
+    }
+
+    synchronized int size() {
+        return byId.size();
+    }
+
+    /**
+     * Матч вокруг игрока, который ждет дольше всех.
+     */
+    synchronized Optional<Match> tryCreateMatch(int mmrWindow) {
+        return waiting.head == null ? Optional.empty() : tryCreateMatch(waiting.head, mmrWindow, NO_WAITS);
+    }
+
+    /**
+     * Матч вокруг игрока playerId: все участники в пределах mmrWindow от его MMR. Игроки матча уходят из очереди.
+     */
+    synchronized Optional<Match> tryCreateMatch(String playerId, int mmrWindow) {
+        Node anchor = byId.get(playerId);
+        return anchor == null ? Optional.empty() : tryCreateMatch(anchor, mmrWindow, NO_WAITS);
+    }
+
+    /**
+     * Все матчи, которые можно собрать сейчас. Якорем по очереди становится каждый ждущий, от дольше всех
+     * ждущего. Окно игрока - mmrWindow от его времени ожидания в мс; в матч идут только те, кто в окне якоря
+     * и у кого якорь в своем окне. Ожидание каждого ушедшего в матч игрока - в waits.
+     * <p>
+     * Монитор берется на одну попытку: постановка и отмена не ждут весь проход.
+     */
+    List<Match> matchAll(LongUnaryOperator mmrWindow, LongConsumer waits) {
+        List<Match> matches = new ArrayList<>();
+        long now = clock.getAsLong();
+        LongConsumer matched = enqueuedAt -> waits.accept(now - enqueuedAt);
+        Node anchor;
+        synchronized (this) {
+            anchor = waiting.head;
+        }
+        while (anchor != null) {
+            synchronized (this) {
+                if (byId.size() < MATCH_SIZE) {
+                    break;
+                }
+                // якорь могли отменить между попытками
+                if (!anchor.removed) {
+                    candidateWindow = mmrWindow;
+                    attemptAt = now;
+                    try {
+                        tryCreateMatch(anchor, window(anchor, mmrWindow, now), matched).ifPresent(matches::add);
+                    } finally {
+                        candidateWindow = ANY_MMR;
+                    }
+                }
+                // ссылки удаленного узла не обнуляются: по ним доходим до следующего оставшегося в очереди
+                Node next = anchor.next[WAIT];
+                while (next != null && next.removed) {
+                    next = next.next[WAIT];
+                }
+                anchor = next;
+            }
+        }
+        return matches;
+    }
+
+    private static int window(Node node, LongUnaryOperator mmrWindow, long now) {
+        return (int) Math.min(mmrWindow.applyAsLong(now - node.enqueuedAt), MAX_MMR);
+    }
+
+    // matched получает время постановки каждого ушедшего в матч игрока
+    private Optional<Match> tryCreateMatch(Node anchor, int mmrWindow, LongConsumer matched) {
+        if (byId.size() < MATCH_SIZE) {
+            return Optional.empty();
+        }
+        pickedCount = 0;
+        pick(anchor, anchor.player.primaryRole(), AssignmentType.PRIMARY);
+        int mmr = anchor.player.mmr();
+        for (Role role : ROLES) {
+            fill(role, PRIMARY, AssignmentType.PRIMARY, mmr, mmrWindow);
+        }
+        for (Role role : ROLES) {
+            fill(role, SECONDARY, AssignmentType.SECONDARY, mmr, mmrWindow);
+        }
+        for (Role role : ROLES) {
+            fill(role, -1, AssignmentType.AUTOFILL, mmr, mmrWindow);
+        }
+        Optional<Match> match = pickedCount == MATCH_SIZE ? split() : Optional.empty();
+        for (int i = 0; i < pickedCount; i++) {
+            Node node = picked[i];
+            node.picked = false;
+            if (match.isPresent()) {
+                remove(node);
+                matched.accept(node.enqueuedAt);
+            }
+            picked[i] = null;
+        }
+        pickedCount = 0;
+        return match;
+    }
+
+    // добрать роль до двух игроков из списков вида kind (-1 - любые, autofill) от ближних корзин к дальним
+    private void fill(Role role, int kind, AssignmentType type, int mmr, int mmrWindow) {
+        int center = bucket(mmr);
+        int reach = mmrWindow / BUCKET_WIDTH + 1;
+        for (int distance = 0; distance <= reach && assigned(role) < 2; distance++) {
+            if (type == AssignmentType.AUTOFILL && autofills() == 2) {
+                return;
+            }
+            fillFrom(center - distance, role, kind, type, mmr, mmrWindow);
+            if (distance > 0) {
+                fillFrom(center + distance, role, kind, type, mmr, mmrWindow);
+            }
+        }
+    }
+
+    private void fillFrom(int bucket, Role role, int kind, AssignmentType type, int mmr, int mmrWindow) {
+        if (bucket < 0 || bucket >= BUCKETS) {
+            return;
+        }
+        if (kind >= 0) {
+            Links links = kind == PRIMARY ? buckets[bucket].primary[role.ordinal()] : buckets[bucket].secondary[role.ordinal()];
+            pickFrom(links, role, type, mmr, mmrWindow);
+            return;
+        }
+        for (Role any : ROLES) {
+            pickFrom(buckets[bucket].primary[any.ordinal()], role, type, mmr, mmrWindow);
+        }
+    }
+
+    private void pickFrom(Links links, Role role, AssignmentType type, int mmr, int mmrWindow) {
+        for (Node node = links.head; node != null && assigned(role) < 2; node = node.next[links.kind]) {
+            if (type == AssignmentType.AUTOFILL && autofills() == 2) {
+                return;
+            }
+            int distance = Math.abs(node.player.mmr() - mmr);
+            if (!node.picked && distance <= mmrWindow && distance <= window(node, candidateWindow, attemptAt)) {
+                pick(node, role, type);
+            }
+        }
+    }
+
+    private void pick(Node node, Role role, AssignmentType type) {
+        node.picked = true;
+        picked[pickedCount] = node;
+        pickedFor[pickedCount] = role;
+        pickedAs[pickedCount] = type;
+        pickedCount++;
+    }
+
+    private int assigned(Role role) {
+        int count = 0;
+        for (int i = 0; i < pickedCount; i++) {
+            if (pickedFor[i] == role) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int autofills() {
+        int count = 0;
+        for (int i = 0; i < pickedCount; i++) {
+            if (pickedAs[i] == AssignmentType.AUTOFILL) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // по паре на роль; бит роли в mask - какой из пары идет в первую команду
+    private Optional<Match> split() {
+        int[][] pair = new int[ROLES.length][2];
+        int[] filled = new int[ROLES.length];
+        for (int i = 0; i < MATCH_SIZE; i++) {
+            int role = pickedFor[i].ordinal();
+            pair[role][filled[role]++] = i;
+        }
+        int bestMask = -1;
+        long bestDiff = Long.MAX_VALUE;
+        for (int mask = 0; mask < 1 << ROLES.length; mask++) {
+            long diff = 0;
+            int autofill1 = 0;
+            int autofill2 = 0;
+            for (int role = 0; role < ROLES.length; role++) {
+                int first = pair[role][(mask >>> role) & 1];
+                int second = pair[role][1 - ((mask >>> role) & 1)];
+                diff += effectiveMmr(first) - effectiveMmr(second);
+                autofill1 += pickedAs[first] == AssignmentType.AUTOFILL ? 1 : 0;
+                autofill2 += pickedAs[second] == AssignmentType.AUTOFILL ? 1 : 0;
+            }
+            if (autofill1 <= 1 && autofill2 <= 1 && Math.abs(diff) < bestDiff) {
+                bestDiff = Math.abs(diff);
+                bestMask = mask;
+            }
+        }
+        if (bestMask < 0) {
+            return Optional.empty();
+        }
+        Map<Role, PlayerAssignment> team1 = new EnumMap<>(Role.class);
+        Map<Role, PlayerAssignment> team2 = new EnumMap<>(Role.class);
+        for (int role = 0; role < ROLES.length; role++) {
+            int first = pair[role][(bestMask >>> role) & 1];
+            int second = pair[role][1 - ((bestMask >>> role) & 1)];
+            team1.put(ROLES[role], assignment(first));
+            team2.put(ROLES[role], assignment(second));
+        }
+        return Optional.of(Match.of(new Team(team1), new Team(team2)));
+    }
+
+    private int effectiveMmr(int i) {
+        return assignment(i).getEffectiveMmr();
+    }
+
+    private PlayerAssignment assignment(int i) {
+        return new PlayerAssignment(picked[i].player, pickedFor[i], pickedAs[i]);
+    }
+
+    private void remove(Node node) {
+        Player player = node.player;
+        node.removed = true;
+        byId.remove(player.id());
+        Bucket bucket = buckets[bucket(player.mmr())];
+        waiting.remove(node);
+        bucket.primary[player.primaryRole().ordinal()].remove(node);
+        bucket.secondary[player.secondRole().ordinal()].remove(node);
+    }
+
+    private static int bucket(int mmr) {
+        return Math.min(Math.max(mmr / BUCKET_WIDTH, 0), BUCKETS - 1);
+    }
+
+    private static final class Bucket {
+        final Links[] primary = new Links[ROLES.length];
+        final Links[] secondary = new Links[ROLES.length];
+
+        Bucket() {
+            for (int i = 0; i < ROLES.length; i++) {
+                primary[i] = new Links(PRIMARY);
+                secondary[i] = new Links(SECONDARY);
+            }
+        }
+    }
+
+    /**
+     * Двусвязный список по ссылкам вида kind в узлах. Порядок - порядок постановки.
+     * Удаленный узел сохраняет свои ссылки: из него можно дойти до следующего (см. {@link #matchAll}).
+     */
+    private static final class Links {
+        final int kind;
+        Node head;
+        Node tail;
+
+        Links(int kind) {
+            this.kind = kind;
+        }
+
+        void add(Node node) {
+            node.prev[kind] = tail;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next[kind] = node;
+            }
+            tail = node;
+        }
+
+        void remove(Node node) {
+            Node prev = node.prev[kind];
+            Node next = node.next[kind];
+            if (prev == null) {
+                head = next;
+            } else {
+                prev.next[kind] = next;
+            }
+            if (next == null) {
+                tail = prev;
+            } else {
+                next.prev[kind] = prev;
+            }
+        }
+    }
+
+    private static final class Node {
+        final Player player;
+        final Node[] prev = new Node[3];
+        final Node[] next = new Node[3];
+        final long enqueuedAt;
+        boolean picked;
+        boolean removed;
+
+        Node(Player player, long enqueuedAt) {
+            this.player = player;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -4,8 +4,11 @@ public record CheckResult(
         boolean access,
         String message
 ) {
+    // один экземпляр на все успешные проверки - горячий путь без аллокаций
+    private static final CheckResult ACCESSED = new CheckResult(true, null);
+
     static CheckResult accessed() {
-        return new CheckResult(true, null);
+        return ACCESSED;
     }
     static CheckResult failure(String message) {
         return new CheckResult(false, message);
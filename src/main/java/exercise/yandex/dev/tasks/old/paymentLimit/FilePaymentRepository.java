@@ -0,0 +1,673 @@
+package exercise.yandex.dev.tasks.old.paymentLimit;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Репозиторий платежей на диске: append-only бинарный лог + снапшоты дневных агрегатов.
+ * <p>
+ * ЛОГ (payments.log): заголовок (magic, version), дальше записи
+ * - STRING:  type=1, int id, short len, utf8 - словарь userId / merchant, пишется при первом появлении строки
+ * - PAYMENT: type=2, int userId, int merchant (-1 - нет), long копейки, long epochMilli (UTC) - 25 байт
+ * Время хранится с точностью до миллисекунды.
+ * <p>
+ * СНАПШОТ (aggregates.snapshot): смещение в логе, словарь и суммы/количества по дням для каждого
+ * пользователя. Пишется каждые snapshotEvery платежей во временный файл, который сбрасывается на диск
+ * и атомарно подменяет старый; после переименования сбрасывается и каталог.
+ * <p>
+ * ДОЛГОВЕЧНОСТЬ: append() только буферизует запись (массовая загрузка); save() - append + fsync, платеж
+ * на диске к возврату из метода. sync(), snapshot() и close() тоже сбрасывают лог на диск.
+ * <p>
+ * СТАРТ: снапшот + дочитать хвост лога после его смещения, а не весь лог. Оборванная при падении
+ * последняя запись отрезается. Нечитаемый снапшот игнорируется - агрегаты собираются из всего лога.
+ * <p>
+ * getPayments() материализует весь лог в память - это для совместимости с {@link PaymentRepository}.
+ * <p>
+ * ЗАПРОСЫ ЗА ИНТЕРВАЛ: sumFor / countFor за целые дни (границы - полночь, так считает дневной лимит)
+ * и daySum / dayCount отвечают по агрегатам из снапшота и хвоста - без чтения лога.
+ * paymentsFor и интервалы не по границе дня идут через {@link PaymentHistoryIndex}. Он строится при первом
+ * таком запросе одним проходом по логу сразу для всех пользователей (а не проходом на каждого) и без монитора
+ * репозитория: запись и дневные суммы в это время не ждут. Дальше индекс обновляет append.
+ */
+public class FilePaymentRepository implements PaymentRepository, AutoCloseable {
+    static final String LOG_FILE = "payments.log";
+    static final String SNAPSHOT_FILE = "aggregates.snapshot";
+
+    private static final int LOG_MAGIC = 0x504C4F47;      // "PLOG"
+    private static final int SNAPSHOT_MAGIC = 0x50534E50; // "PSNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte STRING = 1;
+    private static final byte PAYMENT = 2;
+    private static final int PAYMENT_SIZE = 1 + 4 + 4 + 8 + 8;
+    private static final int NO_MERCHANT = -1;
+
+    private final Path logFile;
+    private final Path snapshotFile;
+    private final int snapshotEvery;
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    // агрегаты по id строки пользователя из словаря: при чтении лога - индекс в массиве, без хеширования
+    private DailyTotals[] totals = new DailyTotals[1024];
+    private int usersWithTotals;
+
+    private FileChannel logChannel;
+    private DataOutputStream log;
+    private long logSize;
+    private long sinceSnapshot;
+    private Map<String, List<Payment>> materialized;
+    // null - еще не построен (см. index()); публикуется под монитором уже заполненным
+    private volatile PaymentHistoryIndex index;
+    // платежи, дописанные, пока индекс строится из лога; null - индекс не строится
+    private List<Payment> appendedDuringIndexing;
+    // один построитель индекса; монитор репозитория при этом не держится
+    private final Object indexLock = new Object();
+
+    /**
+     * @param snapshotEvery через сколько платежей писать снапшот, 0 - только по вызову snapshot()
+     */
+    public FilePaymentRepository(Path dir, int snapshotEvery) {
+        this.logFile = dir.resolve(LOG_FILE);
+        this.snapshotFile = dir.resolve(SNAPSHOT_FILE);
+        this.snapshotEvery = snapshotEvery;
+        try {
+            Files.createDirectories(dir);
+            long replayFrom = HEADER_SIZE;
+            if (Files.exists(snapshotFile)) {
+                try {
+                    replayFrom = loadSnapshot();
+                } catch (IOException | RuntimeException e) {
+                    // битый снапшот - не повод не стартовать: лог полный, агрегаты соберутся из него
+                    replayFrom = -1;
+                }
+            }
+            if (replayFrom < HEADER_SIZE || !Files.exists(logFile) || replayFrom > Files.size(logFile)) {
+                // снапшот битый или без своего лога (лог потерян / подменен) - ему нельзя верить
+                strings.clear();
+                stringIds.clear();
+                totals = new DailyTotals[1024];
+                usersWithTotals = 0;
+                replayFrom = HEADER_SIZE;
+            }
+            logSize = Files.exists(logFile) ? replay(replayFrom) : createLog();
+            logChannel = FileChannel.open(logFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            log = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(logChannel), 1 << 16));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open payment log in " + dir, e);
+        }
+    }
+
+    /**
+     * append + fsync: после возврата платеж переживет падение процесса и ОС.
+     */
+    @Override
+    public synchronized void save(Payment payment) {
+        append(payment);
+        sync();
+    }
+
+    public synchronized void append(Payment payment) {
+        long amount = Money.toMinor(payment.amount());
+        int userId = stringId(payment.userId());
+        int merchant = payment.merchant() == null ? NO_MERCHANT : stringId(payment.merchant());
+        long epochMilli = payment.timestamp().toInstant(ZoneOffset.UTC).toEpochMilli();
+        try {
+            log.writeByte(PAYMENT);
+            log.writeInt(userId);
+            log.writeInt(merchant);
+            log.writeLong(amount);
+            log.writeLong(epochMilli);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot append payment", e);
+        }
+        logSize += PAYMENT_SIZE;
+        applyToTotals(userId, epochMilli, amount);
+        if (materialized != null) {
+            materialized.computeIfAbsent(payment.userId(), id -> new ArrayList<>()).add(payment);
+        }
+        if (index != null) {
+            index.add(payment);
+        } else if (appendedDuringIndexing != null) {
+            appendedDuringIndexing.add(payment);
+        }
+        if (snapshotEvery > 0 && ++sinceSnapshot >= snapshotEvery) {
+            snapshot();
+        }
+    }
+
+    /**
+     * @return сумма платежей пользователя за день в копейках
+     */
+    public synchronized long daySum(String userId, long epochDay) {
+        DailyTotals dailyTotals = totalsOf(userId);
+        return dailyTotals == null ? 0 : dailyTotals.sum(epochDay, epochDay + 1);
+    }
+
+    public synchronized long dayCount(String userId, long epochDay) {
+        DailyTotals dailyTotals = totalsOf(userId);
+        return dailyTotals == null ? 0 : dailyTotals.count(epochDay, epochDay + 1);
+    }
+
+    @Override
+    public synchronized Map<String, List<Payment>> getPayments() {
+        if (materialized == null) {
+            flush();
+            materialized = new HashMap<>();
+            readLog(HEADER_SIZE, Long.MAX_VALUE, true, (userId, merchant, amount, epochMilli) ->
+                    materialized.computeIfAbsent(strings.get(userId), id -> new ArrayList<>())
+                            .add(toPayment(strings, userId, merchant, amount, epochMilli)));
+        }
+        return materialized;
+    }
+
+    @Override
+    public List<Payment> paymentsFor(String userId, LocalDateTime from, LocalDateTime to) {
+        synchronized (this) {
+            if (totalsOf(userId) == null) {
+                return List.of();
+            }
+        }
+        return index().paymentsFor(userId, from, to);
+    }
+
+    @Override
+    public long sumFor(String userId, LocalDateTime from, LocalDateTime to) {
+        synchronized (this) {
+            DailyTotals dailyTotals = totalsOf(userId);
+            if (dailyTotals == null) {
+                return 0;
+            }
+            if (isStartOfDay(from) && isStartOfDay(to)) {
+                return dailyTotals.sum(from.toLocalDate().toEpochDay(), to.toLocalDate().toEpochDay());
+            }
+        }
+        return index().sumFor(userId, from, to);
+    }
+
+    @Override
+    public long countFor(String userId, LocalDateTime from, LocalDateTime to) {
+        synchronized (this) {
+            DailyTotals dailyTotals = totalsOf(userId);
+            if (dailyTotals == null) {
+                return 0;
+            }
+            if (isStartOfDay(from) && isStartOfDay(to)) {
+                return dailyTotals.count(from.toLocalDate().toEpochDay(), to.toLocalDate().toEpochDay());
+            }
+        }
+        return index().countFor(userId, from, to);
+    }
+
+    private static boolean isStartOfDay(LocalDateTime timestamp) {
+        return timestamp.toLocalTime().equals(LocalTime.MIDNIGHT);
+    }
+
+    private PaymentHistoryIndex index() {
+        PaymentHistoryIndex built = index;
+        if (built != null) {
+            return built;
+        }
+        synchronized (indexLock) {
+            if (index == null) {
+                buildIndex();
+            }
+            return index;
+        }
+    }
+
+    // под монитором - только граница лога и словарь на ней; сам лог читается без монитора. Платежи,
+    // дописанные за это время, копятся в appendedDuringIndexing и добавляются перед публикацией индекса
+    private void buildIndex() {
+        long end;
+        List<String> names;
+        synchronized (this) {
+            flush();
+            end = logSize;
+            names = List.copyOf(strings);
+            appendedDuringIndexing = new ArrayList<>();
+        }
+        PaymentHistoryIndex built = new PaymentHistoryIndex();
+        try {
+            readLog(HEADER_SIZE, end, false, (userId, merchant, amount, epochMilli) ->
+                    built.add(toPayment(names, userId, merchant, amount, epochMilli)));
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                appendedDuringIndexing = null;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            built.addAll(appendedDuringIndexing);
+            appendedDuringIndexing = null;
+            index = built;
+        }
+    }
+
+    public synchronized void flush() {
+        try {
+            log.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot flush payment log", e);
+        }
+    }
+
+    /**
+     * Сбросить буфер и лог на диск (fsync).
+     */
+    public synchronized void sync() {
+        flush();
+        try {
+            logChannel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot sync payment log", e);
+        }
+    }
+
+    /**
+     * Записать снапшот агрегатов: лог сбрасывается на диск (fsync), снапшот пишется в новый файл,
+     * сбрасывается на диск и атомарно заменяет старый - снапшот никогда не ссылается на данные,
+     * которых нет на диске, и не бывает виден недописанным.
+     */
+    public synchronized void snapshot() {
+        sync();
+        Path tmp = snapshotFile.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(logSize);
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(usersWithTotals);
+            for (int id = 0; id < totals.length; id++) {
+                if (totals[id] != null) {
+                    out.writeInt(id);
+                    totals[id].writeTo(out);
+                }
+            }
+            out.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write snapshot", e);
+        }
+        try {
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(snapshotFile.getParent());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replace snapshot", e);
+        }
+        sinceSnapshot = 0;
+    }
+
+    @Override
+    public synchronized void close() {
+        sync();
+        try {
+            log.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot close payment log", e);
+        }
+    }
+
+    private int stringId(String string) {
+        Integer id = stringIds.get(string);
+        if (id != null) {
+            return id;
+        }
+        int newId = strings.size();
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        try {
+            log.writeByte(STRING);
+            log.writeInt(newId);
+            log.writeShort(bytes.length);
+            log.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot append string", e);
+        }
+        logSize += 1 + 4 + 2 + bytes.length;
+        strings.add(string);
+        stringIds.put(string, newId);
+        return newId;
+    }
+
+    private DailyTotals totalsOf(String userId) {
+        Integer id = stringIds.get(userId);
+        return id == null || id >= totals.length ? null : totals[id];
+    }
+
+    private void applyToTotals(int userId, long epochMilli, long amount) {
+        totalsFor(userId).add(Math.floorDiv(epochMilli, 86_400_000L), amount);
+    }
+
+    private DailyTotals totalsFor(int userId) {
+        if (userId >= totals.length) {
+            totals = Arrays.copyOf(totals, Math.max(totals.length * 2, userId + 1));
+        }
+        DailyTotals dailyTotals = totals[userId];
+        if (dailyTotals == null) {
+            dailyTotals = new DailyTotals();
+            totals[userId] = dailyTotals;
+            usersWithTotals++;
+        }
+        return dailyTotals;
+    }
+
+    private long createLog() throws IOException {
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(LOG_MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        }
+        syncDirectory(logFile.getParent());
+        return HEADER_SIZE;
+    }
+
+    // новый файл или переименование переживут падение, только если сброшен и каталог.
+    // В Windows каталог нельзя открыть как файл - там это делает сама файловая система
+    private static void syncDirectory(Path dir) throws IOException {
+        if (System.getProperty("os.name").startsWith("Windows")) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * @return смещение в логе, с которого нужно дочитать хвост
+     */
+    private long loadSnapshot() throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            ChannelReader reader = new ChannelReader(channel);
+            ByteBuffer in = reader.buffer;
+            reader.require(4 + 4 + 8 + 4);
+            if (in.getInt() != SNAPSHOT_MAGIC || in.getInt() != VERSION) {
+                throw new IllegalStateException("Unknown snapshot format: " + snapshotFile);
+            }
+            long logOffset = in.getLong();
+            int stringCount = in.getInt();
+            if (stringCount < 0) {
+                throw new IllegalStateException("Corrupted snapshot: " + stringCount + " strings");
+            }
+            for (int i = 0; i < stringCount; i++) {
+                reader.require(4);
+                int length = in.getInt();
+                // строка в логе не длиннее 0xFFFF байт - иначе снапшот испорчен
+                if (length < 0 || length > 0xFFFF) {
+                    throw new IllegalStateException("Corrupted snapshot: string length " + length);
+                }
+                byte[] bytes = new byte[length];
+                reader.require(bytes.length);
+                in.get(bytes);
+                String string = new String(bytes, StandardCharsets.UTF_8);
+                stringIds.put(string, strings.size());
+                strings.add(string);
+            }
+            reader.require(4);
+            int userCount = in.getInt();
+            if (userCount < 0 || userCount > stringCount) {
+                throw new IllegalStateException("Corrupted snapshot: " + userCount + " users");
+            }
+            for (int i = 0; i < userCount; i++) {
+                reader.require(4);
+                int userId = in.getInt();
+                if (userId < 0 || userId >= strings.size()) {
+                    throw new IllegalStateException("Corrupted snapshot: user id " + userId);
+                }
+                DailyTotals.readFrom(reader, totalsFor(userId));
+            }
+            if (reader.ensure(1)) {
+                throw new IllegalStateException("Corrupted snapshot: trailing bytes");
+            }
+            return logOffset;
+        }
+    }
+
+    /**
+     * Дочитать лог с offset, применяя платежи к агрегатам; оборванный хвост отрезать.
+     *
+     * @return размер лога после восстановления
+     */
+    private long replay(long offset) {
+        long end = readLog(offset, Long.MAX_VALUE, true,
+                (userId, merchant, amount, epochMilli) -> applyToTotals(userId, epochMilli, amount));
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+            if (channel.size() > end) {
+                channel.truncate(end);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot truncate payment log", e);
+        }
+        return end;
+    }
+
+    @FunctionalInterface
+    private interface PaymentVisitor {
+        void visit(int userId, int merchant, long amount, long epochMilli);
+    }
+
+    /**
+     * Читает записи с offset до limit, конца или первой неполной записи. С learnStrings строки словаря
+     * добавляются по пути (только под монитором); без него словарь не трогается - все строки до limit
+     * уже известны.
+     *
+     * @return смещение конца последней полной записи
+     */
+    private long readLog(long offset, long limit, boolean learnStrings, PaymentVisitor visitor) {
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            checkHeader(channel);
+            channel.position(offset);
+            ChannelReader reader = new ChannelReader(channel);
+            ByteBuffer in = reader.buffer;
+            long position = offset;
+            while (position < limit && reader.ensure(1)) {
+                byte type = in.get(in.position());
+                if (type == PAYMENT) {
+                    if (!reader.ensure(PAYMENT_SIZE)) {
+                        break;
+                    }
+                    in.get();
+                    int userId = in.getInt();
+                    int merchant = in.getInt();
+                    long amount = in.getLong();
+                    long epochMilli = in.getLong();
+                    visitor.visit(userId, merchant, amount, epochMilli);
+                    position += PAYMENT_SIZE;
+                } else if (type == STRING) {
+                    if (!reader.ensure(1 + 4 + 2)
+                            || !reader.ensure(1 + 4 + 2 + Short.toUnsignedInt(in.getShort(in.position() + 5)))) {
+                        break;
+                    }
+                    in.get();
+                    int id = in.getInt();
+                    byte[] bytes = new byte[Short.toUnsignedInt(in.getShort())];
+                    in.get(bytes);
+                    // строка могла уже прийти из снапшота, если лог читается с начала
+                    if (learnStrings && id == strings.size()) {
+                        String string = new String(bytes, StandardCharsets.UTF_8);
+                        strings.add(string);
+                        stringIds.put(string, id);
+                    }
+                    position += 1 + 4 + 2 + bytes.length;
+                } else {
+                    throw new IllegalStateException("Corrupted payment log at " + position);
+                }
+            }
+            return position;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read payment log", e);
+        }
+    }
+
+    private void checkHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // дочитываем заголовок целиком
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != LOG_MAGIC || header.getInt() != VERSION) {
+            throw new IllegalStateException("Unknown payment log format: " + logFile);
+        }
+    }
+
+    /**
+     * Чтение файла блоками по 1 MB через ByteBuffer - вместо побайтовых вызовов DataInputStream.
+     */
+    static final class ChannelReader {
+        private final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+
+        ChannelReader(FileChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        /**
+         * @return false, если до конца файла осталось меньше bytes байт
+         */
+        boolean ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return true;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    buffer.flip();
+                    return false;
+                }
+            }
+            buffer.flip();
+            return true;
+        }
+
+        void require(int bytes) throws IOException {
+            if (!ensure(bytes)) {
+                throw new EOFException("Unexpected end of file");
+            }
+        }
+    }
+
+    private static Payment toPayment(List<String> names, int userId, int merchant, long amount, long epochMilli) {
+        return new Payment(names.get(userId), Money.toDecimal(amount),
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZoneOffset.UTC),
+                merchant == NO_MERCHANT ? null : names.get(merchant));
+    }
+
+    /**
+     * Суммы и количества платежей пользователя по дням: параллельные примитивные массивы,
+     * отсортированные по дню. Платежи обычно идут по времени, поэтому почти всегда это
+     * обновление последнего дня или добавление в конец.
+     */
+    static final class DailyTotals {
+        private long[] days = new long[4];
+        private long[] sums = new long[4];
+        private long[] counts = new long[4];
+        private int size;
+
+        void add(long day, long amount) {
+            int i = size > 0 && days[size - 1] == day ? size - 1 : Arrays.binarySearch(days, 0, size, day);
+            if (i < 0) {
+                i = -i - 1;
+                insertAt(i, day);
+            }
+            sums[i] = Money.add(sums[i], amount);
+            counts[i]++;
+        }
+
+        /**
+         * @return сумма за дни [fromDay, toDay)
+         */
+        long sum(long fromDay, long toDay) {
+            long total = 0;
+            for (int i = lowerBound(fromDay); i < size && days[i] < toDay; i++) {
+                total = Money.add(total, sums[i]);
+            }
+            return total;
+        }
+
+        long count(long fromDay, long toDay) {
+            long total = 0;
+            for (int i = lowerBound(fromDay); i < size && days[i] < toDay; i++) {
+                total += counts[i];
+            }
+            return total;
+        }
+
+        private int lowerBound(long day) {
+            int i = Arrays.binarySearch(days, 0, size, day);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        private void insertAt(int i, long day) {
+            if (size == days.length) {
+                days = Arrays.copyOf(days, size * 2);
+                sums = Arrays.copyOf(sums, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            System.arraycopy(days, i, days, i + 1, size - i);
+            System.arraycopy(sums, i, sums, i + 1, size - i);
+            System.arraycopy(counts, i, counts, i + 1, size - i);
+            days[i] = day;
+            sums[i] = 0;
+            counts[i] = 0;
+            size++;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(days[i]);
+                out.writeLong(sums[i]);
+                out.writeLong(counts[i]);
+            }
+        }
+
+        static void readFrom(ChannelReader reader, DailyTotals dailyTotals) throws IOException {
+            ByteBuffer in = reader.buffer;
+            reader.require(4);
+            int size = in.getInt();
+            if (size < 0 || (long) size * (8 + 8 + 8) > reader.channel.size()) {
+                throw new IllegalStateException("Corrupted snapshot: " + size + " days");
+            }
+            dailyTotals.days = new long[Math.max(size, 4)];
+            dailyTotals.sums = new long[Math.max(size, 4)];
+            dailyTotals.counts = new long[Math.max(size, 4)];
+            for (int i = 0; i < size; i++) {
+                reader.require(8 + 8 + 8);
+                dailyTotals.days[i] = in.getLong();
+                dailyTotals.sums[i] = in.getLong();
+                dailyTotals.counts[i] = in.getLong();
+            }
+            dailyTotals.size = size;
+        }
+    }
+}
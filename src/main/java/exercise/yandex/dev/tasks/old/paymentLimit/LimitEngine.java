@@ -0,0 +1,188 @@
+package exercise.yandex.dev.tasks.old.paymentLimit;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Индекс пользователей + текущая дневная сумма по каждому пользователю.
+ * <p>
+ * Раньше каждая проверка искала пользователя перебором списка и пересчитывала сумму
+ * по всей истории платежей: O(users + history) на платеж.
+ * Здесь пользователь ищется по хешу, а дневная сумма хранится готовой и обновляется
+ * при каждом принятом платеже, поэтому проверка O(1) независимо от длины истории.
+ * История дня берется из репозитория запросом за интервал ({@link PaymentRepository#sumFor}) -
+ * при первом обращении к пользователю и при переходе на новый день.
+ * <p>
+ * Те же агрегаты ведутся по каждой паре пользователь + мерчант (для лимитов по мерчанту).
+ * Суммы - long в копейках ({@link Money}), дни - epochDay: проверка ничего не аллоцирует.
+ */
+public class LimitEngine {
+    private final PaymentRepository paymentRepository;
+    private final UserRepository userRepository;
+
+    private final Map<String, User> usersById = new ConcurrentHashMap<>();
+    private final Map<String, DayAggregate> dayAggregates = new ConcurrentHashMap<>();
+    // userId -> merchant -> сумма за день: два поиска по строкам, без составного ключа на каждую проверку
+    private final Map<String, Map<String, DayAggregate>> merchantAggregates = new ConcurrentHashMap<>();
+
+    public LimitEngine(PaymentRepository paymentRepository, UserRepository userRepository) {
+        this.paymentRepository = paymentRepository;
+        this.userRepository = userRepository;
+    }
+
+    public User user(String userId) {
+        User user = usersById.get(userId);
+        if (user == null) {
+            // новый пользователь мог появиться в репозитории после построения индекса
+            refreshUsers();
+            user = usersById.get(userId);
+        }
+        if (user == null) {
+            throw new NoSuchElementException("User " + userId + " not found");
+        }
+        return user;
+    }
+
+    public void refreshUsers() {
+        for (User user : userRepository.getUsers()) {
+            usersById.put(user.id(), user);
+        }
+    }
+
+    /**
+     * @return сумма платежей пользователя за день в копейках
+     */
+    public long daySum(String userId, long epochDay) {
+        long sum = aggregate(userId, epochDay).sumFor(epochDay);
+        // другой день (задним числом или новый, еще без принятых платежей) - запрос к репозиторию
+        return sum != DayAggregate.UNKNOWN ? sum : historyDaySum(userId, epochDay);
+    }
+
+    /**
+     * @return сумма платежей пользователя у мерчанта за день в копейках
+     */
+    public long merchantDaySum(String userId, String merchant, long epochDay) {
+        long sum = merchantAggregate(userId, merchant, epochDay).sumFor(epochDay);
+        return sum != DayAggregate.UNKNOWN ? sum : historyMerchantDaySum(userId, merchant, epochDay);
+    }
+
+    /**
+     * Учесть проведенный платеж в агрегате.
+     */
+    public void accept(Payment payment) {
+        accept(payment.userId(), payment.merchant(), payment.timestamp().toLocalDate().toEpochDay(),
+                Money.toMinor(payment.amount()));
+    }
+
+    public void accept(String userId, String merchant, long epochDay, long amount) {
+        DayAggregate aggregate = aggregate(userId, epochDay);
+        if (!aggregate.add(epochDay, amount)) {
+            aggregate.roll(epochDay, historyDaySum(userId, epochDay), amount);
+        }
+        if (merchant != null) {
+            DayAggregate merchantAggregate = merchantAggregate(userId, merchant, epochDay);
+            if (!merchantAggregate.add(epochDay, amount)) {
+                merchantAggregate.roll(epochDay, historyMerchantDaySum(userId, merchant, epochDay), amount);
+            }
+        }
+    }
+
+    /**
+     * Вернуть сумму отмененного резерва. День, который агрегат уже не хранит, не трогаем - он больше не проверяется.
+     */
+    public void release(String userId, String merchant, long epochDay, long amount) {
+        aggregate(userId, epochDay).subtract(epochDay, amount);
+        if (merchant != null) {
+            merchantAggregate(userId, merchant, epochDay).subtract(epochDay, amount);
+        }
+    }
+
+    // get до computeIfAbsent: на горячем пути не создаем лямбду
+    private DayAggregate aggregate(String userId, long epochDay) {
+        DayAggregate aggregate = dayAggregates.get(userId);
+        return aggregate != null ? aggregate
+                : dayAggregates.computeIfAbsent(userId, id -> new DayAggregate(epochDay, historyDaySum(id, epochDay)));
+    }
+
+    private DayAggregate merchantAggregate(String userId, String merchant, long epochDay) {
+        Map<String, DayAggregate> byMerchant = merchantAggregates.get(userId);
+        if (byMerchant == null) {
+            byMerchant = merchantAggregates.computeIfAbsent(userId, id -> new ConcurrentHashMap<>());
+        }
+        DayAggregate aggregate = byMerchant.get(merchant);
+        return aggregate != null ? aggregate : byMerchant.computeIfAbsent(merchant,
+                m -> new DayAggregate(epochDay, historyMerchantDaySum(userId, m, epochDay)));
+    }
+
+    private long historyDaySum(String userId, long epochDay) {
+        LocalDate day = LocalDate.ofEpochDay(epochDay);
+        return paymentRepository.sumFor(userId, day.atStartOfDay(), day.plusDays(1).atStartOfDay());
+    }
+
+    private long historyMerchantDaySum(String userId, String merchant, long epochDay) {
+        LocalDate day = LocalDate.ofEpochDay(epochDay);
+        long sum = 0;
+        for (Payment payment : paymentRepository.paymentsFor(userId, day.atStartOfDay(), day.plusDays(1).atStartOfDay())) {
+            if (merchant.equals(payment.merchant())) {
+                sum = Money.add(sum, Money.toMinor(payment.amount()));
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Сумма платежей за текущий день пользователя: история дня + принятые платежи.
+     */
+    static final class DayAggregate {
+        static final long UNKNOWN = -1;
+
+        private long day;
+        private long sum;
+
+        DayAggregate(long day, long sum) {
+            this.day = day;
+            this.sum = sum;
+        }
+
+        /**
+         * @return сумма за день или UNKNOWN, если агрегат хранит другой день
+         */
+        synchronized long sumFor(long requested) {
+            return requested == day ? sum : UNKNOWN;
+        }
+
+        /**
+         * @return false, если платеж за более новый день - агрегат нужно перевести на него через roll
+         */
+        synchronized boolean add(long paymentDay, long amount) {
+            if (paymentDay > day) {
+                return false;
+            }
+            if (paymentDay == day) {
+                sum = Money.add(sum, amount);
+            }
+            return true;
+        }
+
+        /**
+         * Перейти на новый день: история этого дня из репозитория + принятый платеж.
+         */
+        synchronized void roll(long paymentDay, long historySum, long amount) {
+            if (paymentDay > day) {
+                day = paymentDay;
+                sum = Money.add(historySum, amount);
+            } else if (paymentDay == day) {
+                // другой поток уже перевел агрегат на этот день
+                sum = Money.add(sum, amount);
+            }
+        }
+
+        synchronized void subtract(long paymentDay, long amount) {
+            if (paymentDay == day) {
+                sum -= amount;
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package exercise.yandex.dev.tasks.old.paymentLimit;
+
+import java.math.BigDecimal;
+
+/**
+ * Лимит, описанный данными: вид, порог и параметры вида.
+ * {@link RuleEngine} компилирует список таких правил в массив предикатов.
+ *
+ * @param limit    порог: копейки для сумм, штуки для WINDOW_COUNT
+ * @param window   окно для WINDOW_AMOUNT / WINDOW_COUNT
+ * @param merchant для MERCHANT_DAY_AMOUNT: конкретный мерчант или null - каждый мерчант отдельно
+ */
+public record LimitRule(Kind kind, long limit, SlidingWindowEngine.Window window, String merchant) {
+
+    /**
+     * Порядок констант - порядок проверки: сначала правила без обращения к состоянию, потом дороже.
+     */
+    public enum Kind {
+        OPERATION_AMOUNT,
+        DAY_AMOUNT,
+        WINDOW_COUNT,
+        WINDOW_AMOUNT,
+        MERCHANT_DAY_AMOUNT
+    }
+
+    public LimitRule {
+        if (kind == null) {
+            throw new IllegalArgumentException("Rule kind is required");
+        }
+        if (limit < 0) {
+            throw new NumberFormatException("Limits should more than 0");
+        }
+        if ((kind == Kind.WINDOW_AMOUNT || kind == Kind.WINDOW_COUNT) && window == null) {
+            throw new IllegalArgumentException("Window is required for " + kind);
+        }
+    }
+
+    public static LimitRule operation(BigDecimal limit) {
+        return new LimitRule(Kind.OPERATION_AMOUNT, Money.toMinor(limit), null, null);
+    }
+
+    public static LimitRule day(BigDecimal limit) {
+        return new LimitRule(Kind.DAY_AMOUNT, Money.toMinor(limit), null, null);
+    }
+
+    public static LimitRule window(SlidingWindowEngine.Window window, BigDecimal limit) {
+        return new LimitRule(Kind.WINDOW_AMOUNT, Money.toMinor(limit), window, null);
+    }
+
+    /**
+     * Не больше count платежей в окне (velocity).
+     */
+    public static LimitRule count(SlidingWindowEngine.Window window, long count) {
+        return new LimitRule(Kind.WINDOW_COUNT, count, window, null);
+    }
+
+    public static LimitRule merchantDay(String merchant, BigDecimal limit) {
+        return new LimitRule(Kind.MERCHANT_DAY_AMOUNT, Money.toMinor(limit), null, merchant);
+    }
+}
@@ -0,0 +1,35 @@
+package exercise.yandex.dev.tasks.old.paymentLimit;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Деньги внутри движка лимитов - long в копейках.
+ * BigDecimal только на границе API: перевод туда и обратно, сложение с проверкой переполнения.
+ */
+public final class Money {
+    private Money() {
+    }
+
+    /**
+     * @throws ArithmeticException если сумма содержит доли копейки или не помещается в long
+     */
+    public static long toMinor(BigDecimal amount) {
+        return amount.setScale(2, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal toDecimal(long minor) {
+        return BigDecimal.valueOf(minor, 2);
+    }
+
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    /**
+     * Для сообщений об ошибках: 1000 вместо 1000.00, 100.5 вместо 100.50.
+     */
+    static String format(long minor) {
+        return toDecimal(minor).stripTrailingZeros().toPlainString();
+    }
+}
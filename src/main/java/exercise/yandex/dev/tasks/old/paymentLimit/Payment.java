@@ -3,10 +3,14 @@ package exercise.yandex.dev.tasks.old.paymentLimit;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
+/**
+ * merchant - получатель платежа, может быть null (лимиты по мерчанту тогда не применяются).
+ */
 public record Payment(
         String userId,
         BigDecimal amount,
-        LocalDateTime timestamp
+        LocalDateTime timestamp,
+        String merchant
 ) {
     public Payment {
         if(userId == null) {
@@ -20,4 +24,8 @@ public record Payment(
             throw new IllegalArgumentException("Timestamp is required");
         }
     }
+
+    public Payment(String userId, BigDecimal amount, LocalDateTime timestamp) {
+        this(userId, amount, timestamp, null);
+    }
 }
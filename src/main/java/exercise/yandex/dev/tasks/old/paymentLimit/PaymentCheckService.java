@@ -1,45 +1,331 @@
 package exercise.yandex.dev.tasks.old.paymentLimit;
 
-import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+/**
+ * Проверка лимитов. Сами лимиты - данные ({@link UserLimits}, {@link LimitRule}),
+ * проверяет их {@link RuleEngine}. check - только проверка; checkAndReserve/commit/release - для платежей
+ * одного пользователя, идущих параллельно: проверка и резерв суммы атомарны в пределах пользователя.
+ * <p>
+ * Атомарность - через таблицу полосатых (striped) мониторов по hash(userId): платежи одного
+ * пользователя сериализуются, разные пользователи почти всегда попадают в разные полосы
+ * и не ждут друг друга. Глобальной блокировки нет.
+ */
 public class PaymentCheckService {
 //    private Map<String, List<Payment>> paymentsHistory;
 //    private Map<String, User> users; //repository
 
     private final PaymentRepository paymentRepository;
     private final UserRepository userRepository;
+    private final LimitEngine limitEngine;
+    private final SlidingWindowEngine windowEngine;
+    private final RuleEngine ruleEngine;
+    private final List<LimitRule> commonRules;
+
+    private static final long INVALID_AMOUNT = -1;
+
+    private static final int STRIPES = 1024;
+    private final Object[] userLocks = new Object[STRIPES];
+
+    private final AtomicLong reservationIds = new AtomicLong();
+    private final Map<Long, Reservation> pending = new ConcurrentHashMap<>();
 
     public PaymentCheckService(PaymentRepository paymentRepository, UserRepository userRepository) {
+        this(paymentRepository, userRepository, List.of());
+    }
+
+    /**
+     * @param commonRules правила для всех пользователей (velocity, мерчанты и т.п.) в дополнение к их UserLimits
+     */
+    public PaymentCheckService(PaymentRepository paymentRepository, UserRepository userRepository,
+                               List<LimitRule> commonRules) {
         this.paymentRepository = paymentRepository;
         this.userRepository = userRepository;
+        this.commonRules = commonRules;
+        this.limitEngine = new LimitEngine(paymentRepository, userRepository);
+        this.windowEngine = new SlidingWindowEngine(paymentRepository);
+        this.ruleEngine = new RuleEngine(limitEngine, windowEngine, commonRules);
+        for (int i = 0; i < STRIPES; i++) {
+            userLocks[i] = new Object();
+        }
     }
 
+    /**
+     * Сумма с долями копейки (или не помещающаяся в long) не округляется - такой платеж отклоняется.
+     */
     public CheckResult check(String userId, Payment payment) {
-        List<User> users = userRepository.getUsers();
+        long amount = toMinor(payment);
+        if (amount == INVALID_AMOUNT) {
+            return CheckResult.failure(invalidAmount(payment));
+        }
+        return check(userId, amount, payment.timestamp(), payment.merchant());
+    }
+
+    public CheckResult check(String userId, long amount, LocalDateTime timestamp) {
+        return check(userId, amount, timestamp, null);
+    }
+
+    /**
+     * Быстрый путь: сумма в копейках. Успешная проверка ничего не аллоцирует,
+     * строка сообщения собирается только при отказе.
+     */
+    public CheckResult check(String userId, long amount, LocalDateTime timestamp, String merchant) {
+        String violation = ruleEngine.firstViolation(userId, merchant, amount,
+                timestamp.toLocalDate().toEpochDay(), SlidingWindowEngine.minuteOf(timestamp));
+        return violation == null ? CheckResult.accessed() : CheckResult.failure(violation);
+    }
+
+    /**
+     * Перечитать пользователей из репозитория (например, после изменения лимитов).
+     */
+    public void refreshUsers() {
+        limitEngine.refreshUsers();
+        ruleEngine.clear();
+    }
+
+    /**
+     * Проверка пачки платежей (сверка за день) - повторная проверка по сохраненной истории.
+     * <p>
+     * Результат i-го элемента - тот же, что дали бы последовательные check + accept (для прошедших)
+     * в порядке timestamp на только что созданном сервисе поверх истории репозитория без самих платежей
+     * пачки: при сверке пачка обычно уже сохранена, и иначе каждый платеж был бы учтен дважды.
+     * Принятые платежи видны через репозиторий, незакрытые резервы этого сервиса не учитываются.
+     * Состояние этого сервиса не меняется.
+     * <p>
+     * История каждого пользователя читается один раз, дальше суммы идут нарастающим итогом.
+     * Пользователи независимы друг от друга, поэтому их группы проверяются параллельно;
+     * внутри группы - строго по времени (при равном timestamp - в порядке списка).
+     *
+     * @return результаты в порядке входного списка
+     */
+    public List<CheckResult> checkAll(List<Payment> payments) {
+        PaymentCheckService batch = new PaymentCheckService(new HistoryWithout(paymentRepository, payments),
+                userRepository, commonRules);
+        CheckResult[] results = new CheckResult[payments.size()];
+
+        Map<String, List<Integer>> groups = IntStream.range(0, payments.size()).boxed()
+                .collect(Collectors.groupingBy(i -> payments.get(i).userId()));
+        groups.values().parallelStream().forEach(indices -> {
+            // List.sort стабильна - равные timestamp остаются в порядке списка
+            indices.sort(Comparator.comparing(i -> payments.get(i).timestamp()));
+            for (int i : indices) {
+                Payment payment = payments.get(i);
+                long amount = toMinor(payment);
+                CheckResult result = amount == INVALID_AMOUNT ? CheckResult.failure(invalidAmount(payment))
+                        : batch.check(payment.userId(), amount, payment.timestamp(), payment.merchant());
+                if (result.access()) {
+                    batch.add(payment.userId(), payment.merchant(), amount, payment.timestamp());
+                }
+                results[i] = result;
+            }
+        });
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Платеж проведен - учесть его в суммах пользователя и сохранить в репозиторий.
+     * Сумма с долями копейки - ошибка вызывающего: check такой платеж не пропускает.
+     * <p>
+     * Сначала агрегаты, потом репозиторий: агрегат, переходящий на новый день, читает историю дня
+     * из репозитория и добавляет платеж сам - сохраненный раньше платеж был бы учтен дважды.
+     * Платеж за день, который агрегаты уже не хранят, учитывается только через репозиторий.
+     */
+    public void accept(String userId, Payment payment) {
+        checkOwner(userId, payment);
+        if (toMinor(payment) == INVALID_AMOUNT) {
+            throw new IllegalArgumentException(invalidAmount(payment));
+        }
+        synchronized (lockFor(userId)) {
+            limitEngine.accept(payment);
+            windowEngine.accept(payment);
+            paymentRepository.save(payment);
+        }
+    }
+
+    /**
+     * Проверить лимиты и, если они не превышены, сразу зарезервировать сумму платежа.
+     * Два параллельных платежа одного пользователя не могут вместе превысить лимит.
+     */
+    public ReserveResult checkAndReserve(String userId, Payment payment) {
+        checkOwner(userId, payment);
+        long amount = toMinor(payment);
+        if (amount == INVALID_AMOUNT) {
+            return ReserveResult.failure(invalidAmount(payment));
+        }
+        LocalDateTime timestamp = payment.timestamp();
+        synchronized (lockFor(userId)) {
+            CheckResult result = check(userId, amount, timestamp, payment.merchant());
+            if (!result.access()) {
+                return ReserveResult.failure(result.message());
+            }
+            add(userId, payment.merchant(), amount, timestamp);
+        }
+        Reservation reservation = new Reservation(reservationIds.incrementAndGet(), userId, amount, timestamp,
+                payment.merchant());
+        pending.put(reservation.id(), reservation);
+        return ReserveResult.reserved(reservation);
+    }
+
+    /**
+     * Платеж по резерву проведен: сумма остается в лимитах, платеж сохраняется в репозиторий.
+     */
+    public void commit(Reservation reservation) {
+        take(reservation);
+        String userId = reservation.userId();
+        Payment payment = new Payment(userId, Money.toDecimal(reservation.amount()), reservation.timestamp(),
+                reservation.merchant());
+        synchronized (lockFor(userId)) {
+            paymentRepository.save(payment);
+        }
+    }
 
-        User user = users.stream().filter(u -> u.id().equals(userId)).findFirst().orElseThrow();
+    /**
+     * Платеж по резерву не состоялся: сумма возвращается в лимиты.
+     */
+    public void release(Reservation reservation) {
+        take(reservation);
+        String userId = reservation.userId();
+        LocalDateTime timestamp = reservation.timestamp();
+        synchronized (lockFor(userId)) {
+            limitEngine.release(userId, reservation.merchant(), timestamp.toLocalDate().toEpochDay(), reservation.amount());
+            windowEngine.release(userId, SlidingWindowEngine.minuteOf(timestamp), reservation.amount());
+        }
+    }
+
+    // резерв закрывается ровно один раз - повторный commit/release это ошибка вызывающего
+    private void take(Reservation reservation) {
+        if (pending.remove(reservation.id()) == null) {
+            throw new IllegalStateException("Reservation " + reservation.id() + " is already committed or released");
+        }
+    }
+
+    private void add(String userId, String merchant, long amount, LocalDateTime timestamp) {
+        limitEngine.accept(userId, merchant, timestamp.toLocalDate().toEpochDay(), amount);
+        windowEngine.accept(userId, SlidingWindowEngine.minuteOf(timestamp), amount);
+    }
+
+    private Object lockFor(String userId) {
+        int hash = userId.hashCode();
+        return userLocks[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    // сумма платежа всегда положительна (см. Payment), поэтому -1 не пересекается с настоящей суммой
+    private static long toMinor(Payment payment) {
+        try {
+            return Money.toMinor(payment.amount());
+        } catch (ArithmeticException e) {
+            return INVALID_AMOUNT;
+        }
+    }
+
+    private static String invalidAmount(Payment payment) {
+        return String.format("Payment amount (%s) is not a whole number of kopecks",
+                payment.amount().toPlainString());
+    }
 
-        List<Payment> paymentList = paymentRepository.getPayments().get(userId);
+    private static void checkOwner(String userId, Payment payment) {
+        if (!userId.equals(payment.userId())) {
+            throw new IllegalArgumentException("Payment belongs to " + payment.userId() + ", not " + userId);
+        }
+    }
+
+    /**
+     * История репозитория без платежей пачки: каждый платеж пачки скрывает одно совпадающее с ним сохраненное
+     * вхождение (если оно есть). Пользователи без платежей в пачке читаются из репозитория напрямую.
+     * <p>
+     * Совпадение - по {@link PaymentKey}, а не по equals записи Payment: сохраненная копия может отличаться
+     * масштабом суммы (100 и 100.00 после commit) и долями миллисекунды (файловый репозиторий их не хранит).
+     */
+    private static final class HistoryWithout implements PaymentRepository {
+        private final PaymentRepository history;
+        private final Map<String, Map<PaymentKey, Integer>> excluded = new HashMap<>();
+
+        HistoryWithout(PaymentRepository history, List<Payment> payments) {
+            this.history = history;
+            for (Payment payment : payments) {
+                PaymentKey key = PaymentKey.of(payment);
+                // платеж с долями копейки не проводится - в истории его нет
+                if (key != null) {
+                    excluded.computeIfAbsent(payment.userId(), id -> new HashMap<>()).merge(key, 1, Integer::sum);
+                }
+            }
+        }
+
+        @Override
+        public Map<String, List<Payment>> getPayments() {
+            Map<String, List<Payment>> result = new HashMap<>();
+            history.getPayments().forEach((userId, payments) -> result.put(userId, without(userId, payments)));
+            return result;
+        }
 
-        var dayPayment = payment.timestamp().toLocalDate();
-        if (paymentList == null) {
-            paymentList = new ArrayList<>();
+        @Override
+        public void save(Payment payment) {
+            throw new UnsupportedOperationException("Batch check does not save payments");
         }
-        BigDecimal dayPaymentSum  = paymentList.stream()
-                .filter(payment1 ->payment1.timestamp().toLocalDate().equals(dayPayment))
-                .map(Payment::amount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        if (user.limits().transactionalLimit().compareTo(payment.amount()) < 0) {
-            return CheckResult.failure(String.format("Payment (%s) more than transactional limit (%s)",payment.amount(),user.limits().transactionalLimit()));
+
+        @Override
+        public List<Payment> paymentsFor(String userId, LocalDateTime from, LocalDateTime to) {
+            return without(userId, history.paymentsFor(userId, from, to));
         }
 
-        if (user.limits().dayLimit().compareTo(dayPaymentSum.add(payment.amount())) < 0) {
-            return CheckResult.failure(String.format("Payment (%s) with daySum(%s)  more than day limit (%s)",payment.amount(),dayPaymentSum,user.limits().dayLimit()));
+        @Override
+        public long sumFor(String userId, LocalDateTime from, LocalDateTime to) {
+            return excluded.containsKey(userId) ? PaymentRepository.super.sumFor(userId, from, to)
+                    : history.sumFor(userId, from, to);
         }
 
+        @Override
+        public long countFor(String userId, LocalDateTime from, LocalDateTime to) {
+            return excluded.containsKey(userId) ? PaymentRepository.super.countFor(userId, from, to)
+                    : history.countFor(userId, from, to);
+        }
 
-        return CheckResult.accessed();
+        private List<Payment> without(String userId, List<Payment> payments) {
+            Map<PaymentKey, Integer> userExcluded = excluded.get(userId);
+            if (userExcluded == null) {
+                return payments;
+            }
+            Map<PaymentKey, Integer> left = new HashMap<>(userExcluded);
+            List<Payment> result = new ArrayList<>(payments.size());
+            for (Payment payment : payments) {
+                PaymentKey key = PaymentKey.of(payment);
+                Integer count = key == null ? null : left.get(key);
+                if (count == null) {
+                    result.add(payment);
+                } else if (count == 1) {
+                    left.remove(key);
+                } else {
+                    left.put(key, count - 1);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Платеж так, как его хранит любой репозиторий: сумма в копейках, время с точностью до миллисекунды.
+     */
+    private record PaymentKey(String userId, long amount, long epochMilli, String merchant) {
+
+        // null - сумма с долями копейки
+        static PaymentKey of(Payment payment) {
+            long amount = toMinor(payment);
+            if (amount == INVALID_AMOUNT) {
+                return null;
+            }
+            return new PaymentKey(payment.userId(), amount,
+                    payment.timestamp().toInstant(ZoneOffset.UTC).toEpochMilli(), payment.merchant());
+        }
     }
 }
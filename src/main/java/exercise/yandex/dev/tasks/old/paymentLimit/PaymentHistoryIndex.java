@@ -0,0 +1,167 @@
+package exercise.yandex.dev.tasks.old.paymentLimit;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Индекс истории платежей по времени для запросов за интервал [from, to).
+ * <p>
+ * На пользователя - массивы, отсортированные по времени: epochMilli (UTC), префиксные суммы
+ * в копейках и сами платежи. Границы интервала - бинарный поиск, сумма - разность двух
+ * префиксных сумм, количество - разность индексов: O(log n) без прохода по истории.
+ * Платежи обычно приходят по времени - добавление в конец O(1) амортизированно,
+ * платеж задним числом сдвигает хвост массивов.
+ */
+public class PaymentHistoryIndex {
+    private final Map<String, UserHistory> users = new ConcurrentHashMap<>();
+
+    public void add(Payment payment) {
+        register(payment.userId()).add(payment);
+    }
+
+    /**
+     * Завести (пустую) историю пользователя, если ее еще нет.
+     */
+    public UserHistory register(String userId) {
+        UserHistory history = users.get(userId);
+        return history != null ? history : users.computeIfAbsent(userId, id -> new UserHistory());
+    }
+
+    /**
+     * Завести историю пользователя сразу со всеми его платежами: она заполняется до публикации,
+     * поэтому запрос без блокировки не увидит ее пустой или заполненной наполовину.
+     * Если история уже есть, ничего не меняется.
+     */
+    public void register(String userId, List<Payment> payments) {
+        if (users.containsKey(userId)) {
+            return;
+        }
+        UserHistory history = new UserHistory();
+        for (Payment payment : payments) {
+            history.add(payment);
+        }
+        users.putIfAbsent(userId, history);
+    }
+
+    public void addAll(List<Payment> payments) {
+        for (Payment payment : payments) {
+            add(payment);
+        }
+    }
+
+    public boolean contains(String userId) {
+        return users.containsKey(userId);
+    }
+
+    public List<Payment> paymentsFor(String userId, LocalDateTime from, LocalDateTime to) {
+        UserHistory history = users.get(userId);
+        return history == null ? List.of() : history.payments(toEpochMilli(from), toEpochMilli(to));
+    }
+
+    /**
+     * @return сумма в копейках
+     */
+    public long sumFor(String userId, LocalDateTime from, LocalDateTime to) {
+        UserHistory history = users.get(userId);
+        return history == null ? 0 : history.sum(toEpochMilli(from), toEpochMilli(to));
+    }
+
+    public long countFor(String userId, LocalDateTime from, LocalDateTime to) {
+        UserHistory history = users.get(userId);
+        return history == null ? 0 : history.count(toEpochMilli(from), toEpochMilli(to));
+    }
+
+    /**
+     * Без аллокаций; LocalDateTime.MIN / MAX не переполняют long, а прижимаются к его границам.
+     */
+    static long toEpochMilli(LocalDateTime timestamp) {
+        long seconds = timestamp.toEpochSecond(ZoneOffset.UTC);
+        if (seconds >= Long.MAX_VALUE / 1000) {
+            return Long.MAX_VALUE;
+        }
+        if (seconds <= Long.MIN_VALUE / 1000) {
+            return Long.MIN_VALUE;
+        }
+        return seconds * 1000 + timestamp.getNano() / 1_000_000;
+    }
+
+    public static final class UserHistory {
+        private long[] times = new long[8];
+        // prefix[i] - сумма первых i платежей, prefix[0] = 0
+        private long[] prefix = new long[9];
+        private Payment[] payments = new Payment[8];
+        private int size;
+
+        synchronized void add(Payment payment) {
+            long time = toEpochMilli(payment.timestamp());
+            long amount = Money.toMinor(payment.amount());
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                prefix = Arrays.copyOf(prefix, size * 2 + 1);
+                payments = Arrays.copyOf(payments, size * 2);
+            }
+            // после всех платежей с тем же временем - порядок добавления сохраняется
+            int i = upperBound(time);
+            System.arraycopy(times, i, times, i + 1, size - i);
+            System.arraycopy(payments, i, payments, i + 1, size - i);
+            times[i] = time;
+            payments[i] = payment;
+            // prefix до i не меняется, хвост сдвигается на одну позицию и увеличивается на amount
+            for (int j = size + 1; j > i; j--) {
+                prefix[j] = Money.add(prefix[j - 1], amount);
+            }
+            size++;
+        }
+
+        synchronized List<Payment> payments(long from, long to) {
+            int lo = lowerBound(from);
+            int hi = Math.max(lo, lowerBound(to));
+            return List.of(Arrays.copyOfRange(payments, lo, hi));
+        }
+
+        synchronized long sum(long from, long to) {
+            int lo = lowerBound(from);
+            int hi = Math.max(lo, lowerBound(to));
+            return prefix[hi] - prefix[lo];
+        }
+
+        synchronized long count(long from, long to) {
+            int lo = lowerBound(from);
+            return Math.max(lo, lowerBound(to)) - lo;
+        }
+
+        // первый индекс с times[i] >= time
+        private int lowerBound(long time) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (times[mid] < time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // первый индекс с times[i] > time
+        private int upperBound(long time) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (times[mid] <= time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
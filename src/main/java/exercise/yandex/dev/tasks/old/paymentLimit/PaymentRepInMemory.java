@@ -1,12 +1,63 @@
 package exercise.yandex.dev.tasks.old.paymentLimit;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Репозиторий в памяти. Индекс по времени строится для пользователя при первом запросе
+ * по нему и дальше поддерживается save().
+ */
 public class PaymentRepInMemory implements PaymentRepository {
+    private final Map<String, List<Payment>> payments;
+    private final PaymentHistoryIndex index = new PaymentHistoryIndex();
+
+    public PaymentRepInMemory() {
+        this(new HashMap<>());
+    }
+
+    public PaymentRepInMemory(Map<String, List<Payment>> payments) {
+        this.payments = payments;
+    }
+
     @Override
     public Map<String, List<Payment>> getPayments() {
-        return new HashMap<>();
+        return payments;
+    }
+
+    @Override
+    public synchronized void save(Payment payment) {
+        indexed(payment.userId());
+        payments.computeIfAbsent(payment.userId(), id -> new ArrayList<>()).add(payment);
+        index.add(payment);
+    }
+
+    @Override
+    public List<Payment> paymentsFor(String userId, LocalDateTime from, LocalDateTime to) {
+        return indexed(userId).paymentsFor(userId, from, to);
+    }
+
+    @Override
+    public long sumFor(String userId, LocalDateTime from, LocalDateTime to) {
+        return indexed(userId).sumFor(userId, from, to);
+    }
+
+    @Override
+    public long countFor(String userId, LocalDateTime from, LocalDateTime to) {
+        return indexed(userId).countFor(userId, from, to);
+    }
+
+    private PaymentHistoryIndex indexed(String userId) {
+        if (!index.contains(userId)) {
+            synchronized (this) {
+                List<Payment> history = payments.get(userId);
+                // contains выше - без монитора: история публикуется только заполненной.
+                // Пустая тоже регистрируется, чтобы не заходить сюда на каждом запросе
+                index.register(userId, history == null ? List.of() : history);
+            }
+        }
+        return index;
     }
 }
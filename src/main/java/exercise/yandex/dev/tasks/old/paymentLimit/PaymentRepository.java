@@ -1,8 +1,57 @@
 package exercise.yandex.dev.tasks.old.paymentLimit;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 
 public interface PaymentRepository {
+    /**
+     * Вся история всех пользователей. Для проверок лимитов - запросы за интервал ниже.
+     */
     Map<String, List<Payment>> getPayments();
+
+    /**
+     * Сохранить проведенный платеж - дальше он виден в getPayments() и запросах за интервал.
+     * По умолчанию репозиторий только для чтения (история лямбдой): проверять по нему можно, проводить - нет.
+     */
+    default void save(Payment payment) {
+        throw new UnsupportedOperationException("Read-only payment repository");
+    }
+
+    /**
+     * Платежи пользователя с from (включительно) до to (не включительно), по времени.
+     * Реализация по умолчанию просматривает getPayments(), индексированные репозитории
+     * отвечают через {@link PaymentHistoryIndex}.
+     */
+    default List<Payment> paymentsFor(String userId, LocalDateTime from, LocalDateTime to) {
+        List<Payment> history = getPayments().get(userId);
+        if (history == null) {
+            return List.of();
+        }
+        List<Payment> result = new ArrayList<>();
+        for (Payment payment : history) {
+            if (!payment.timestamp().isBefore(from) && payment.timestamp().isBefore(to)) {
+                result.add(payment);
+            }
+        }
+        result.sort(Comparator.comparing(Payment::timestamp));
+        return result;
+    }
+
+    /**
+     * @return сумма платежей пользователя за [from, to) в копейках
+     */
+    default long sumFor(String userId, LocalDateTime from, LocalDateTime to) {
+        long sum = 0;
+        for (Payment payment : paymentsFor(userId, from, to)) {
+            sum = Money.add(sum, Money.toMinor(payment.amount()));
+        }
+        return sum;
+    }
+
+    default long countFor(String userId, LocalDateTime from, LocalDateTime to) {
+        return paymentsFor(userId, from, to).size();
+    }
 }
@@ -0,0 +1,10 @@
+package exercise.yandex.dev.tasks.old.paymentLimit;
+
+import java.time.LocalDateTime;
+
+/**
+ * Зарезервированный платеж: сумма (в копейках) уже учтена в лимитах пользователя,
+ * пока резерв не отпущен через release.
+ */
+public record Reservation(long id, String userId, long amount, LocalDateTime timestamp, String merchant) {
+}
@@ -0,0 +1,17 @@
+package exercise.yandex.dev.tasks.old.paymentLimit;
+
+/**
+ * Результат checkAndReserve: при успехе - резерв, при отказе - причина.
+ */
+public record ReserveResult(
+        boolean access,
+        String message,
+        Reservation reservation
+) {
+    static ReserveResult reserved(Reservation reservation) {
+        return new ReserveResult(true, null, reservation);
+    }
+    static ReserveResult failure(String message) {
+        return new ReserveResult(false, message, null);
+    }
+}
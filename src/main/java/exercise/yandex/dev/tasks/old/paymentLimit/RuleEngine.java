@@ -0,0 +1,138 @@
+package exercise.yandex.dev.tasks.old.paymentLimit;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Компилирует лимиты пользователя ({@link UserLimits}) и общие правила ({@link LimitRule})
+ * в упорядоченный массив предикатов над примитивами.
+ * <p>
+ * - Компиляция - один раз на пользователя, при первой проверке; после изменения лимитов - {@link #clear()}
+ * - Проверка - проход по массиву до первого отказа, без аллокаций
+ * - Сообщение собирается только у отказавшего правила
+ * Новое правило - новая константа в {@link LimitRule.Kind} и ветка в compile(), проверка
+ * одобряемого платежа дорожает ровно на один предикат.
+ */
+public class RuleEngine {
+
+    @FunctionalInterface
+    interface Predicate {
+        boolean allows(String userId, String merchant, long amount, long epochDay, long minute);
+    }
+
+    @FunctionalInterface
+    interface Message {
+        String build(String userId, String merchant, long amount, long epochDay, long minute);
+    }
+
+    record CompiledRule(LimitRule rule, Predicate predicate, Message message) {
+    }
+
+    private final LimitEngine limitEngine;
+    private final SlidingWindowEngine windowEngine;
+    private final List<LimitRule> commonRules;
+    private final Map<String, CompiledRule[]> compiled = new ConcurrentHashMap<>();
+
+    public RuleEngine(LimitEngine limitEngine, SlidingWindowEngine windowEngine, List<LimitRule> commonRules) {
+        this.limitEngine = limitEngine;
+        this.windowEngine = windowEngine;
+        this.commonRules = List.copyOf(commonRules);
+    }
+
+    /**
+     * @return null, если платеж проходит все правила, иначе сообщение первого отказавшего
+     */
+    public String firstViolation(String userId, String merchant, long amount, long epochDay, long minute) {
+        for (CompiledRule rule : rulesFor(userId)) {
+            if (!rule.predicate().allows(userId, merchant, amount, epochDay, minute)) {
+                return rule.message().build(userId, merchant, amount, epochDay, minute);
+            }
+        }
+        return null;
+    }
+
+    // кэш по userId заменяет поиск пользователя: на горячем пути один поиск по хешу
+    CompiledRule[] rulesFor(String userId) {
+        CompiledRule[] rules = compiled.get(userId);
+        if (rules == null) {
+            rules = compiled.computeIfAbsent(userId, id -> compile(rulesOf(limitEngine.user(id))));
+        }
+        return rules;
+    }
+
+    /**
+     * Забыть скомпилированные правила - следующая проверка соберет их из текущих UserLimits.
+     */
+    public void clear() {
+        compiled.clear();
+    }
+
+    private List<LimitRule> rulesOf(User user) {
+        UserLimits limits = user.limits();
+        List<LimitRule> rules = new ArrayList<>();
+        rules.add(LimitRule.operation(limits.transactionalLimit()));
+        rules.add(LimitRule.day(limits.dayLimit()));
+        if (limits.hourLimit() != null) {
+            rules.add(LimitRule.window(SlidingWindowEngine.Window.HOUR, limits.hourLimit()));
+        }
+        if (limits.rollingDayLimit() != null) {
+            rules.add(LimitRule.window(SlidingWindowEngine.Window.DAY, limits.rollingDayLimit()));
+        }
+        if (limits.weekLimit() != null) {
+            rules.add(LimitRule.window(SlidingWindowEngine.Window.WEEK, limits.weekLimit()));
+        }
+        rules.addAll(commonRules);
+        // сортировка стабильная: внутри одного вида порядок объявления сохраняется
+        rules.sort(Comparator.comparing(LimitRule::kind));
+        return rules;
+    }
+
+    CompiledRule[] compile(List<LimitRule> rules) {
+        CompiledRule[] result = new CompiledRule[rules.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = compile(rules.get(i));
+        }
+        return result;
+    }
+
+    private CompiledRule compile(LimitRule rule) {
+        long limit = rule.limit();
+        SlidingWindowEngine.Window window = rule.window();
+        String ruleMerchant = rule.merchant();
+        return switch (rule.kind()) {
+            case OPERATION_AMOUNT -> new CompiledRule(rule,
+                    (userId, merchant, amount, day, minute) -> amount <= limit,
+                    (userId, merchant, amount, day, minute) -> String.format(
+                            "Payment (%s) more than transactional limit (%s)",
+                            Money.format(amount), Money.format(limit)));
+            case DAY_AMOUNT -> new CompiledRule(rule,
+                    (userId, merchant, amount, day, minute) -> Money.add(limitEngine.daySum(userId, day), amount) <= limit,
+                    (userId, merchant, amount, day, minute) -> String.format(
+                            "Payment (%s) with daySum(%s)  more than day limit (%s)",
+                            Money.format(amount), Money.format(limitEngine.daySum(userId, day)), Money.format(limit)));
+            case WINDOW_COUNT -> new CompiledRule(rule,
+                    (userId, merchant, amount, day, minute) -> windowEngine.windowCount(userId, window, minute) < limit,
+                    (userId, merchant, amount, day, minute) -> String.format(
+                            "Payment count in %s window (%s) reached limit (%s)",
+                            window, windowEngine.windowCount(userId, window, minute), limit));
+            case WINDOW_AMOUNT -> new CompiledRule(rule,
+                    (userId, merchant, amount, day, minute) ->
+                            Money.add(windowEngine.windowSum(userId, window, minute), amount) <= limit,
+                    (userId, merchant, amount, day, minute) -> String.format(
+                            "Payment (%s) with %s window sum (%s) more than limit (%s)",
+                            Money.format(amount), window, Money.format(windowEngine.windowSum(userId, window, minute)),
+                            Money.format(limit)));
+            case MERCHANT_DAY_AMOUNT -> new CompiledRule(rule,
+                    (userId, merchant, amount, day, minute) -> merchant == null
+                            || (ruleMerchant != null && !ruleMerchant.equals(merchant))
+                            || Money.add(limitEngine.merchantDaySum(userId, merchant, day), amount) <= limit,
+                    (userId, merchant, amount, day, minute) -> String.format(
+                            "Payment (%s) with daySum(%s) at merchant %s more than limit (%s)",
+                            Money.format(amount), Money.format(limitEngine.merchantDaySum(userId, merchant, day)),
+                            merchant, Money.format(limit)));
+        };
+    }
+}
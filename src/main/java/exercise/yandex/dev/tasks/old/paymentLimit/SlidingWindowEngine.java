@@ -0,0 +1,243 @@
+package exercise.yandex.dev.tasks.old.paymentLimit;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Скользящие окна лимитов (последний час / 24 часа / 7 дней) вместо календарного дня.
+ * <p>
+ * Для каждого пользователя и окна - кольцо из фиксированного числа бакетов (сумма в копейках
+ * и число платежей, long) и готовые итоги окна. Новый платеж сдвигает кольцо: вышедшие из окна
+ * бакеты вычитаются из итогов и обнуляются, поэтому проверка и учет платежа - O(1) (амортизированно),
+ * а память на пользователя постоянная, сколько бы платежей он ни сделал.
+ * <p>
+ * Точность - один бакет: окно 24h покрывает от 23:59 до 24:00 назад в зависимости от того,
+ * где внутри текущей минуты пришел платеж.
+ */
+public class SlidingWindowEngine {
+
+    public enum Window {
+        HOUR(60, 1),
+        DAY(1440, 1),
+        WEEK(168, 60);
+
+        final int buckets;
+        final int bucketMinutes;
+
+        Window(int buckets, int bucketMinutes) {
+            this.buckets = buckets;
+            this.bucketMinutes = bucketMinutes;
+        }
+    }
+
+    private static final Window[] WINDOWS = Window.values();
+
+    private final PaymentRepository paymentRepository;
+    private final Map<String, UserWindows> windows = new ConcurrentHashMap<>();
+
+    public SlidingWindowEngine(PaymentRepository paymentRepository) {
+        this.paymentRepository = paymentRepository;
+    }
+
+    /**
+     * Сумма платежей пользователя в окне, заканчивающемся в минуту epochMinute, в копейках.
+     */
+    public long windowSum(String userId, Window window, long epochMinute) {
+        return windows(userId, epochMinute).sum(window, epochMinute);
+    }
+
+    /**
+     * Число платежей пользователя в окне, заканчивающемся в минуту epochMinute.
+     */
+    public long windowCount(String userId, Window window, long epochMinute) {
+        return windows(userId, epochMinute).count(window, epochMinute);
+    }
+
+    public void accept(Payment payment) {
+        accept(payment.userId(), minuteOf(payment.timestamp()), Money.toMinor(payment.amount()));
+    }
+
+    public void accept(String userId, long epochMinute, long amount) {
+        windows(userId, epochMinute).add(epochMinute, amount);
+    }
+
+    public void release(String userId, long epochMinute, long amount) {
+        windows(userId, epochMinute).subtract(epochMinute, amount);
+    }
+
+    public static long minuteOf(LocalDateTime timestamp) {
+        return Math.floorDiv(timestamp.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    // get до computeIfAbsent: на горячем пути не создаем лямбду
+    private UserWindows windows(String userId, long epochMinute) {
+        UserWindows userWindows = windows.get(userId);
+        if (userWindows == null) {
+            userWindows = windows.computeIfAbsent(userId, id -> new UserWindows());
+        }
+        if (epochMinute >= userWindows.loadedTo) {
+            load(userId, userWindows, epochMinute);
+        }
+        return userWindows;
+    }
+
+    // из истории нужна только неделя (самое длинное окно) до проверяемой минуты включительно - запрос
+    // за интервал, а не вся история. Платежи позже этой минуты не загружаются: они сдвинули бы голову
+    // колец вперед, и бакеты проверяемого окна выпали бы из колец. Когда проверка уходит дальше
+    // загруженного, догружается только промежуток [loadedTo, epochMinute] - и сохраненные с тех пор
+    // платежи этого промежутка попадают в кольца. Платеж, учтенный через accept, сохраняется в репозиторий
+    // после него: его минута уже загружена и повторно не читается
+    private void load(String userId, UserWindows userWindows, long epochMinute) {
+        synchronized (userWindows) {
+            if (epochMinute < userWindows.loadedTo) {
+                return;
+            }
+            long fromMinute = Math.max(userWindows.loadedTo,
+                    epochMinute - (long) Window.WEEK.buckets * Window.WEEK.bucketMinutes);
+            LocalDateTime from = LocalDateTime.ofEpochSecond(fromMinute * 60, 0, ZoneOffset.UTC);
+            LocalDateTime to = LocalDateTime.ofEpochSecond((epochMinute + 1) * 60, 0, ZoneOffset.UTC);
+            for (Payment payment : paymentRepository.paymentsFor(userId, from, to)) {
+                userWindows.add(minuteOf(payment.timestamp()), Money.toMinor(payment.amount()));
+            }
+            userWindows.loadedTo = epochMinute + 1;
+        }
+    }
+
+    static final class UserWindows {
+        private final Ring[] rings = new Ring[WINDOWS.length];
+        // история репозитория загружена до этой минуты (не включительно)
+        private volatile long loadedTo = Long.MIN_VALUE;
+
+        UserWindows() {
+            for (Window window : WINDOWS) {
+                rings[window.ordinal()] = new Ring(window.buckets);
+            }
+        }
+
+        synchronized long sum(Window window, long minute) {
+            return rings[window.ordinal()].sumAt(minute / window.bucketMinutes);
+        }
+
+        synchronized long count(Window window, long minute) {
+            return rings[window.ordinal()].countAt(minute / window.bucketMinutes);
+        }
+
+        synchronized void add(long minute, long amount) {
+            for (Window window : WINDOWS) {
+                rings[window.ordinal()].add(minute / window.bucketMinutes, amount);
+            }
+        }
+
+        synchronized void subtract(long minute, long amount) {
+            for (Window window : WINDOWS) {
+                rings[window.ordinal()].subtract(minute / window.bucketMinutes, amount);
+            }
+        }
+    }
+
+    /**
+     * Кольцо бакетов: head - номер самого нового бакета, в кольце лежат бакеты (head - size, head].
+     * В каждом бакете сумма (копейки) и число платежей.
+     */
+    static final class Ring {
+        private final long[] sums;
+        private final long[] counts;
+        private long head = Long.MIN_VALUE;
+        private long sum;
+        private long count;
+
+        Ring(int size) {
+            this.sums = new long[size];
+            this.counts = new long[size];
+        }
+
+        void add(long bucket, long amount) {
+            advance(bucket);
+            if (bucket > head - sums.length) {
+                int i = index(bucket);
+                sums[i] += amount;
+                counts[i]++;
+                sum = Money.add(sum, amount);
+                count++;
+            }
+            // платеж старше окна уже не влияет ни на одну проверку
+        }
+
+        void subtract(long bucket, long amount) {
+            // бакет, уже вышедший из кольца, обнулен при сдвиге - вычитать нечего
+            if (bucket <= head && bucket > head - sums.length) {
+                int i = index(bucket);
+                sums[i] -= amount;
+                counts[i]--;
+                sum -= amount;
+                count--;
+            }
+        }
+
+        long sumAt(long bucket) {
+            if (isCurrent(bucket)) {
+                return sum;
+            }
+            return backdated(sums, bucket);
+        }
+
+        long countAt(long bucket) {
+            if (isCurrent(bucket)) {
+                return count;
+            }
+            return backdated(counts, bucket);
+        }
+
+        private boolean isCurrent(long bucket) {
+            if (head == Long.MIN_VALUE || bucket < head) {
+                return false;
+            }
+            advance(bucket);
+            return true;
+        }
+
+        // проверка задним числом - редкий случай, суммируем пересечение окна с кольцом
+        private long backdated(long[] values, long bucket) {
+            if (head == Long.MIN_VALUE) {
+                return 0;
+            }
+            long total = 0;
+            for (long b = Math.max(bucket - values.length + 1, head - values.length + 1); b <= bucket; b++) {
+                total += values[index(b)];
+            }
+            return total;
+        }
+
+        private void advance(long bucket) {
+            if (head == Long.MIN_VALUE) {
+                head = bucket;
+                return;
+            }
+            if (bucket <= head) {
+                return;
+            }
+            if (bucket - head >= sums.length) {
+                Arrays.fill(sums, 0);
+                Arrays.fill(counts, 0);
+                sum = 0;
+                count = 0;
+            } else {
+                for (long b = head + 1; b <= bucket; b++) {
+                    int i = index(b);
+                    sum -= sums[i];
+                    count -= counts[i];
+                    sums[i] = 0;
+                    counts[i] = 0;
+                }
+            }
+            head = bucket;
+        }
+
+        private int index(long bucket) {
+            return (int) Math.floorMod(bucket, (long) sums.length);
+        }
+    }
+}
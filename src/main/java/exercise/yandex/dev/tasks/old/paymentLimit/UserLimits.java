@@ -2,10 +2,25 @@ package exercise.yandex.dev.tasks.old.paymentLimit;
 
 import java.math.BigDecimal;
 
-public record UserLimits(BigDecimal dayLimit, BigDecimal transactionalLimit) {
+/**
+ * hourLimit / rollingDayLimit / weekLimit - лимиты скользящих окон (1h, 24h, 7d), null - не заданы.
+ */
+public record UserLimits(BigDecimal dayLimit, BigDecimal transactionalLimit,
+                         BigDecimal hourLimit, BigDecimal rollingDayLimit, BigDecimal weekLimit) {
     public UserLimits {
         if (dayLimit.compareTo(BigDecimal.ZERO) < 0  || transactionalLimit.compareTo(BigDecimal.ZERO) < 0) {
             throw new NumberFormatException("Limits should more than 0");
         }
+        if (isNegative(hourLimit) || isNegative(rollingDayLimit) || isNegative(weekLimit)) {
+            throw new NumberFormatException("Limits should more than 0");
+        }
+    }
+
+    public UserLimits(BigDecimal dayLimit, BigDecimal transactionalLimit) {
+        this(dayLimit, transactionalLimit, null, null, null);
+    }
+
+    private static boolean isNegative(BigDecimal limit) {
+        return limit != null && limit.compareTo(BigDecimal.ZERO) < 0;
     }
 }
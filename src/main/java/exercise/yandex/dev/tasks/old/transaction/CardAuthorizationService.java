@@ -0,0 +1,195 @@
+package exercise.yandex.dev.tasks.transaction;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Авторизация операций по карте с учетом уже потраченного.
+ * <p>
+ * {@link PaymentService#check} сравнивает одну сумму со статичными лимитами. Здесь по каждой карте
+ * хранятся сумма и число операций в текущих минуте, часе и дне (календарные окна, UTC):
+ * авторизация проверяет статус, лимит на операцию, суммы и счетчики всех окон и сразу учитывает
+ * одобренную операцию - атомарно в пределах карты.
+ * <p>
+ * Состояния карт - в {@link CardStateMap} (ключ long, без боксинга), статусы - в {@link CardStatusSet}.
+ * Суммы - long в копейках. Одобрение ничего не аллоцирует, строка сообщения собирается только при отказе.
+ * Карты не ждут друг друга: блокировка - монитор состояния одной карты.
+ */
+public class CardAuthorizationService {
+    private static final int MINUTE = 0;
+    private static final int HOUR = 1;
+    private static final int DAY = 2;
+    private static final long[] WINDOW_MILLIS = {60_000L, 3_600_000L, 86_400_000L};
+    private static final String[] WINDOW_NAMES = {"minute", "hour", "day"};
+
+    private final CardStateMap<CardState> cards = new CardStateMap<>();
+    private final CardStatusSet statuses = new CardStatusSet();
+    private final long[] amountLimits = new long[WINDOW_MILLIS.length];
+    private final long[] countLimits = new long[WINDOW_MILLIS.length];
+
+    public CardAuthorizationService() {
+        this(VelocityLimits.unlimited());
+    }
+
+    public CardAuthorizationService(VelocityLimits velocityLimits) {
+        amountLimits[MINUTE] = toMinor(velocityLimits.minuteLimit());
+        amountLimits[HOUR] = toMinor(velocityLimits.hourLimit());
+        countLimits[MINUTE] = velocityLimits.minuteCount();
+        countLimits[HOUR] = velocityLimits.hourCount();
+        countLimits[DAY] = velocityLimits.dayCount();
+    }
+
+    /**
+     * Завести карту или заменить ее лимиты. Накопленные суммы при замене лимитов сохраняются.
+     */
+    public void registerCard(long cardId, CardLimits limits) {
+        long dayLimit = toMinor(limits.dayLimits());
+        long transactionLimit = toMinor(limits.transactionLimits());
+        CardState state = cards.computeIfAbsent(cardId, index -> new CardState(cardId, index));
+        synchronized (state) {
+            state.dayLimit = dayLimit;
+            state.transactionLimit = transactionLimit;
+        }
+    }
+
+    public void setStatus(long cardId, CardStatus status) {
+        statuses.set(card(cardId).index, status);
+    }
+
+    public CardStatus status(long cardId) {
+        return statuses.get(card(cardId).index);
+    }
+
+    public PaymentResult authorize(long cardId, BigDecimal amount, LocalDateTime timestamp) {
+        if (amount == null || amount.signum() <= 0) {
+            return PaymentResult.failure("amount cant be null or negative");
+        }
+        return authorize(cardId, toMinor(amount), timestamp.toInstant(ZoneOffset.UTC).toEpochMilli());
+    }
+
+    /**
+     * Быстрый путь: сумма в копейках, время - epochMilli (UTC).
+     * Одобренная операция сразу учитывается в окнах карты.
+     */
+    public PaymentResult authorize(long cardId, long amount, long epochMilli) {
+        // неположительная сумма уменьшила бы потраченное в окнах - как и BigDecimal-версия, отказываем
+        if (amount <= 0) {
+            return PaymentResult.failure("amount cant be zero or negative");
+        }
+        CardState state = cards.get(cardId);
+        if (state == null) {
+            return PaymentResult.failure("Card " + cardId + " not found");
+        }
+        if (!statuses.isAllowed(state.index)) {
+            return PaymentResult.failure("Card status " + statuses.get(state.index) + " not allowed");
+        }
+        synchronized (state) {
+            if (amount > state.transactionLimit) {
+                return PaymentResult.failure(String.format("Amount %s more than transactionLimits %s",
+                        toDecimal(amount), toDecimal(state.transactionLimit)));
+            }
+            state.roll(epochMilli);
+            for (int w = 0; w < WINDOW_MILLIS.length; w++) {
+                if (state.spent[w] > amountLimit(state, w) - amount) {
+                    return PaymentResult.failure(String.format("Amount %s exceeds %s limit %s, already spent %s",
+                            toDecimal(amount), WINDOW_NAMES[w], toDecimal(amountLimit(state, w)),
+                            toDecimal(state.spent[w])));
+                }
+                if (state.counts[w] >= countLimits[w]) {
+                    return PaymentResult.failure(String.format("Operations count %s limit %s reached",
+                            WINDOW_NAMES[w], countLimits[w]));
+                }
+            }
+            for (int w = 0; w < WINDOW_MILLIS.length; w++) {
+                state.spent[w] += amount;
+                state.counts[w]++;
+            }
+        }
+        return PaymentResult.success();
+    }
+
+    /**
+     * Вернуть сумму отмененной операции (авторизованной в epochMilli) в окна карты.
+     * Окно, которое уже сменилось, не трогаем - оно больше не проверяется.
+     */
+    public void release(long cardId, long amount, long epochMilli) {
+        CardState state = card(cardId);
+        synchronized (state) {
+            for (int w = 0; w < WINDOW_MILLIS.length; w++) {
+                if (Math.floorDiv(epochMilli, WINDOW_MILLIS[w]) == state.windows[w]) {
+                    state.spent[w] -= amount;
+                    state.counts[w]--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Потрачено по карте за день, содержащий epochMilli, в копейках.
+     */
+    public long daySpent(long cardId, long epochMilli) {
+        CardState state = card(cardId);
+        synchronized (state) {
+            state.roll(epochMilli);
+            return state.spent[DAY];
+        }
+    }
+
+    private long amountLimit(CardState state, int window) {
+        return window == DAY ? state.dayLimit : amountLimits[window];
+    }
+
+    private CardState card(long cardId) {
+        CardState state = cards.get(cardId);
+        if (state == null) {
+            throw new IllegalArgumentException("Card " + cardId + " not found");
+        }
+        return state;
+    }
+
+    static long toMinor(BigDecimal amount) {
+        return amount.setScale(2, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+    }
+
+    private static BigDecimal toDecimal(long amount) {
+        return BigDecimal.valueOf(amount, 2);
+    }
+
+    /**
+     * Состояние карты: лимиты и для каждого окна - его номер (epochMilli / длина окна), сумма и счетчик.
+     * Все поля - под монитором самого состояния.
+     */
+    static final class CardState implements CardStateMap.Keyed {
+        final long cardId;
+        final int index;
+        long dayLimit;
+        long transactionLimit;
+        final long[] windows = {Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE};
+        final long[] spent = new long[WINDOW_MILLIS.length];
+        final long[] counts = new long[WINDOW_MILLIS.length];
+
+        CardState(long cardId, int index) {
+            this.cardId = cardId;
+            this.index = index;
+        }
+
+        @Override
+        public long key() {
+            return cardId;
+        }
+
+        // операция задним числом (часы другого узла отстали) учитывается в текущем окне - строже, но не мягче
+        void roll(long epochMilli) {
+            for (int w = 0; w < WINDOW_MILLIS.length; w++) {
+                long window = Math.floorDiv(epochMilli, WINDOW_MILLIS[w]);
+                if (window > windows[w]) {
+                    windows[w] = window;
+                    spent[w] = 0;
+                    counts[w] = 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package exercise.yandex.dev.tasks.transaction;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Конкурентная хеш-таблица cardId (long) -> состояние карты без боксинга ключей.
+ * <p>
+ * Открытая адресация, линейное пробирование. Ключ хранится в самом значении (final cardId),
+ * поэтому ячейка - одна volatile ссылка. Чтение без блокировок; вставка (новая карта - редкое событие)
+ * и расширение - под общей блокировкой. Удаления нет, поэтому найденная ячейка не может
+ * смениться другим ключом; читатель, не нашедший ключ в устаревшей таблице, повторяет поиск в новой.
+ */
+final class CardStateMap<V extends CardStateMap.Keyed> {
+
+    interface Keyed {
+        long key();
+    }
+
+    private volatile AtomicReferenceArray<V> table = new AtomicReferenceArray<>(1024);
+    private int size;
+
+    V get(long key) {
+        AtomicReferenceArray<V> current;
+        V value;
+        do {
+            current = table;
+            value = find(current, key);
+            // промах в таблице, которую уже заменило расширение, - повторяем по новой
+        } while (value == null && current != table);
+        return value;
+    }
+
+    /**
+     * @param factory получает порядковый номер новой записи (0, 1, 2, ...) - плотный индекс карты
+     */
+    V computeIfAbsent(long key, IntFunction<V> factory) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        synchronized (this) {
+            value = find(table, key);
+            if (value == null) {
+                if ((size + 1) * 2 > table.length()) {
+                    resize();
+                }
+                value = factory.apply(size);
+                insert(table, value);
+                size++;
+            }
+            return value;
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private static <V extends Keyed> V find(AtomicReferenceArray<V> table, long key) {
+        int mask = table.length() - 1;
+        for (int i = index(key, mask); ; i = (i + 1) & mask) {
+            V value = table.get(i);
+            if (value == null || value.key() == key) {
+                return value;
+            }
+        }
+    }
+
+    private static <V extends Keyed> void insert(AtomicReferenceArray<V> table, V value) {
+        int mask = table.length() - 1;
+        int i = index(value.key(), mask);
+        while (table.get(i) != null) {
+            i = (i + 1) & mask;
+        }
+        table.set(i, value);
+    }
+
+    private void resize() {
+        AtomicReferenceArray<V> old = table;
+        AtomicReferenceArray<V> bigger = new AtomicReferenceArray<>(old.length() * 2);
+        for (int i = 0; i < old.length(); i++) {
+            V value = old.get(i);
+            if (value != null) {
+                insert(bigger, value);
+            }
+        }
+        table = bigger;
+    }
+
+    // перемешивание битов: последовательные номера карт не должны ложиться в соседние ячейки кластером
+    private static int index(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,58 @@
+package exercise.yandex.dev.tasks.transaction;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Статусы карт в битовом массиве: 2 бита на карту (ordinal {@link CardStatus}), 32 карты в long.
+ * Индекс карты - плотный номер из {@link CardStateMap}. Нули - ALLOWED, поэтому новая карта разрешена
+ * без записи. Миллион карт - 256 KB.
+ * <p>
+ * Чтение без блокировок; запись и расширение массива - под блокировкой, чтобы расширение
+ * не потеряло параллельно установленный статус.
+ */
+final class CardStatusSet {
+    private static final int BITS = 2;
+    private static final int PER_WORD = Long.SIZE / BITS;
+    private static final long MASK = (1L << BITS) - 1;
+    private static final CardStatus[] STATUSES = CardStatus.values();
+
+    private volatile AtomicLongArray words = new AtomicLongArray(64);
+
+    CardStatus get(int index) {
+        AtomicLongArray current = words;
+        int word = index / PER_WORD;
+        if (word >= current.length()) {
+            return CardStatus.ALLOWED;
+        }
+        return STATUSES[(int) (current.get(word) >>> shift(index) & MASK)];
+    }
+
+    boolean isAllowed(int index) {
+        AtomicLongArray current = words;
+        int word = index / PER_WORD;
+        return word >= current.length() || (current.get(word) >>> shift(index) & MASK) == 0;
+    }
+
+    synchronized void set(int index, CardStatus status) {
+        int word = index / PER_WORD;
+        if (word >= words.length()) {
+            grow(word + 1);
+        }
+        long bits = words.get(word);
+        bits = bits & ~(MASK << shift(index)) | (long) status.ordinal() << shift(index);
+        words.set(word, bits);
+    }
+
+    private void grow(int minWords) {
+        AtomicLongArray old = words;
+        AtomicLongArray bigger = new AtomicLongArray(Math.max(minWords, old.length() * 2));
+        for (int i = 0; i < old.length(); i++) {
+            bigger.set(i, old.get(i));
+        }
+        words = bigger;
+    }
+
+    private static int shift(int index) {
+        return index % PER_WORD * BITS;
+    }
+}
@@ -0,0 +1,23 @@
+package exercise.yandex.dev.tasks.transaction;
+
+import java.math.BigDecimal;
+
+/**
+ * Запрос на платеж по карте. Повтор запроса с тем же idempotencyKey не списывает второй раз,
+ * а возвращает результат первого.
+ */
+public record PaymentRequest(
+        String idempotencyKey,
+        long cardId,
+        BigDecimal amount
+) {
+
+    public PaymentRequest {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            throw new IllegalArgumentException("idempotencyKey cant be null or blank");
+        }
+        if (amount == null || amount.compareTo(new BigDecimal(0)) < 1) {
+            throw new IllegalArgumentException("amount cant be null or negative");
+        }
+    }
+}
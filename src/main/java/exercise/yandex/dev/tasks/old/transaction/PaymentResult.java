@@ -2,7 +2,8 @@ package exercise.yandex.dev.tasks.transaction;
 
 public record PaymentResult(
         boolean result,
-        String message
+        String message,
+        String paymentId
 ) {
 
     public PaymentResult {
@@ -11,8 +12,17 @@ public record PaymentResult(
         }
     }
 
+    public PaymentResult(boolean result, String message) {
+        this(result, message, null);
+    }
+
+    private static final PaymentResult SUCCESS = new PaymentResult(true, "");
+
     static PaymentResult success() {
-        return new PaymentResult(true, "");
+        return SUCCESS;
+    }
+    static PaymentResult reserved(String paymentId) {
+        return new PaymentResult(true, "", paymentId);
     }
     static PaymentResult failure(String message) {
         return new PaymentResult(false, message);
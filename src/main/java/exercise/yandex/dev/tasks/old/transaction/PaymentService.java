@@ -1,26 +1,199 @@
-package exercise.yandex.dev.tasks.transaction;
-
-public class PaymentService {
-
-    //
-    //    PaymentResult check(PaymentRequest request)
-    //    void confirm(String paymentId)
-
-
-    public PaymentResult check(Transaction transaction) {
-        if (transaction == null) {
-            return PaymentResult.failure("transaction cant be null");
-        }
-
-        if (!transaction.cardLimits().isDayLimitsAccept(transaction.amount())) {
-            return PaymentResult.failure(String.format("Amount %s more than dayLimits %s",transaction.amount(),transaction.cardLimits().dayLimits()));
-        }
-        if (!transaction.cardLimits().isTransactionLimitsAccept(transaction.amount())) {
-            return PaymentResult.failure(String.format("Amount %s more than transactionLimits %s",transaction.amount(),transaction.cardLimits().transactionLimits()));
-        }
-        if (transaction.cardStatus() != CardStatus.ALLOWED) {
-            return PaymentResult.failure("Card status not allowed");
-        }
-        return PaymentResult.success();
-    }
-}
+package exercise.yandex.dev.tasks.transaction;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Проверка платежа.
+ * <p>
+ * check(Transaction) - разовая проверка суммы против лимитов и статуса из самой транзакции.
+ * <p>
+ * check(PaymentRequest) / confirm / cancel - двухфазный платеж по карте: check резервирует сумму
+ * в лимитах карты ({@link CardAuthorizationService}) и возвращает paymentId, confirm оставляет ее списанной,
+ * cancel и истечение резерва возвращают ее в лимиты. Резервы истекают по {@link TimerWheel},
+ * колесо продвигается каждым вызовом (и {@link #expireReservations()} - из планировщика).
+ * <p>
+ * Повтор check с тем же ключом идемпотентности возвращает прежний результат и ничего не резервирует заново;
+ * ключи хранятся в {@link TtlCache} ограниченного размера. Живой ключ не вытесняется (повтор списал бы
+ * второй раз) - при заполнении check с новым ключом отклоняется до истечения старых. confirm и cancel идемпотентны:
+ * повторный вызов ничего не делает, противоречащий (confirm после cancel) - ошибка.
+ */
+public class PaymentService {
+    private static final Duration RESERVATION_TTL = Duration.ofMinutes(15);
+    private static final Duration IDEMPOTENCY_TTL = Duration.ofHours(24);
+    private static final int MAX_IDEMPOTENCY_KEYS = 1_000_000;
+    private static final int WHEEL_SLOTS = 1024;
+    private static final long WHEEL_TICK_MILLIS = 1000;
+
+    private final CardAuthorizationService authorizations;
+    private final long reservationTtlMillis;
+    private final LongSupplier clock;
+    private final TimerWheel<Reservation> expirations;
+    private final Map<String, Reservation> reserved = new ConcurrentHashMap<>();
+    // закрытые платежи - чтобы повторный confirm/cancel знал, чем платеж закончился
+    private final TtlCache<String, Reservation> closed;
+    private final TtlCache<String, Attempt> attempts;
+    private final AtomicLong paymentIds = new AtomicLong();
+
+    public PaymentService() {
+        this(new CardAuthorizationService());
+    }
+
+    public PaymentService(CardAuthorizationService authorizations) {
+        this(authorizations, RESERVATION_TTL, IDEMPOTENCY_TTL, MAX_IDEMPOTENCY_KEYS, System::currentTimeMillis);
+    }
+
+    PaymentService(CardAuthorizationService authorizations, Duration reservationTtl, Duration idempotencyTtl,
+                   int maxIdempotencyKeys, LongSupplier clock) {
+        if (reservationTtl.compareTo(idempotencyTtl) > 0) {
+            throw new IllegalArgumentException("Reservation ttl must not exceed idempotency ttl");
+        }
+        this.authorizations = authorizations;
+        this.reservationTtlMillis = reservationTtl.toMillis();
+        this.clock = clock;
+        this.expirations = new TimerWheel<>(WHEEL_SLOTS, WHEEL_TICK_MILLIS, clock.getAsLong());
+        // живых попыток не больше maxIdempotencyKeys за ttl, а закрываются их резервы не позже чем через
+        // reservationTtl <= ttl - закрытых за любой ttl не больше двух таких поколений
+        this.closed = new TtlCache<>(idempotencyTtl.toMillis(), 2 * maxIdempotencyKeys, clock);
+        this.attempts = new TtlCache<>(idempotencyTtl.toMillis(), maxIdempotencyKeys, clock);
+    }
+
+    public PaymentResult check(Transaction transaction) {
+        if (transaction == null) {
+            return PaymentResult.failure("transaction cant be null");
+        }
+
+        if (!transaction.cardLimits().isDayLimitsAccept(transaction.amount())) {
+            return PaymentResult.failure(String.format("Amount %s more than dayLimits %s",transaction.amount(),transaction.cardLimits().dayLimits()));
+        }
+        if (!transaction.cardLimits().isTransactionLimitsAccept(transaction.amount())) {
+            return PaymentResult.failure(String.format("Amount %s more than transactionLimits %s",transaction.amount(),transaction.cardLimits().transactionLimits()));
+        }
+        if (transaction.cardStatus() != CardStatus.ALLOWED) {
+            return PaymentResult.failure("Card status not allowed");
+        }
+        return PaymentResult.success();
+    }
+
+    /**
+     * Первая фаза: проверить лимиты карты и зарезервировать сумму.
+     *
+     * @return при успехе - paymentId для confirm/cancel
+     */
+    public PaymentResult check(PaymentRequest request) {
+        long amount;
+        try {
+            amount = CardAuthorizationService.toMinor(request.amount());
+        } catch (ArithmeticException e) {
+            return PaymentResult.failure("Amount " + request.amount().toPlainString()
+                    + " is not a whole number of kopecks");
+        }
+        long now = clock.getAsLong();
+        expireReservations(now);
+        Attempt attempt = attempts.computeIfAbsent(request.idempotencyKey(),
+                key -> new Attempt(request, reserve(request, amount, now)));
+        if (attempt == null) {
+            return PaymentResult.failure("Too many idempotency keys in use, retry later");
+        }
+        if (!attempt.request().equals(request)) {
+            return PaymentResult.failure("Idempotency key " + request.idempotencyKey() + " is used by another request");
+        }
+        return attempt.result();
+    }
+
+    /**
+     * Вторая фаза: платеж проведен, сумма остается в лимитах.
+     */
+    public void confirm(String paymentId) {
+        expireReservations(clock.getAsLong());
+        close(paymentId, State.CONFIRMED);
+    }
+
+    /**
+     * Платеж не состоялся: резерв возвращается в лимиты.
+     */
+    public void cancel(String paymentId) {
+        expireReservations(clock.getAsLong());
+        close(paymentId, State.CANCELLED);
+    }
+
+    public void expireReservations() {
+        expireReservations(clock.getAsLong());
+    }
+
+    private void expireReservations(long now) {
+        expirations.advance(now, reservation -> finish(reservation, State.EXPIRED));
+    }
+
+    private PaymentResult reserve(PaymentRequest request, long amount, long now) {
+        PaymentResult result = authorizations.authorize(request.cardId(), amount, now);
+        if (!result.result()) {
+            return result;
+        }
+        Reservation reservation = new Reservation("pay-" + paymentIds.incrementAndGet(), request.cardId(), amount, now);
+        reserved.put(reservation.paymentId, reservation);
+        expirations.schedule(reservation, now + reservationTtlMillis);
+        return PaymentResult.reserved(reservation.paymentId);
+    }
+
+    private void close(String paymentId, State target) {
+        Reservation reservation = reserved.get(paymentId);
+        if (reservation != null && finish(reservation, target)) {
+            return;
+        }
+        // резерв уже закрыт: в closed он попадает раньше, чем уходит из reserved
+        if (reservation == null) {
+            reservation = closed.get(paymentId);
+        }
+        if (reservation == null) {
+            throw new IllegalArgumentException("Payment " + paymentId + " not found");
+        }
+        State state = reservation.state.get();
+        boolean repeated = target == State.CONFIRMED ? state == State.CONFIRMED : state != State.CONFIRMED;
+        if (!repeated) {
+            throw new IllegalStateException("Payment " + paymentId + " is already " + state);
+        }
+    }
+
+    // закрывает резерв ровно один раз, кто бы ни пришел первым: confirm, cancel или таймер
+    private boolean finish(Reservation reservation, State target) {
+        if (!reservation.state.compareAndSet(State.RESERVED, target)) {
+            return false;
+        }
+        // места в closed хватает (см. конструктор); если бы не хватило, резерв остается в reserved -
+        // повторный confirm/cancel все равно найдет его состояние
+        if (closed.put(reservation.paymentId, reservation)) {
+            reserved.remove(reservation.paymentId);
+        }
+        if (target != State.CONFIRMED) {
+            authorizations.release(reservation.cardId, reservation.amount, reservation.authorizedAt);
+        }
+        return true;
+    }
+
+    private enum State {
+        RESERVED, CONFIRMED, CANCELLED, EXPIRED
+    }
+
+    private record Attempt(PaymentRequest request, PaymentResult result) {
+    }
+
+    private static final class Reservation {
+        final String paymentId;
+        final long cardId;
+        final long amount;
+        final long authorizedAt;
+        final AtomicReference<State> state = new AtomicReference<>(State.RESERVED);
+
+        Reservation(String paymentId, long cardId, long amount, long authorizedAt) {
+            this.paymentId = paymentId;
+            this.cardId = cardId;
+            this.amount = amount;
+            this.authorizedAt = authorizedAt;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package exercise.yandex.dev.tasks.transaction;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Конкурентная карта с TTL и ограничением размера (ключи идемпотентности, итоги платежей).
+ * <p>
+ * TTL у всех записей одинаковый, поэтому порядок вставки совпадает с порядком истечения:
+ * очередь вставок - готовый список на вытеснение. Каждая вставка снимает с головы очереди
+ * истекшие записи - O(1) амортизированно, без фоновых потоков.
+ * <p>
+ * Живая запись раньше срока не вытесняется никогда: для ключа идемпотентности это означало бы
+ * повторное списание при повторе запроса. Заполненная живыми записями карта отклоняет новый ключ.
+ */
+final class TtlCache<K, V> {
+    private final Map<K, Entry<K, V>> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry<K, V>> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final ReentrantLock evicting = new ReentrantLock();
+    private final long ttlMillis;
+    private final int maxSize;
+    private final LongSupplier clock;
+
+    TtlCache(long ttlMillis, int maxSize, LongSupplier clock) {
+        if (ttlMillis <= 0 || maxSize <= 0) {
+            throw new IllegalArgumentException("ttl and maxSize must be positive");
+        }
+        this.ttlMillis = ttlMillis;
+        this.maxSize = maxSize;
+        this.clock = clock;
+    }
+
+    V get(K key) {
+        Entry<K, V> entry = entries.get(key);
+        return entry == null || entry.expiresAt <= clock.getAsLong() ? null : entry.value;
+    }
+
+    /**
+     * @return false, если ключа нет, а карта заполнена живыми записями - значение не сохранено
+     */
+    boolean put(K key, V value) {
+        evict();
+        Entry<K, V> entry = new Entry<>(key, value, clock.getAsLong() + ttlMillis);
+        Entry<K, V> stored = entries.compute(key, (k, old) -> {
+            if (old == null && !takeSlot()) {
+                return null;
+            }
+            order.add(entry);
+            return entry;
+        });
+        return stored != null;
+    }
+
+    /**
+     * Значение по ключу или, если его нет (или оно истекло), вычисленное factory.
+     * Для одного ключа factory выполняется не больше одного раза, параллельный повтор ждет и получает тот же результат.
+     *
+     * @return null, если ключа нет, а карта заполнена живыми записями - factory не вызывается
+     */
+    V computeIfAbsent(K key, Function<K, V> factory) {
+        Entry<K, V> entry = entries.get(key);
+        long now = clock.getAsLong();
+        if (entry != null && entry.expiresAt > now) {
+            return entry.value;
+        }
+        evict();
+        entry = entries.compute(key, (k, old) -> {
+            if (old != null && old.expiresAt > now) {
+                return old;
+            }
+            // истекшая запись по тому же ключу заменяется на своем месте, новый ключ занимает место
+            if (old == null && !takeSlot()) {
+                return null;
+            }
+            Entry<K, V> created = new Entry<>(k, factory.apply(k), now + ttlMillis);
+            order.add(created);
+            return created;
+        });
+        return entry == null ? null : entry.value;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    // место занимается атомарно: параллельные вставки разных ключей не превысят maxSize
+    private boolean takeSlot() {
+        if (size.incrementAndGet() <= maxSize) {
+            return true;
+        }
+        size.decrementAndGet();
+        return false;
+    }
+
+    // снимает истекшие записи. Пока место есть, вытесняет один поток за раз, остальные не ждут -
+    // их записи снимет он или следующая вставка. Заполненная карта ждет: иначе новый ключ
+    // отклонили бы, пока истекшие записи еще не сняты
+    private void evict() {
+        if (size.get() >= maxSize) {
+            evicting.lock();
+        } else if (!evicting.tryLock()) {
+            return;
+        }
+        try {
+            long now = clock.getAsLong();
+            Entry<K, V> head;
+            while ((head = order.peek()) != null && head.expiresAt <= now) {
+                order.poll();
+                // запись, замененная более новой по тому же ключу, просто уходит из очереди
+                if (entries.remove(head.key, head)) {
+                    size.decrementAndGet();
+                }
+            }
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    // equals по ссылке: remove(key, entry) снимает именно эту запись, а не равную ей более новую
+    private static final class Entry<K, V> {
+        final K key;
+        final V value;
+        final long expiresAt;
+
+        Entry(K key, V value, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
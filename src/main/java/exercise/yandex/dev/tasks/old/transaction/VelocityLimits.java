@@ -0,0 +1,37 @@
+package exercise.yandex.dev.tasks.transaction;
+
+import java.math.BigDecimal;
+
+/**
+ * Лимиты частоты операций по карте, общие для всех карт.
+ * Суммы за минуту/час и число операций за минуту/час/день (календарные окна).
+ * Дневная сумма и лимит на операцию - в {@link CardLimits} конкретной карты.
+ */
+public record VelocityLimits(
+        BigDecimal minuteLimit,
+        BigDecimal hourLimit,
+        int minuteCount,
+        int hourCount,
+        int dayCount
+) {
+
+    public VelocityLimits {
+        if (minuteLimit == null || hourLimit == null) {
+            throw new IllegalArgumentException("cant be null");
+        }
+        if (minuteLimit.signum() <= 0 || hourLimit.signum() <= 0) {
+            throw new IllegalArgumentException("amount limits cant be not positive");
+        }
+        if (minuteCount <= 0 || hourCount <= 0 || dayCount <= 0) {
+            throw new IllegalArgumentException("count limits cant be not positive");
+        }
+    }
+
+    /**
+     * Без ограничений частоты - остаются только лимиты карты.
+     */
+    public static VelocityLimits unlimited() {
+        BigDecimal max = BigDecimal.valueOf(Long.MAX_VALUE, 2);
+        return new VelocityLimits(max, max, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+}
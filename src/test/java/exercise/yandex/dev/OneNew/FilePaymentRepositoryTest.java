@@ -0,0 +1,148 @@
+package exercise.yandex.dev.OneNew;
+
+import exercise.yandex.dev.tasks.old.paymentLimit.CheckResult;
+import exercise.yandex.dev.tasks.old.paymentLimit.FilePaymentRepository;
+import exercise.yandex.dev.tasks.old.paymentLimit.Payment;
+import exercise.yandex.dev.tasks.old.paymentLimit.PaymentCheckService;
+import exercise.yandex.dev.tasks.old.paymentLimit.User;
+import exercise.yandex.dev.tasks.old.paymentLimit.UserLimits;
+import exercise.yandex.dev.tasks.old.paymentLimit.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Репозиторий платежей на диске")
+class FilePaymentRepositoryTest {
+
+    private static final LocalDateTime DAY = LocalDateTime.of(2024, 3, 1, 12, 0);
+    private static final long EPOCH_DAY = DAY.toLocalDate().toEpochDay();
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("payments");
+    }
+
+    @Test
+    @DisplayName("После перезапуска агрегаты собираются из снапшота и хвоста лога")
+    void shouldRestoreAggregates_fromSnapshotAndTail() {
+        //given
+        try (FilePaymentRepository repository = new FilePaymentRepository(dir, 3)) {
+            for (int i = 0; i < 5; i++) {
+                repository.append(new Payment("u1", new BigDecimal(100), DAY.plusMinutes(i), "shop"));
+            }
+            repository.append(new Payment("u2", new BigDecimal("10.50"), DAY.plusDays(1)));
+        }
+        //when
+        try (FilePaymentRepository restored = new FilePaymentRepository(dir, 3)) {
+            //then
+            assertEquals(50_000, restored.daySum("u1", EPOCH_DAY));
+            assertEquals(5, restored.dayCount("u1", EPOCH_DAY));
+            assertEquals(1_050, restored.daySum("u2", EPOCH_DAY + 1));
+            assertEquals(0, restored.daySum("u2", EPOCH_DAY));
+            assertEquals(5, restored.getPayments().get("u1").size());
+            assertEquals("shop", restored.getPayments().get("u1").get(0).merchant());
+        }
+    }
+
+    @Test
+    @DisplayName("checkAll не учитывает дважды платеж, сохраненный с точностью до миллисекунды")
+    void shouldExcludeSavedBatch_truncatedToMillis() {
+        //given
+        UserRepository users = () -> List.of(new User("u1", new UserLimits(new BigDecimal(150), new BigDecimal(1000))));
+        Payment payment = new Payment("u1", new BigDecimal(100), DAY.plusNanos(123_456_789), "shop");
+        try (FilePaymentRepository repository = new FilePaymentRepository(dir, 2)) {
+            PaymentCheckService service = new PaymentCheckService(repository, users);
+            service.accept("u1", payment);
+            //when
+            List<CheckResult> results = service.checkAll(List.of(payment));
+            //then
+            assertEquals(List.of(true), results.stream().map(CheckResult::access).toList());
+        }
+    }
+
+    @Test
+    @DisplayName("Запросы за интервал после перезапуска: целые дни по агрегатам, остальное по индексу")
+    void shouldQueryRanges_afterRestart() {
+        //given
+        try (FilePaymentRepository repository = new FilePaymentRepository(dir, 2)) {
+            repository.append(new Payment("u1", new BigDecimal(100), DAY.minusDays(1)));
+            repository.append(new Payment("u1", new BigDecimal(200), DAY));
+            repository.append(new Payment("u2", new BigDecimal(300), DAY));
+            repository.append(new Payment("u1", new BigDecimal(400), DAY.plusHours(2)));
+        }
+        LocalDateTime dayStart = DAY.toLocalDate().atStartOfDay();
+        //when
+        try (FilePaymentRepository restored = new FilePaymentRepository(dir, 2)) {
+            long daySum = restored.sumFor("u1", dayStart, dayStart.plusDays(1));
+            long twoDays = restored.countFor("u1", dayStart.minusDays(1), dayStart.plusDays(1));
+            long hourSum = restored.sumFor("u1", DAY, DAY.plusHours(1));
+            restored.append(new Payment("u1", new BigDecimal(50), DAY.plusMinutes(30)));
+            List<Payment> payments = restored.paymentsFor("u1", DAY, DAY.plusHours(1));
+            //then
+            assertEquals(60_000, daySum);
+            assertEquals(3, twoDays);
+            assertEquals(20_000, hourSum);
+            assertEquals(List.of(DAY, DAY.plusMinutes(30)), payments.stream().map(Payment::timestamp).toList());
+            assertEquals(0, restored.sumFor("unknown", dayStart, dayStart.plusDays(1)));
+        }
+    }
+
+    @Test
+    @DisplayName("Испорченный снапшот игнорируется, агрегаты собираются из всего лога")
+    void shouldReplayWholeLog_whenSnapshotCorrupted() throws IOException {
+        //given
+        try (FilePaymentRepository repository = new FilePaymentRepository(dir, 2)) {
+            for (int i = 0; i < 5; i++) {
+                repository.append(new Payment("u1", new BigDecimal(100), DAY.plusMinutes(i)));
+            }
+        }
+        Path snapshot = dir.resolve("aggregates.snapshot");
+        byte[] bytes = Files.readAllBytes(snapshot);
+        for (int i = 16; i < bytes.length; i++) {
+            bytes[i] = (byte) 0xFF;
+        }
+        Files.write(snapshot, bytes);
+        //when
+        try (FilePaymentRepository restored = new FilePaymentRepository(dir, 2)) {
+            //then
+            assertEquals(50_000, restored.daySum("u1", EPOCH_DAY));
+            assertEquals(5, restored.dayCount("u1", EPOCH_DAY));
+        }
+    }
+
+    @Test
+    @DisplayName("Оборванная последняя запись отрезается, лог остается пригодным для записи")
+    void shouldTruncateTornTail() throws IOException {
+        //given
+        try (FilePaymentRepository repository = new FilePaymentRepository(dir, 0)) {
+            repository.append(new Payment("u1", new BigDecimal(100), DAY));
+            repository.append(new Payment("u1", new BigDecimal(200), DAY));
+        }
+        Path log = dir.resolve("payments.log");
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        //when
+        try (FilePaymentRepository restored = new FilePaymentRepository(dir, 0)) {
+            restored.append(new Payment("u1", new BigDecimal(50), DAY));
+        }
+        //then
+        try (FilePaymentRepository restored = new FilePaymentRepository(dir, 0)) {
+            assertEquals(15_000, restored.daySum("u1", EPOCH_DAY));
+            assertEquals(2, restored.getPayments().get("u1").size());
+        }
+    }
+}
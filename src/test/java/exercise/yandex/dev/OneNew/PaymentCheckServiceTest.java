@@ -12,11 +12,18 @@ import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.lenient;
 
 @ExtendWith(MockitoExtension.class)
 @DisplayName("Мои тесты")
@@ -28,21 +35,22 @@ class PaymentCheckServiceTest {
 
     @Mock
     private UserRepository userRepository;
-    @Mock
     private PaymentRepository paymentRepository;
 
     private PaymentCheckService service;
 
     private static final String USER_ID = "user-123";
+    // фиксированное время: история "час назад" не должна уходить во вчерашний день около полуночи
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 3, 15, 12, 0);
 
     @BeforeEach
     void setUp() {
         paymentsHistory = new HashMap<>();
         users = new HashMap<>();
+        paymentRepository = new PaymentRepInMemory(paymentsHistory);
 
-        // Настраиваем моки
-        when(paymentRepository.getPayments()).thenReturn(paymentsHistory);
-        when(userRepository.getUsers()).thenAnswer(invocation -> new
+        // Настраиваем моки; lenient - тесты самого репозитория пользователей не спрашивают
+        lenient().when(userRepository.getUsers()).thenAnswer(invocation -> new
                 ArrayList<>(users.values()));
         service = new PaymentCheckService(paymentRepository, userRepository);
     }
@@ -52,7 +60,7 @@ class PaymentCheckServiceTest {
     }
 
     private void setUpPayment(BigDecimal amount) {
-        Payment payment = new Payment(USER_ID, amount, LocalDateTime.now().minusHours(1));
+        Payment payment = new Payment(USER_ID, amount, NOW.minusHours(1));
         paymentsHistory.computeIfAbsent(USER_ID, k -> new ArrayList<>()).add(payment);
     }
 
@@ -63,11 +71,317 @@ class PaymentCheckServiceTest {
         //given
         setupUser(new BigDecimal(1000), new BigDecimal(300));
         setUpPayment(new BigDecimal(100));
-        Payment payment = new Payment(USER_ID, new BigDecimal(300), LocalDateTime.now());
+        Payment payment = new Payment(USER_ID, new BigDecimal(300), NOW);
         //when
         var result = service.check(USER_ID, payment);
         //then
         assertTrue(result.access());
 
     }
+
+    @Test
+    @DisplayName("Отказ, если с учетом истории превышен дневной лимит")
+    void shouldReject_whenDayLimitExceededWithHistory() {
+        //given
+        setupUser(new BigDecimal(1000), new BigDecimal(500));
+        setUpPayment(new BigDecimal(400));
+        setUpPayment(new BigDecimal(400));
+        Payment payment = new Payment(USER_ID, new BigDecimal(300), NOW);
+        //when
+        var result = service.check(USER_ID, payment);
+        //then
+        assertFalse(result.access());
+    }
+
+    @Test
+    @DisplayName("Принятые платежи учитываются в дневной сумме без пересчета истории")
+    void shouldCountAcceptedPayments() {
+        //given
+        setupUser(new BigDecimal(1000), new BigDecimal(500));
+        Payment first = new Payment(USER_ID, new BigDecimal(500), NOW);
+        Payment second = new Payment(USER_ID, new BigDecimal(400), NOW);
+        Payment third = new Payment(USER_ID, new BigDecimal(200), NOW);
+        //when
+        assertTrue(service.check(USER_ID, first).access());
+        service.accept(USER_ID, first);
+        assertTrue(service.check(USER_ID, second).access());
+        service.accept(USER_ID, second);
+        var result = service.check(USER_ID, third);
+        //then
+        assertFalse(result.access());
+    }
+
+    @Test
+    @DisplayName("Новый день начинается с нулевой суммы")
+    void shouldResetDaySum_onNextDay() {
+        //given
+        setupUser(new BigDecimal(1000), new BigDecimal(1000));
+        LocalDateTime today = NOW;
+        Payment payment = new Payment(USER_ID, new BigDecimal(1000), today);
+        service.accept(USER_ID, payment);
+        //when
+        var sameDay = service.check(USER_ID, new Payment(USER_ID, new BigDecimal(1), today));
+        var nextDay = service.check(USER_ID, new Payment(USER_ID, new BigDecimal(1000), today.plusDays(1)));
+        //then
+        assertFalse(sameDay.access());
+        assertTrue(nextDay.access());
+    }
+
+    @Test
+    @DisplayName("Сумма с долями копейки отклоняется, а не бросает исключение")
+    void shouldReject_whenAmountHasFractionOfKopeck() {
+        //given
+        setupUser(new BigDecimal(1000), new BigDecimal(1000));
+        Payment payment = new Payment(USER_ID, new BigDecimal("100.005"), NOW);
+        //when
+        var checked = service.check(USER_ID, payment);
+        var reserved = service.checkAndReserve(USER_ID, payment);
+        var batch = service.checkAll(List.of(payment, new Payment(USER_ID, new BigDecimal("100.50"), NOW)));
+        //then
+        assertFalse(checked.access());
+        assertTrue(checked.message().contains("100.005"));
+        assertFalse(reserved.access());
+        assertFalse(batch.get(0).access());
+        assertTrue(batch.get(1).access());
+        assertThrows(IllegalArgumentException.class, () -> service.accept(USER_ID, payment));
+    }
+
+    @Test
+    @DisplayName("Принятый платеж за прошлый день учитывается в лимите того дня")
+    void shouldCountAcceptedPayment_forEarlierDay() {
+        //given
+        setupUser(new BigDecimal(1000), new BigDecimal(1000));
+        LocalDateTime yesterday = NOW.minusDays(1);
+        service.accept(USER_ID, new Payment(USER_ID, new BigDecimal(100), NOW));
+        //when
+        service.accept(USER_ID, new Payment(USER_ID, new BigDecimal(1000), yesterday));
+        var result = service.check(USER_ID, new Payment(USER_ID, new BigDecimal(1), yesterday));
+        //then
+        assertFalse(result.access());
+        assertEquals(2, paymentRepository.countFor(USER_ID, yesterday.minusDays(1), NOW.plusDays(1)));
+    }
+
+    @Test
+    @DisplayName("Скользящий часовой лимит: платежи старше часа не учитываются")
+    void shouldCheckRollingHourLimit() {
+        //given
+        users.put(USER_ID, new User(USER_ID, new UserLimits(new BigDecimal(10_000), new BigDecimal(1000),
+                new BigDecimal(1000), null, null)));
+        paymentsHistory.computeIfAbsent(USER_ID, k -> new ArrayList<>())
+                .add(new Payment(USER_ID, new BigDecimal(700), NOW.minusMinutes(30)));
+        paymentsHistory.get(USER_ID).add(new Payment(USER_ID, new BigDecimal(900), NOW.minusMinutes(90)));
+        //when
+        var rejected = service.check(USER_ID, new Payment(USER_ID, new BigDecimal(400), NOW));
+        var accessed = service.check(USER_ID, new Payment(USER_ID, new BigDecimal(400), NOW.plusMinutes(31)));
+        //then
+        assertFalse(rejected.access());
+        assertTrue(accessed.access());
+    }
+
+    @Test
+    @DisplayName("Скользящий лимит: более поздняя история не вытесняет окно проверяемой минуты")
+    void shouldIgnoreLaterHistory_inRollingWindow() {
+        //given
+        users.put(USER_ID, new User(USER_ID, new UserLimits(new BigDecimal(10_000), new BigDecimal(1000),
+                new BigDecimal(1000), null, null)));
+        paymentsHistory.computeIfAbsent(USER_ID, k -> new ArrayList<>())
+                .add(new Payment(USER_ID, new BigDecimal(700), NOW.minusMinutes(30)));
+        paymentsHistory.get(USER_ID).add(new Payment(USER_ID, new BigDecimal(500), NOW.plusHours(2)));
+        //when
+        var result = service.check(USER_ID, new Payment(USER_ID, new BigDecimal(400), NOW));
+        //then
+        assertFalse(result.access());
+    }
+
+    @Test
+    @DisplayName("Скользящий лимит: история после первой проверенной минуты тоже учитывается")
+    void shouldCountHistoryAfterFirstCheckedMinute_inRollingWindow() {
+        //given
+        users.put(USER_ID, new User(USER_ID, new UserLimits(new BigDecimal(10_000), new BigDecimal(1000),
+                new BigDecimal(100), null, null)));
+        paymentRepository.save(new Payment(USER_ID, new BigDecimal(90), NOW.plusMinutes(30)));
+        Payment first = new Payment(USER_ID, new BigDecimal(10), NOW);
+        Payment second = new Payment(USER_ID, new BigDecimal(50), NOW.plusMinutes(40));
+        //when
+        var early = service.check(USER_ID, first);
+        var late = service.check(USER_ID, second);
+        List<CheckResult> batch = service.checkAll(List.of(first, second));
+        //then
+        assertTrue(early.access());
+        assertFalse(late.access());
+        assertEquals(late, new PaymentCheckService(paymentRepository, userRepository).check(USER_ID, second));
+        assertEquals(List.of(true, false), batch.stream().map(CheckResult::access).toList());
+    }
+
+    @Test
+    @DisplayName("64 потока одного пользователя не превышают дневной лимит резервами")
+    void shouldNotOverReserve_underConcurrency() throws InterruptedException {
+        //given
+        setupUser(new BigDecimal(1000), new BigDecimal(1000));
+        service.check(USER_ID, new Payment(USER_ID, new BigDecimal(1), NOW));
+        int threads = 64;
+        AtomicInteger reserved = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        //when
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < 100; j++) {
+                        ReserveResult result = service.checkAndReserve(USER_ID, new Payment(USER_ID, new BigDecimal(7), NOW));
+                        if (result.access()) {
+                            reserved.incrementAndGet();
+                            // каждый второй резерв отменяется и освобождает лимит
+                            if (j % 2 == 0) {
+                                service.release(result.reservation());
+                                reserved.decrementAndGet();
+                            } else {
+                                service.commit(result.reservation());
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        //then
+        assertTrue(reserved.get() <= 1000 / 7);
+        // в лимите учтены ровно проведенные резервы: остаток проходит, остаток + копейка - нет
+        BigDecimal rest = new BigDecimal(1000 - 7 * reserved.get());
+        assertTrue(service.check(USER_ID, new Payment(USER_ID, rest, NOW)).access());
+        assertFalse(service.check(USER_ID, new Payment(USER_ID, rest.add(new BigDecimal("0.01")), NOW)).access());
+    }
+
+    @Test
+    @DisplayName("Резерв нельзя закрыть дважды")
+    void shouldRejectSecondRelease() {
+        //given
+        setupUser(new BigDecimal(1000), new BigDecimal(1000));
+        ReserveResult result = service.checkAndReserve(USER_ID, new Payment(USER_ID, new BigDecimal(500), NOW));
+        //when
+        service.release(result.reservation());
+        //then
+        assertThrows(IllegalStateException.class, () -> service.commit(result.reservation()));
+        assertTrue(service.check(USER_ID, new Payment(USER_ID, new BigDecimal(1000), NOW)).access());
+    }
+
+    @Test
+    @DisplayName("checkAll дает те же результаты, что последовательные check + accept")
+    void shouldMatchSequentialChecks_inBatch() {
+        //given
+        Random random = new Random(42);
+        LocalDateTime start = NOW.minusDays(3);
+        for (int u = 0; u < 20; u++) {
+            String userId = "user-" + u;
+            users.put(userId, new User(userId, new UserLimits(new BigDecimal(2000), new BigDecimal(700),
+                    u % 2 == 0 ? new BigDecimal(900) : null, null, new BigDecimal(5000))));
+            paymentsHistory.put(userId, new ArrayList<>(List.of(
+                    new Payment(userId, new BigDecimal(300), start.minusHours(2)))));
+        }
+        List<Payment> batch = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String userId = "user-" + random.nextInt(20);
+            batch.add(new Payment(userId, new BigDecimal(1 + random.nextInt(800)),
+                    start.plusMinutes(random.nextInt(3 * 24 * 60))));
+        }
+        //when
+        List<CheckResult> results = service.checkAll(batch);
+        //then
+        PaymentCheckService sequential = new PaymentCheckService(paymentRepository, userRepository);
+        List<Payment> ordered = new ArrayList<>(batch);
+        ordered.sort((a, b) -> a.timestamp().compareTo(b.timestamp()));
+        Map<Payment, CheckResult> expected = new IdentityHashMap<>();
+        for (Payment payment : ordered) {
+            CheckResult result = sequential.check(payment.userId(), payment);
+            if (result.access()) {
+                sequential.accept(payment.userId(), payment);
+            }
+            expected.put(payment, result);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals(expected.get(batch.get(i)), results.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("checkAll не учитывает дважды пачку, уже сохраненную в репозитории")
+    void shouldExcludeSavedBatch_fromHistory() {
+        //given
+        setupUser(new BigDecimal(1000), new BigDecimal(1000));
+        setUpPayment(new BigDecimal(200));
+        List<Payment> batch = List.of(
+                new Payment(USER_ID, new BigDecimal(500), NOW),
+                new Payment(USER_ID, new BigDecimal(300), NOW),
+                new Payment(USER_ID, new BigDecimal(300), NOW));
+        List<CheckResult> beforeSave = service.checkAll(batch);
+        batch.forEach(paymentRepository::save);
+        //when
+        List<CheckResult> afterSave = service.checkAll(batch);
+        //then
+        assertEquals(List.of(true, true, false), beforeSave.stream().map(CheckResult::access).toList());
+        assertEquals(beforeSave, afterSave);
+    }
+
+    @Test
+    @DisplayName("checkAll узнает сохраненный commit платеж, хотя сумма в нем другого масштаба")
+    void shouldExcludeCommittedPayment_withOtherAmountScale() {
+        //given
+        setupUser(new BigDecimal(150), new BigDecimal(1000));
+        Payment payment = new Payment(USER_ID, new BigDecimal(100), NOW.plusNanos(123_456_789));
+        service.commit(service.checkAndReserve(USER_ID, payment).reservation());
+        //when
+        List<CheckResult> results = service.checkAll(List.of(payment));
+        //then
+        assertEquals(List.of(true), results.stream().map(CheckResult::access).toList());
+    }
+
+    @Test
+    @DisplayName("Общие правила: число платежей в час и дневной лимит у мерчанта")
+    void shouldApplyCommonRules() {
+        //given
+        setupUser(new BigDecimal(10_000), new BigDecimal(1000));
+        service = new PaymentCheckService(paymentRepository, userRepository, List.of(
+                LimitRule.count(SlidingWindowEngine.Window.HOUR, 3),
+                LimitRule.merchantDay("shop", new BigDecimal(500))));
+        //when
+        var first = service.checkAndReserve(USER_ID, new Payment(USER_ID, new BigDecimal(400), NOW, "shop"));
+        var overMerchant = service.checkAndReserve(USER_ID, new Payment(USER_ID, new BigDecimal(200), NOW, "shop"));
+        var otherMerchant = service.checkAndReserve(USER_ID, new Payment(USER_ID, new BigDecimal(200), NOW, "cafe"));
+        var third = service.checkAndReserve(USER_ID, new Payment(USER_ID, new BigDecimal(10), NOW, null));
+        var overCount = service.checkAndReserve(USER_ID, new Payment(USER_ID, new BigDecimal(10), NOW, null));
+        //then
+        assertTrue(first.access());
+        assertFalse(overMerchant.access());
+        assertTrue(overMerchant.message().contains("shop"));
+        assertTrue(otherMerchant.access());
+        assertTrue(third.access());
+        assertFalse(overCount.access());
+        assertTrue(overCount.message().contains("count"));
+    }
+
+    @Test
+    @DisplayName("Запросы за интервал: сумма и количество, платеж задним числом")
+    void shouldQueryPaymentsByRange() {
+        //given
+        PaymentRepInMemory repository = new PaymentRepInMemory();
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        repository.save(new Payment(USER_ID, new BigDecimal("10.50"), start.plusHours(1)));
+        repository.save(new Payment(USER_ID, new BigDecimal(20), start.plusHours(3)));
+        repository.save(new Payment(USER_ID, new BigDecimal(5), start.plusHours(2)));
+        repository.save(new Payment("other", new BigDecimal(100), start.plusHours(2)));
+        //when
+        long sum = repository.sumFor(USER_ID, start.plusHours(1), start.plusHours(3));
+        long count = repository.countFor(USER_ID, start, start.plusDays(1));
+        List<Payment> payments = repository.paymentsFor(USER_ID, start.plusHours(2), start.plusDays(1));
+        //then
+        assertEquals(1550, sum);
+        assertEquals(3, count);
+        assertEquals(List.of(new BigDecimal(5), new BigDecimal(20)), payments.stream().map(Payment::amount).toList());
+        assertEquals(0, repository.sumFor("unknown", start, start.plusDays(1)));
+    }
 }
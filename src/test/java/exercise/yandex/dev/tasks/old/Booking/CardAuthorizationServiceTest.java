@@ -0,0 +1,187 @@
+package exercise.yandex.dev.tasks.transaction;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CardAuthorizationServiceTest {
+    private static final long CARD = 4276_1234_5678_9012L;
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 5, 10, 12, 30);
+
+    CardAuthorizationService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new CardAuthorizationService(new VelocityLimits(new BigDecimal(300), new BigDecimal(600), 3, 10, 100));
+        service.registerCard(CARD, new CardLimits(new BigDecimal(1000), new BigDecimal(250)));
+    }
+
+    @Test
+    @DisplayName("Дневной лимит учитывает уже потраченное")
+    void shouldCountSpentInDayLimit() {
+        //given
+        for (int hour = 0; hour < 4; hour++) {
+            assertTrue(service.authorize(CARD, new BigDecimal(250), NOW.withHour(hour)).result());
+        }
+        //when
+        var overDay = service.authorize(CARD, new BigDecimal("0.01"), NOW.withHour(5));
+        var nextDay = service.authorize(CARD, new BigDecimal(250), NOW.plusDays(1));
+        //then
+        assertFalse(overDay.result());
+        assertTrue(overDay.message().contains("day"));
+        assertTrue(nextDay.result());
+    }
+
+    @Test
+    @DisplayName("Лимиты минуты: сумма и число операций, следующая минута - с нуля")
+    void shouldCheckMinuteWindow() {
+        //given
+        assertTrue(service.authorize(CARD, new BigDecimal(200), NOW).result());
+        //when
+        var overAmount = service.authorize(CARD, new BigDecimal(150), NOW.plusSeconds(10));
+        var second = service.authorize(CARD, new BigDecimal(50), NOW.plusSeconds(20));
+        var third = service.authorize(CARD, new BigDecimal(10), NOW.plusSeconds(30));
+        var overCount = service.authorize(CARD, new BigDecimal(10), NOW.plusSeconds(40));
+        var nextMinute = service.authorize(CARD, new BigDecimal(10), NOW.plusMinutes(1));
+        //then
+        assertFalse(overAmount.result());
+        assertTrue(second.result());
+        assertTrue(third.result());
+        assertFalse(overCount.result());
+        assertTrue(overCount.message().contains("minute"));
+        assertTrue(nextMinute.result());
+    }
+
+    @Test
+    @DisplayName("Статус карты и неизвестная карта")
+    void shouldRejectBlockedAndUnknownCards() {
+        //given
+        service.setStatus(CARD, CardStatus.FRAUD);
+        //when
+        var blocked = service.authorize(CARD, new BigDecimal(10), NOW);
+        var unknown = service.authorize(CARD + 1, new BigDecimal(10), NOW);
+        //then
+        assertFalse(blocked.result());
+        assertEquals(CardStatus.FRAUD, service.status(CARD));
+        assertFalse(unknown.result());
+        service.setStatus(CARD, CardStatus.ALLOWED);
+        assertTrue(service.authorize(CARD, new BigDecimal(10), NOW).result());
+    }
+
+    @Test
+    @DisplayName("Быстрый путь отклоняет нулевую и отрицательную сумму")
+    void shouldRejectNonPositiveMinorAmount() {
+        //given
+        long epochMilli = NOW.toInstant(ZoneOffset.UTC).toEpochMilli();
+        //when
+        var negative = service.authorize(CARD, -10_000, epochMilli);
+        var zero = service.authorize(CARD, 0, epochMilli);
+        //then
+        assertFalse(negative.result());
+        assertFalse(zero.result());
+        assertEquals(0, service.daySpent(CARD, epochMilli));
+    }
+
+    @Test
+    @DisplayName("Параллельные авторизации по одной карте не превышают дневной лимит")
+    void shouldNotExceedDayLimit_underConcurrency() throws InterruptedException {
+        //given
+        service = new CardAuthorizationService();
+        for (long card = 0; card < 5_000; card++) {
+            service.registerCard(card, new CardLimits(new BigDecimal(1000), new BigDecimal(100)));
+        }
+        AtomicInteger approved = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        //when
+        for (int i = 0; i < 20_000; i++) {
+            long card = i % 2 == 0 ? 7 : 100 + i % 4_000;
+            executor.submit(() -> {
+                if (service.authorize(card, new BigDecimal(100), NOW).result() && card == 7) {
+                    approved.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        //then
+        assertEquals(10, approved.get());
+        assertEquals(100_000, service.daySpent(7, NOW.toInstant(ZoneOffset.UTC).toEpochMilli()));
+    }
+
+    @Test
+    @DisplayName("Повтор check с тем же ключом не резервирует второй раз")
+    void shouldNotDoubleCharge_onRetry() {
+        //given
+        PaymentService payments = new PaymentService(service);
+        PaymentRequest request = new PaymentRequest("key-1", CARD, new BigDecimal(200));
+        //when
+        var first = payments.check(request);
+        var retry = payments.check(new PaymentRequest("key-1", CARD, new BigDecimal(200)));
+        var otherRequest = payments.check(new PaymentRequest("key-1", CARD, new BigDecimal(10)));
+        //then
+        assertTrue(first.result());
+        assertNotNull(first.paymentId());
+        assertEquals(first, retry);
+        assertFalse(otherRequest.result());
+        assertEquals(20_000, service.daySpent(CARD, System.currentTimeMillis()));
+    }
+
+    @Test
+    @DisplayName("Заполненный кэш ключей отклоняет новые ключи, но не забывает живые")
+    void shouldRejectNewKeys_whenIdempotencyCacheFull() {
+        //given
+        AtomicLong clock = new AtomicLong(NOW.toInstant(ZoneOffset.UTC).toEpochMilli());
+        PaymentService payments = new PaymentService(service, Duration.ofMinutes(5), Duration.ofHours(1), 2, clock::get);
+        var first = payments.check(new PaymentRequest("a", CARD, new BigDecimal(100)));
+        payments.check(new PaymentRequest("b", CARD, new BigDecimal(100)));
+        //when
+        var overflow = payments.check(new PaymentRequest("c", CARD, new BigDecimal(100)));
+        var retry = payments.check(new PaymentRequest("a", CARD, new BigDecimal(100)));
+        var fraction = payments.check(new PaymentRequest("d", CARD, new BigDecimal("1.001")));
+        //then
+        assertFalse(overflow.result());
+        assertEquals(first, retry);
+        assertFalse(fraction.result());
+        assertEquals(20_000, service.daySpent(CARD, clock.get()));
+        clock.addAndGet(Duration.ofHours(1).toMillis());
+        assertTrue(payments.check(new PaymentRequest("c", CARD, new BigDecimal(100))).result());
+    }
+
+    @Test
+    @DisplayName("confirm и cancel идемпотентны, истекший резерв возвращается в лимиты")
+    void shouldConfirmCancelAndExpire() {
+        //given
+        AtomicLong clock = new AtomicLong(NOW.toInstant(ZoneOffset.UTC).toEpochMilli());
+        service = new CardAuthorizationService();
+        service.registerCard(CARD, new CardLimits(new BigDecimal(1000), new BigDecimal(500)));
+        PaymentService payments = new PaymentService(service, Duration.ofMinutes(5), Duration.ofHours(1), 100, clock::get);
+        String confirmed = payments.check(new PaymentRequest("a", CARD, new BigDecimal(300))).paymentId();
+        String cancelled = payments.check(new PaymentRequest("b", CARD, new BigDecimal(300))).paymentId();
+        String expired = payments.check(new PaymentRequest("c", CARD, new BigDecimal(300))).paymentId();
+        //when
+        payments.confirm(confirmed);
+        payments.confirm(confirmed);
+        payments.cancel(cancelled);
+        payments.cancel(cancelled);
+        clock.addAndGet(Duration.ofMinutes(6).toMillis());
+        payments.expireReservations();
+        //then
+        assertEquals(30_000, service.daySpent(CARD, clock.get()));
+        assertThrows(IllegalStateException.class, () -> payments.cancel(confirmed));
+        assertThrows(IllegalStateException.class, () -> payments.confirm(expired));
+        assertThrows(IllegalArgumentException.class, () -> payments.confirm("unknown"));
+        assertTrue(payments.check(new PaymentRequest("d", CARD, new BigDecimal(500))).result());
+    }
+}
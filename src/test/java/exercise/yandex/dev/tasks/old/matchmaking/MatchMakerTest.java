@@ -0,0 +1,207 @@
+package exercise.yandex.dev.tasks.old.matchmaking;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatchMakerTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final List<Match> published = new ArrayList<>();
+    private MatchQueue queue;
+    private MatchMaker matchMaker;
+
+    @BeforeEach
+    void setUp() {
+        queue = new MatchQueue(now::get);
+        matchMaker = new MatchMaker(queue, published::add);
+    }
+
+    @Test
+    @DisplayName("One tick forms every match the queue allows")
+    void shouldFormAllMatchesInOneTick() {
+        // given
+        for (int group = 0; group < 3; group++) {
+            enqueueFullMatch("g" + group, 1500);
+        }
+        enqueueFullMatch("far", 2500);
+        queue.enqueue(new Player("alone", 1500, Role.MID, Role.TOP));
+
+        // when
+        int matches = matchMaker.tick();
+
+        // then
+        assertEquals(4, matches);
+        assertEquals(4, published.size());
+        assertEquals(1, queue.size());
+        assertEquals(40, matchMaker.waitMillis().count());
+        assertEquals(4, matchMaker.mmrDifference().count());
+    }
+
+    @Test
+    @DisplayName("MMR window widens with the time the longest waiting player spent in queue")
+    void shouldWidenWindowWithWaitTime() {
+        // given - half of each role at 1000, the other half at 1300
+        for (Role role : Role.values()) {
+            queue.enqueue(new Player("low-" + role, 1000, role, Role.MID));
+        }
+        now.set(20_000);
+        for (Role role : Role.values()) {
+            queue.enqueue(new Player("high-" + role, 1300, role, Role.MID));
+        }
+
+        // when
+        now.set(110_000);
+        int early = matchMaker.tick();
+        now.set(120_000);
+        int late = matchMaker.tick();
+
+        // then - low players wait 110 s (window 325), high ones 90 s (window 275) - not mutual yet;
+        // 10 s later the high players' window is 300
+        assertEquals(0, early);
+        assertEquals(1, late);
+        assertEquals(120_000, matchMaker.waitMillis().max());
+        assertTrue(matchMaker.waitMillis().percentile(50) >= 100_000);
+    }
+
+    @Test
+    @DisplayName("Candidates join only if the anchor is inside their own window")
+    void shouldRequireMutualAcceptance() {
+        // given - the anchor waits long enough to accept any MMR, the rest have just joined
+        queue.enqueue(new Player("anchor", 1000, Role.TOP, Role.MID));
+        now.set(MatchMaker.GUARANTEED_AFTER_MILLIS);
+        queue.enqueue(new Player("top", 1300, Role.TOP, Role.MID));
+        for (Role role : Role.values()) {
+            if (role != Role.TOP) {
+                queue.enqueue(new Player(role + "-1", 1300, role, Role.TOP));
+                queue.enqueue(new Player(role + "-2", 1300, role, Role.TOP));
+            }
+        }
+
+        // when
+        int early = matchMaker.tick();
+        now.addAndGet(100_000);
+        int late = matchMaker.tick();
+
+        // then - candidates' window is 50 at first and 300 after 100 s
+        assertEquals(0, early);
+        assertEquals(1, late);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    @DisplayName("After five minutes any MMR is accepted")
+    void shouldGuaranteeMatchAfterFiveMinutes() {
+        // given
+        for (Role role : Role.values()) {
+            queue.enqueue(new Player("low-" + role, 500, role, Role.MID));
+            queue.enqueue(new Player("high-" + role, 2500, role, Role.MID));
+        }
+
+        // when
+        now.set(MatchMaker.GUARANTEED_AFTER_MILLIS - 1);
+        int before = matchMaker.tick();
+        now.set(MatchMaker.GUARANTEED_AFTER_MILLIS);
+        int after = matchMaker.tick();
+
+        // then
+        assertEquals(0, before);
+        assertEquals(1, after);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    @DisplayName("Listener failure does not stop matching")
+    void shouldSurviveListenerFailure() {
+        // given
+        matchMaker = new MatchMaker(queue, match -> {
+            throw new IllegalStateException("listener is down");
+        });
+        enqueueFullMatch("a", 1500);
+        enqueueFullMatch("b", 1500);
+
+        // when
+        int matches = matchMaker.tick();
+
+        // then
+        assertEquals(2, matches);
+        assertEquals(2, matchMaker.listenerFailures());
+    }
+
+    @Test
+    @DisplayName("A failed tick does not cancel background matching")
+    void shouldSurviveTickFailure() {
+        // given
+        AtomicBoolean clockDown = new AtomicBoolean();
+        queue = new MatchQueue(() -> {
+            if (clockDown.getAndSet(false)) {
+                throw new IllegalStateException("clock is down");
+            }
+            return now.get();
+        });
+        matchMaker = new MatchMaker(queue, published::add);
+        enqueueFullMatch("a", 1500);
+        clockDown.set(true);
+
+        // when
+        int failed = matchMaker.tick();
+        int matches = matchMaker.tick();
+
+        // then
+        assertEquals(0, failed);
+        assertEquals(1, matches);
+        assertEquals(1, matchMaker.tickFailures());
+    }
+
+    @Test
+    @DisplayName("Started match maker publishes matches in background until closed")
+    void shouldMatchInBackgroundUntilClosed() throws InterruptedException {
+        // given
+        BlockingQueue<Match> matches = new LinkedBlockingQueue<>();
+        AtomicBoolean clockDown = new AtomicBoolean();
+        queue = new MatchQueue(() -> {
+            if (clockDown.getAndSet(false)) {
+                throw new IllegalStateException("clock is down");
+            }
+            return now.get();
+        });
+        enqueueFullMatch("a", 1500);
+        clockDown.set(true);
+
+        // when
+        MatchMaker background = new MatchMaker(queue, matches::add);
+        try {
+            background.start(5);
+            assertThrows(IllegalStateException.class, () -> background.start(5));
+
+            // then - the first tick fails, the next ones still run
+            assertNotNull(matches.poll(10, TimeUnit.SECONDS));
+            assertEquals(1, background.tickFailures());
+            assertEquals(0, queue.size());
+        } finally {
+            background.close();
+        }
+
+        // then - nothing is matched after close
+        enqueueFullMatch("b", 1500);
+        assertNull(matches.poll(50, TimeUnit.MILLISECONDS));
+        assertEquals(MatchQueue.MATCH_SIZE, queue.size());
+    }
+
+    private void enqueueFullMatch(String prefix, int mmr) {
+        for (Role role : Role.values()) {
+            queue.enqueue(new Player(prefix + "-" + role + "-1", mmr, role, Role.MID));
+            queue.enqueue(new Player(prefix + "-" + role + "-2", mmr, role, Role.MID));
+        }
+    }
+}
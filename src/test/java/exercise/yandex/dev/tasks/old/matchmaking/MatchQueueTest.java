@@ -0,0 +1,135 @@
+package exercise.yandex.dev.tasks.old.matchmaking;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatchQueueTest {
+
+    private MatchQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        queue = new MatchQueue();
+    }
+
+    @Test
+    @DisplayName("Match takes two primary players per role and leaves the queue")
+    void shouldCreateMatchFromPrimaryRoles() {
+        // given
+        for (Role role : Role.values()) {
+            queue.enqueue(new Player(role + "-1", 2000, role, Role.MID));
+            queue.enqueue(new Player(role + "-2", 2010, role, Role.MID));
+        }
+
+        // when
+        Optional<Match> match = queue.tryCreateMatch(50);
+
+        // then
+        assertTrue(match.isPresent());
+        for (Team team : List.of(match.get().team1(), match.get().team2())) {
+            assertEquals(5, team.roster().size());
+            team.roster().forEach((role, assignment) -> {
+                assertEquals(role, assignment.player().primaryRole());
+                assertEquals(AssignmentType.PRIMARY, assignment.type());
+            });
+        }
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    @DisplayName("Only players inside the MMR window of the longest waiting player are matched")
+    void shouldRespectMmrWindow() {
+        // given
+        for (Role role : Role.values()) {
+            queue.enqueue(new Player("low-" + role + "-1", 1000, role, Role.TOP));
+            queue.enqueue(new Player("high-" + role + "-1", 2500, role, Role.TOP));
+            queue.enqueue(new Player("low-" + role + "-2", 1040, role, Role.TOP));
+            queue.enqueue(new Player("high-" + role + "-2", 2540, role, Role.TOP));
+        }
+
+        // when
+        Optional<Match> match = queue.tryCreateMatch(100);
+
+        // then
+        assertTrue(match.isPresent());
+        players(match.get()).forEach(player -> assertTrue(player.mmr() <= 1100, player.id()));
+        assertEquals(10, queue.size());
+        assertTrue(queue.tryCreateMatch(50).isPresent());
+    }
+
+    @Test
+    @DisplayName("Missing role is filled from secondary, then one autofill per team")
+    void shouldUseSecondaryAndAutofill() {
+        // given - nobody mains SUP, one player has it as secondary
+        for (Role role : List.of(Role.TOP, Role.JUNGLE, Role.MID, Role.ADC)) {
+            queue.enqueue(new Player(role + "-1", 1500, role, Role.TOP));
+            queue.enqueue(new Player(role + "-2", 1500, role, Role.TOP));
+        }
+        queue.enqueue(new Player("flex", 1500, Role.MID, Role.SUP));
+        queue.enqueue(new Player("extra", 1500, Role.ADC, Role.JUNGLE));
+        queue.enqueue(new Player("filler", 1500, Role.TOP, Role.JUNGLE));
+
+        // when
+        Optional<Match> match = queue.tryCreateMatch(50);
+
+        // then
+        assertTrue(match.isPresent());
+        PlayerAssignment sup1 = match.get().team1().roster().get(Role.SUP);
+        PlayerAssignment sup2 = match.get().team2().roster().get(Role.SUP);
+        assertEquals(EnumSet.of(AssignmentType.SECONDARY, AssignmentType.AUTOFILL), EnumSet.of(sup1.type(), sup2.type()));
+        assertEquals("flex", (sup1.type() == AssignmentType.SECONDARY ? sup1 : sup2).player().id());
+    }
+
+    @Test
+    @DisplayName("Cancelled player is not matched")
+    void shouldCancel() {
+        // given
+        for (Role role : Role.values()) {
+            queue.enqueue(new Player(role + "-1", 2000, role, Role.MID));
+            queue.enqueue(new Player(role + "-2", 2000, role, Role.MID));
+        }
+
+        // when
+        boolean cancelled = queue.cancel("SUP-1");
+
+        // then
+        assertTrue(cancelled);
+        assertFalse(queue.cancel("SUP-1"));
+        assertEquals(9, queue.size());
+        assertTrue(queue.tryCreateMatch(800).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Teams are split to minimise the MMR difference")
+    void shouldBalanceTeams() {
+        // given
+        int[] mmr = {1000, 1100, 1200, 1300, 1400, 1450, 1350, 1250, 1150, 1050};
+        int i = 0;
+        for (Role role : Role.values()) {
+            queue.enqueue(new Player(role + "-1", mmr[i++], role, Role.MID));
+            queue.enqueue(new Player(role + "-2", mmr[i++], role, Role.MID));
+        }
+
+        // when
+        Optional<Match> match = queue.tryCreateMatch(500);
+
+        // then
+        assertTrue(match.isPresent());
+        assertTrue(match.get().mmrDifference() <= 10, "diff " + match.get().mmrDifference());
+    }
+
+    private static List<Player> players(Match match) {
+        List<Player> players = new ArrayList<>();
+        match.team1().roster().values().forEach(assignment -> players.add(assignment.player()));
+        match.team2().roster().values().forEach(assignment -> players.add(assignment.player()));
+        return players;
+    }
+}
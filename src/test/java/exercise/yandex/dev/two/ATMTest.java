@@ -2,14 +2,34 @@ package exercise.yandex.dev.two;
 
 import exercise.yandex.dev.tasks.atm.ATM;
 import exercise.yandex.dev.tasks.atm.CashStorage;
+import exercise.yandex.dev.tasks.atm.CassetteJournal;
 import exercise.yandex.dev.tasks.atm.Currency;
 import exercise.yandex.dev.tasks.atm.Denomination;
+import exercise.yandex.dev.tasks.atm.DenominationTable;
+import exercise.yandex.dev.tasks.atm.DispensePolicy;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
-
+import org.junit.jupiter.api.io.TempDir;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -345,6 +365,108 @@ class ATMTest {
                     .sum();
             assertEquals(amount, totalFromBanknotes);
         }
+
+        @Test
+        @DisplayName("Should fall back to DP when greedy cannot make the amount")
+        void shouldFallBackWhenGreedyFails() {
+            // given - 60 EUR: greedy takes 50 and cannot make the remaining 10
+            cashStorage.newBank(new HashMap<>(Map.of(Denomination.EUR_20, 3, Denomination.EUR_50, 1)), Currency.EUR);
+
+            // when
+            var result = atm.withdraw(Currency.EUR, 60);
+
+            // then
+            assertTrue(result.result());
+            assertEquals(Map.of(Denomination.EUR_20, 3), result.banknotes());
+            assertEquals(50, atm.getBalance(Currency.EUR));
+        }
+
+        @Test
+        @DisplayName("Should never pay a note larger than the amount through DP")
+        void shouldDispenseExactSum_whenLargerNoteIsNotMultipleOfGcd() {
+            // given - 40 EUR: the GCD of notes up to 40 is 20, the 50 note must not count as 40
+            cashStorage.newBank(new HashMap<>(Map.of(Denomination.EUR_50, 1, Denomination.EUR_20, 1)), Currency.EUR);
+            var failed = atm.withdraw(Currency.EUR, 40);
+            cashStorage.newBank(new HashMap<>(Map.of(Denomination.EUR_50, 1, Denomination.EUR_20, 2)), Currency.EUR);
+
+            // when
+            var result = atm.withdraw(Currency.EUR, 40);
+
+            // then
+            assertFalse(failed.result());
+            assertTrue(result.result());
+            assertEquals(40, result.banknotes().entrySet().stream()
+                    .mapToInt(e -> e.getKey().getAmount() * e.getValue())
+                    .sum());
+            assertEquals(50, atm.getBalance(Currency.EUR));
+        }
+
+        @Test
+        @DisplayName("PRESERVE_SMALL pays the exact amount without overdrawing a cassette in any state")
+        void shouldPayExactAmountFromAvailableNotes_acrossCassetteStates() {
+            // given - cassettes from nearly empty to well above the reserve, amounts up to ten largest notes
+            Random random = new Random(46);
+            for (Currency currency : Currency.values()) {
+                int[] values = DenominationTable.values(currency);
+                int[] preserved = new int[values.length];
+                int[] minimal = new int[values.length];
+                for (int state = 0; state < 2_000; state++) {
+                    int[] counts = new int[values.length];
+                    for (int i = 0; i < counts.length; i++) {
+                        counts[i] = random.nextInt(random.nextBoolean() ? 4 : 150);
+                    }
+                    // half of the amounts are small: there the GCD of the notes up to the amount differs
+                    long amount = 10L * (1 + random.nextInt(random.nextBoolean() ? 10 : values[0]));
+
+                    // when
+                    boolean paid = DispensePolicy.PRESERVE_SMALL.choose(values, counts, amount, preserved);
+                    boolean possible = DispensePolicy.GREEDY_THEN_DP.choose(values, counts, amount, minimal);
+
+                    // then
+                    assertEquals(possible, paid, currency + " " + amount);
+                    if (paid) {
+                        long sum = 0;
+                        for (int i = 0; i < values.length; i++) {
+                            assertTrue(preserved[i] >= 0 && preserved[i] <= counts[i], currency + " " + amount);
+                            sum += (long) preserved[i] * values[i];
+                        }
+                        assertEquals(amount, sum, currency + " " + amount);
+                    }
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("Should spend plentiful small notes instead of the reserve")
+        void shouldPreserveSmallNoteReserve() {
+            // given - 100s are down to the reserve, 50s are plentiful
+            cashStorage.newBank(new HashMap<>(Map.of(
+                    Denomination.RUB_500, 1, Denomination.RUB_100, 100, Denomination.RUB_50, 300)), Currency.RUB);
+            ATM preserving = new ATM(cashStorage, DispensePolicy.PRESERVE_SMALL, System::currentTimeMillis);
+
+            // when
+            var result = preserving.withdraw(Currency.RUB, 600);
+
+            // then
+            assertTrue(result.result());
+            assertEquals(Map.of(Denomination.RUB_500, 1, Denomination.RUB_50, 2), result.banknotes());
+            assertEquals(100, cashStorage.count(Denomination.RUB_100));
+        }
+
+        @Test
+        @DisplayName("Should dispense from the reserve when nothing else makes the amount")
+        void shouldUseReserveWhenUnavoidable() {
+            // given
+            cashStorage.newBank(new HashMap<>(Map.of(Denomination.RUB_100, 5)), Currency.RUB);
+            ATM preserving = new ATM(cashStorage, DispensePolicy.PRESERVE_SMALL, System::currentTimeMillis);
+
+            // when
+            var result = preserving.withdraw(Currency.RUB, 300);
+
+            // then
+            assertTrue(result.result());
+            assertEquals(Map.of(Denomination.RUB_100, 3), result.banknotes());
+        }
     }
 
     // ==================== BALANCE TESTS ====================
@@ -393,6 +515,249 @@ class ATMTest {
         }
     }
 
+    // ==================== CONCURRENCY TESTS ====================
+
+    @Nested
+    @DisplayName("Concurrency Tests")
+    class ConcurrencyTests {
+
+        @Test
+        @DisplayName("Should never dispense more notes than loaded under 32 concurrent withdrawers")
+        void shouldNeverOversellUnderConcurrency() throws InterruptedException {
+            // given
+            var before = cashStorage.getBank();
+            int[] amounts = {50, 100, 150, 600, 1000, 20, 40, 120, 500, 620};
+            Map<Denomination, AtomicInteger> dispensed = new ConcurrentHashMap<>();
+            ExecutorService executor = Executors.newFixedThreadPool(32);
+            CountDownLatch start = new CountDownLatch(1);
+
+            // when
+            for (int t = 0; t < 32; t++) {
+                int seed = t;
+                executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 500; i++) {
+                        int amount = amounts[(seed + i) % amounts.length];
+                        Currency currency = amount % 50 == 0 && (seed + i) % 2 == 0 ? Currency.RUB : Currency.EUR;
+                        var result = atm.withdraw(currency, amount);
+                        result.banknotes().forEach((denomination, count) ->
+                                dispensed.computeIfAbsent(denomination, d -> new AtomicInteger()).addAndGet(count));
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+            // then
+            var after = cashStorage.getBank();
+            for (Currency currency : Currency.values()) {
+                for (Denomination denomination : DenominationTable.denominations(currency)) {
+                    int taken = dispensed.getOrDefault(denomination, new AtomicInteger()).get();
+                    assertEquals(before.get(currency).get(denomination) - taken, after.get(currency).get(denomination));
+                }
+            }
+        }
+    }
+
+    // ==================== RESERVATION TESTS ====================
+
+    @Nested
+    @DisplayName("Reservation Tests")
+    class ReservationTests {
+
+        @Test
+        @DisplayName("Held notes are excluded from balance and dispensed once")
+        void shouldHoldAndDispense() {
+            // given
+            int initialBalance = atm.getBalance(Currency.RUB);
+
+            // when
+            var hold = atm.reserve(Currency.RUB, 1500, Duration.ofMinutes(5));
+            int heldBalance = atm.getBalance(Currency.RUB);
+            var dispensed = atm.dispense(hold.holdId());
+            var again = atm.dispense(hold.holdId());
+            atm.cancel(hold.holdId());
+
+            // then
+            assertTrue(hold.result());
+            assertEquals(initialBalance - 1500, heldBalance);
+            assertTrue(dispensed.result());
+            assertEquals(hold.banknotes(), dispensed.banknotes());
+            assertFalse(again.result());
+            assertEquals(initialBalance - 1500, atm.getBalance(Currency.RUB));
+        }
+
+        @Test
+        @DisplayName("Hold above the balance is refused before any notes are chosen")
+        void shouldRefuseHold_whenAmountExceedsBalance() {
+            // given
+            int initialBalance = atm.getBalance(Currency.RUB);
+
+            // when
+            var hold = atm.reserve(Currency.RUB, 199_999_950, Duration.ofMinutes(5));
+
+            // then
+            assertFalse(hold.result());
+            assertEquals("ATM dont enough money", hold.message());
+            assertEquals(initialBalance, atm.getBalance(Currency.RUB));
+        }
+
+        @Test
+        @DisplayName("Cancelled and expired holds return notes to the cassettes")
+        void shouldReleaseCancelledAndExpiredHolds() {
+            // given
+            AtomicLong clock = new AtomicLong(1_000_000);
+            atm = new ATM(cashStorage, clock::get);
+            int initialBalance = atm.getBalance(Currency.EUR);
+            var cancelled = atm.reserve(Currency.EUR, 600, Duration.ofMinutes(5));
+            var abandoned = atm.reserve(Currency.EUR, 120, Duration.ofMinutes(5));
+
+            // when
+            atm.cancel(cancelled.holdId());
+            clock.addAndGet(Duration.ofMinutes(6).toMillis());
+            int expired = atm.expireHolds();
+
+            // then
+            assertEquals(1, expired);
+            assertEquals(initialBalance, atm.getBalance(Currency.EUR));
+            assertFalse(atm.dispense(abandoned.holdId()).result());
+        }
+
+        @Test
+        @DisplayName("Expired hold keeps its notes until the refilled cassette has room")
+        void shouldKeepHold_whenCassetteOverflowsOnRelease() {
+            // given - the hold takes five 100s, then the cassette is refilled to its 4095-note limit
+            AtomicLong clock = new AtomicLong(1_000_000);
+            cashStorage.newBank(new HashMap<>(Map.of(Denomination.RUB_100, 10)), Currency.RUB);
+            atm = new ATM(cashStorage, clock::get);
+            var hold = atm.reserve(Currency.RUB, 500, Duration.ofMinutes(1));
+            cashStorage.newBank(new HashMap<>(Map.of(Denomination.RUB_100, 4095)), Currency.RUB);
+            clock.addAndGet(Duration.ofMinutes(2).toMillis());
+
+            // when
+            int expiredWhileFull = atm.expireHolds();
+            assertThrows(IllegalArgumentException.class, () -> atm.cancel(hold.holdId()));
+            var withdrawn = atm.withdraw(Currency.RUB, 1000);
+            clock.addAndGet(Duration.ofSeconds(1).toMillis());
+            int expiredAfterWithdraw = atm.expireHolds();
+
+            // then
+            assertEquals(0, expiredWhileFull);
+            assertTrue(withdrawn.result());
+            assertEquals(1, expiredAfterWithdraw);
+            assertEquals(4095 - 10 + 5, cashStorage.count(Denomination.RUB_100));
+            assertFalse(atm.dispense(hold.holdId()).result());
+        }
+    }
+
+    @Nested
+    class JournalTests {
+
+        @Test
+        @DisplayName("Recovery replays dispenses and returns notes of open holds")
+        void shouldRecoverCassettesFromJournal(@TempDir Path dir) throws Exception {
+            // given
+            try (CassetteJournal journal = CassetteJournal.open(dir)) {
+                CashStorage storage = new CashStorage(journal);
+                storage.newBank(Map.of(Denomination.RUB_1000, 10, Denomination.RUB_500, 10, Denomination.RUB_100, 10), Currency.RUB);
+                ATM journaled = new ATM(storage);
+                var dispensedHold = journaled.reserve(Currency.RUB, 1500, Duration.ofMinutes(5));
+                journaled.dispense(dispensedHold.holdId());
+                journaled.reserve(Currency.RUB, 2000, Duration.ofMinutes(5));
+                journaled.withdraw(Currency.RUB, 600);
+            }
+            // оборванная последняя запись
+            Files.write(dir.resolve("cassettes.journal"), new byte[]{1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+            // when
+            try (CassetteJournal journal = CassetteJournal.open(dir)) {
+                CashStorage recovered = new CashStorage(journal);
+
+                // then
+                assertEquals(16000 - 1500 - 600, recovered.balance(Currency.RUB));
+                assertEquals(9, recovered.count(Denomination.RUB_100));
+            }
+        }
+
+        @Test
+        @DisplayName("Recovery rejects an open hold that would overflow its cassette")
+        void shouldRejectJournal_whenReturnedHoldOverflowsCassette(@TempDir Path dir) throws Exception {
+            // given: 5 notes in slot 0, all of them on hold, then the cassette is refilled to capacity
+            int bits = Long.SIZE / DenominationTable.denominations(Currency.RUB).length;
+            long full = (1L << bits) - 1;
+            ByteBuffer records = ByteBuffer.allocate(3 * JOURNAL_RECORD_SIZE);
+            putRecord(records, 1, REFILL, 0, 5);
+            putRecord(records, 2, RESERVE, 7, 0);
+            putRecord(records, 3, REFILL, 0, full);
+            Files.write(dir.resolve("cassettes.journal"), records.array());
+
+            // when / then: without per-cassette checks the 5 notes would spill into slot 1
+            assertThrows(UncheckedIOException.class, () -> CassetteJournal.open(dir).close());
+        }
+
+        @Test
+        @DisplayName("Closed journal refuses a withdrawal without debiting the cassettes")
+        void shouldKeepCassettes_whenJournalIsClosed(@TempDir Path dir) {
+            // given
+            CassetteJournal journal = CassetteJournal.open(dir);
+            CashStorage storage = new CashStorage(journal);
+            storage.newBank(Map.of(Denomination.RUB_100, 10), Currency.RUB);
+            ATM journaled = new ATM(storage);
+            journal.close();
+
+            // when / then
+            assertThrows(IllegalStateException.class, () -> journaled.withdraw(Currency.RUB, 300));
+            assertEquals(1000, storage.balance(Currency.RUB));
+        }
+
+        @Test
+        @DisplayName("Concurrent withdrawals are all durable after group commit")
+        void shouldPersistConcurrentWithdrawals(@TempDir Path dir) throws Exception {
+            // given
+            AtomicInteger served = new AtomicInteger();
+            try (CassetteJournal journal = CassetteJournal.open(dir)) {
+                CashStorage storage = new CashStorage(journal);
+                storage.newBank(Map.of(Denomination.RUB_100, 4000), Currency.RUB);
+                ATM journaled = new ATM(storage);
+                ExecutorService executor = Executors.newFixedThreadPool(16);
+
+                // when
+                for (int i = 0; i < 16; i++) {
+                    executor.submit(() -> {
+                        for (int j = 0; j < 100; j++) {
+                            if (journaled.withdraw(Currency.RUB, 100).result()) {
+                                served.incrementAndGet();
+                            }
+                        }
+                    });
+                }
+                executor.shutdown();
+                assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+            }
+
+            // then
+            assertEquals(1600, served.get());
+            try (CassetteJournal journal = CassetteJournal.open(dir)) {
+                assertEquals(2400, new CashStorage(journal).count(Denomination.RUB_100));
+            }
+        }
+
+        // journal record layout: seq, type, currency, hold ref, state, crc
+        private static final int JOURNAL_RECORD_SIZE = Long.BYTES + 2 + Long.BYTES + Long.BYTES + Integer.BYTES;
+        private static final byte RESERVE = 2;
+        private static final byte REFILL = 5;
+
+        private void putRecord(ByteBuffer buffer, long seq, byte type, long ref, long state) {
+            int start = buffer.position();
+            buffer.putLong(seq).put(type).put((byte) Currency.RUB.ordinal()).putLong(ref).putLong(state);
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.array(), start, buffer.position() - start);
+            buffer.putInt((int) crc.getValue());
+        }
+    }
+
     // ==================== CUSTOM CASH STORAGE TESTS ====================
 
     @Nested